@@ -24,14 +24,17 @@ import android.os.Build;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.devbrackets.android.exomedia.builder.BufferPolicy;
 import com.devbrackets.android.exomedia.builder.DashRenderBuilder;
 import com.devbrackets.android.exomedia.builder.HlsRenderBuilder;
 import com.devbrackets.android.exomedia.builder.RenderBuilder;
 import com.devbrackets.android.exomedia.builder.SmoothStreamRenderBuilder;
 import com.devbrackets.android.exomedia.event.EMMediaProgressEvent;
 import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
+import com.devbrackets.android.exomedia.exoplayer.EMExoPlayerPool;
 import com.devbrackets.android.exomedia.listener.EMProgressCallback;
 import com.devbrackets.android.exomedia.listener.ExoPlayerListener;
+import com.devbrackets.android.exomedia.listener.PlaybackInfoListener;
 import com.devbrackets.android.exomedia.type.MediaSourceType;
 import com.devbrackets.android.exomedia.util.EMCompatUtil;
 import com.devbrackets.android.exomedia.util.EMDeviceUtil;
@@ -66,6 +69,9 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
     private int positionOffset = 0;
 
     private int audioStreamType = AudioManager.STREAM_MUSIC;
+
+    @Nullable
+    private BufferPolicy bufferPolicy;
     private boolean overridePosition = false;
 
     @Nullable
@@ -76,7 +82,8 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
     private StopWatch overriddenPositionStopWatch = new StopWatch();
 
     private AudioCapabilities audioCapabilities;
-    private AudioCapabilitiesReceiver audioCapabilitiesReceiver;
+    @Nullable
+    private EMExoPlayerPool playerPool;
 
     private EMMediaProgressEvent currentMediaProgressEvent = new EMMediaProgressEvent(0, 0, 0);
 
@@ -110,14 +117,17 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
      * Creates the ExoPlayer and sets the listeners
      */
     private void setupEMExoPlayer() {
-        if (audioCapabilitiesReceiver == null) {
-            audioCapabilitiesReceiver = new AudioCapabilitiesReceiver(context.getApplicationContext(), this);
-            audioCapabilitiesReceiver.register();
+        if (playerPool == null) {
+            playerPool = EMExoPlayerPool.initialize(context);
+            playerPool.addAudioCapabilitiesListener(this);
         }
 
         if (emExoPlayer == null) {
             emExoPlayer = new EMExoPlayer();
 
+            //There is no surface to render video to, so the video doesn't need to be loaded or decoded
+            emExoPlayer.setAudioOnly(true);
+
             //Sets the internal listener
             listenerMux = new EMListenerMux(new MuxNotifier());
             emExoPlayer.addListener(listenerMux);
@@ -246,6 +256,26 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
         }
     }
 
+    /**
+     * Sets the policy that determines how much media the RenderBuilders created by
+     * the EMAudioPlayer will buffer.  This will be used for any media set after this call.
+     *
+     * @param bufferPolicy The BufferPolicy to use or null to use the device default (see {@link BufferPolicy#forDevice(Context)})
+     */
+    public void setBufferPolicy(@Nullable BufferPolicy bufferPolicy) {
+        this.bufferPolicy = bufferPolicy;
+    }
+
+    /**
+     * Retrieves the policy that determines how much media the RenderBuilders
+     * created by the EMAudioPlayer will buffer
+     *
+     * @return The BufferPolicy to use
+     */
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy != null ? bufferPolicy : BufferPolicy.forDevice(context);
+    }
+
     /**
      * Retrieves the user agent that the EMAudioPlayer will use when communicating
      * with media servers
@@ -308,6 +338,7 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
         RenderBuilder builder = null;
         if (uri != null) {
             builder = getRendererBuilder(MediaSourceType.get(uri), uri, defaultMediaType);
+            builder.setBufferPolicy(getBufferPolicy());
         }
 
         setDataSource(context, uri, builder);
@@ -398,6 +429,7 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
 
         if (!useExo) {
             mediaPlayer.reset();
+            mediaPlayer.setAudioStreamType(audioStreamType);
         }
     }
 
@@ -490,9 +522,9 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
         stopProgressPoll();
         overriddenPositionStopWatch.stop();
 
-        if (audioCapabilitiesReceiver != null) {
-            audioCapabilitiesReceiver.unregister();
-            audioCapabilitiesReceiver = null;
+        if (playerPool != null) {
+            playerPool.removeAudioCapabilitiesListener(this);
+            playerPool = null;
         }
     }
 
@@ -672,6 +704,19 @@ public class EMAudioPlayer implements AudioCapabilitiesReceiver.Listener {
         listenerMux.setOnBufferingUpdateListener(listener);
     }
 
+    /**
+     * Sets the listener to inform of the startup timeline, adaptive format switches,
+     * and live edge distance of the audio.  This is only supported when the
+     * ExoPlayer is being used.
+     *
+     * @param listener The listener to inform or null
+     */
+    public void setPlaybackInfoListener(@Nullable PlaybackInfoListener listener) {
+        if (useExo) {
+            emExoPlayer.setPlaybackInfoListener(listener);
+        }
+    }
+
     /**
      * Performs the functionality to stop the progress polling, and stop any other
      * procedures from running that we no longer need.
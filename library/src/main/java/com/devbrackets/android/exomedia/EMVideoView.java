@@ -40,6 +40,9 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.VideoView;
 
+import com.devbrackets.android.exomedia.abr.AbrStrategy;
+import com.devbrackets.android.exomedia.builder.BitratePolicy;
+import com.devbrackets.android.exomedia.builder.BufferPolicy;
 import com.devbrackets.android.exomedia.builder.DashRenderBuilder;
 import com.devbrackets.android.exomedia.builder.HlsRenderBuilder;
 import com.devbrackets.android.exomedia.builder.RenderBuilder;
@@ -47,14 +50,24 @@ import com.devbrackets.android.exomedia.builder.SmoothStreamRenderBuilder;
 import com.devbrackets.android.exomedia.event.EMMediaProgressEvent;
 import com.devbrackets.android.exomedia.event.EMVideoViewClickedEvent;
 import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
+import com.devbrackets.android.exomedia.exoplayer.EMExoPlayerPool;
+import com.devbrackets.android.exomedia.exoplayer.EMLiveLatencyController;
+import com.devbrackets.android.exomedia.exoplayer.EMPreloadCache;
+import com.devbrackets.android.exomedia.exoplayer.EMStartupReport;
 import com.devbrackets.android.exomedia.listener.CaptionListener;
 import com.devbrackets.android.exomedia.listener.EMProgressCallback;
 import com.devbrackets.android.exomedia.listener.EMVideoViewControlsCallback;
 import com.devbrackets.android.exomedia.listener.ExoPlayerListener;
+import com.devbrackets.android.exomedia.listener.PlaybackInfoListener;
+import com.devbrackets.android.exomedia.thumbnail.EMThumbnailLoader;
 import com.devbrackets.android.exomedia.type.MediaSourceType;
+import com.devbrackets.android.exomedia.type.SeekMode;
+import com.devbrackets.android.exomedia.util.EMCodecCapabilities;
 import com.devbrackets.android.exomedia.util.EMCompatUtil;
+import com.devbrackets.android.exomedia.util.EMDecoderHealth;
 import com.devbrackets.android.exomedia.util.EMDeviceUtil;
 import com.devbrackets.android.exomedia.util.EMEventBus;
+import com.devbrackets.android.exomedia.util.EMMemoryGovernor;
 import com.devbrackets.android.exomedia.util.MediaUtil;
 import com.devbrackets.android.exomedia.util.Repeater;
 import com.devbrackets.android.exomedia.util.StopWatch;
@@ -62,6 +75,7 @@ import com.devbrackets.android.exomedia.widget.DefaultControls;
 import com.devbrackets.android.exomedia.widget.DefaultControlsLeanback;
 import com.devbrackets.android.exomedia.widget.DefaultControlsMobile;
 import com.devbrackets.android.exomedia.widget.VideoTextureView;
+import com.google.android.exoplayer.ExoPlayer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.audio.AudioCapabilitiesReceiver;
 
@@ -75,7 +89,8 @@ import com.google.android.exoplayer.audio.AudioCapabilitiesReceiver;
  * to help with quick implementations.
  */
 @SuppressWarnings("UnusedDeclaration")
-public class EMVideoView extends RelativeLayout implements AudioCapabilitiesReceiver.Listener, VideoTextureView.OnSizeChangeListener {
+public class EMVideoView extends RelativeLayout implements AudioCapabilitiesReceiver.Listener, VideoTextureView.OnSizeChangeListener,
+        EMMemoryGovernor.OnBackgroundChangedListener {
     private static final String TAG = EMVideoView.class.getSimpleName();
     private static final String USER_AGENT_FORMAT = "EMVideoView %s / Android %s / %s";
 
@@ -96,7 +111,17 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
     private StopWatch overriddenPositionStopWatch = new StopWatch();
 
     private AudioCapabilities audioCapabilities;
-    private AudioCapabilitiesReceiver audioCapabilitiesReceiver;
+    @Nullable
+    private EMExoPlayerPool playerPool;
+    @Nullable
+    private EMMemoryGovernor memoryGovernor;
+    @Nullable
+    private CaptionListener captionListener;
+    @Nullable
+    private PlaybackInfoListener playbackInfoListener;
+    private SeekMode seekMode = SeekMode.EXACT;
+    @Nullable
+    private EMThumbnailLoader thumbnailLoader;
 
     private boolean useExo = false;
     private int overriddenDuration = -1;
@@ -107,12 +132,23 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
     private EMListenerMux listenerMux;
     private boolean playRequested = false;
     private boolean releaseOnDetachFromWindow = true;
+    private boolean audioOnly = false;
+    private boolean backgroundAudioEnabled = false;
+    private boolean surfaceDestroyed = false;
 
     @Nullable
     private EMEventBus bus;
 
     private Uri videoUri;
     private String captionsUri;
+
+    @Nullable
+    private BufferPolicy bufferPolicy;
+    @Nullable
+    private AbrStrategy abrStrategy;
+    private BitratePolicy bitratePolicy = BitratePolicy.DEFAULT;
+    @Nullable
+    private EMLiveLatencyController liveLatencyController;
     private EMMediaProgressEvent currentMediaProgressEvent = new EMMediaProgressEvent(0, 0, 0);
 
     public EMVideoView(Context context) {
@@ -140,7 +176,11 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        pause();
+
+        //When background audio is enabled the playback continues as audio only
+        if (releaseOnDetachFromWindow || !backgroundAudioEnabled) {
+            pause();
+        }
 
         if (releaseOnDetachFromWindow) {
             release();
@@ -216,6 +256,11 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
         }
     }
 
+    @Override
+    public void onBackgroundChanged(boolean backgrounded) {
+        updateAudioOnly();
+    }
+
     private void setup(Context context, @Nullable AttributeSet attrs) {
         useExo = EMCompatUtil.supportsExo(context);
         pollRepeater.setRepeatListener(new Repeater.RepeatListener() {
@@ -291,10 +336,18 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     private void setupExoPlayer() {
-        audioCapabilitiesReceiver = new AudioCapabilitiesReceiver(getContext().getApplicationContext(), this);
-        audioCapabilitiesReceiver.register();
+        //Starts loading the decoder capabilities if the application hasn't already
+        EMCodecCapabilities.initialize(getContext());
+        EMDecoderHealth.initialize(getContext());
+
+        playerPool = EMExoPlayerPool.initialize(getContext());
+        playerPool.addAudioCapabilitiesListener(this);
         emExoPlayer = new EMExoPlayer(null);
 
+        //Stops loading the video while the application is backgrounded
+        memoryGovernor = EMMemoryGovernor.getInstance(getContext());
+        memoryGovernor.addOnBackgroundChangedListener(this);
+
         //Sets the internal listener
         listenerMux = new EMListenerMux(muxNotifier);
         emExoPlayer.addListener(listenerMux);
@@ -362,6 +415,45 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
         this.releaseOnDetachFromWindow = releaseOnDetach;
     }
 
+    /**
+     * Enables or disables the continued playback of the audio once the EMVideoView has been
+     * detached from the window (or its surface has otherwise been destroyed).  While detached
+     * the media will be played in audio only mode (see {@link #setAudioOnly(boolean)}), and the
+     * video will be restored once the EMVideoView has been re-attached.  This requires
+     * {@link #setReleaseOnDetachFromWindow(boolean)} to be disabled.
+     *
+     * @param enabled True if the audio should continue to play while detached [default: false]
+     */
+    public void setBackgroundAudioEnabled(boolean enabled) {
+        backgroundAudioEnabled = enabled;
+        updateAudioOnly();
+    }
+
+    /**
+     * Enables or disables audio only playback.  While enabled the video isn't loaded or
+     * decoded, saving bandwidth and battery.  If the media is already playing it will be
+     * rebuilt and resumed at the current position.  This is only supported when
+     * ExoPlayer is being used.
+     *
+     * @param audioOnly True if only the audio should be played [default: false]
+     */
+    public void setAudioOnly(boolean audioOnly) {
+        this.audioOnly = audioOnly;
+        updateAudioOnly();
+    }
+
+    /**
+     * Determines if the media is currently being played in audio only mode, either
+     * because it was requested with {@link #setAudioOnly(boolean)}, because the
+     * EMVideoView is detached with background audio enabled, or because the
+     * application has been backgrounded (see {@link EMMemoryGovernor#isBackgrounded()}).
+     *
+     * @return True if only the audio is being played
+     */
+    public boolean isAudioOnly() {
+        return useExo && emExoPlayer != null && emExoPlayer.isAudioOnly();
+    }
+
     /**
      * Stops the playback and releases all resources attached to this
      * EMVideoView.  This should not be called manually unless
@@ -376,12 +468,93 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
             emExoPlayer.release();
         }
 
-        if (audioCapabilitiesReceiver != null) {
-            audioCapabilitiesReceiver.unregister();
-            audioCapabilitiesReceiver = null;
+        if (playerPool != null) {
+            playerPool.removeAudioCapabilitiesListener(this);
+            playerPool = null;
+        }
+
+        if (thumbnailLoader != null) {
+            thumbnailLoader.release();
+            thumbnailLoader = null;
         }
     }
 
+    /**
+     * Sets the policy that determines how much media the RenderBuilders created by
+     * the EMVideoView will buffer.  This will be used for any media set after this call.
+     *
+     * @param bufferPolicy The BufferPolicy to use or null to use the device default (see {@link BufferPolicy#forDevice(Context)})
+     */
+    public void setBufferPolicy(@Nullable BufferPolicy bufferPolicy) {
+        this.bufferPolicy = bufferPolicy;
+    }
+
+    /**
+     * Retrieves the policy that determines how much media the RenderBuilders
+     * created by the EMVideoView will buffer
+     *
+     * @return The BufferPolicy to use
+     */
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy != null ? bufferPolicy : BufferPolicy.forDevice(getContext());
+    }
+
+    /**
+     * Sets the strategy used to select the format of the adaptive (DASH, HLS,
+     * and SmoothStreaming) video.  This will be used for any media set after this call.
+     *
+     * @param abrStrategy The AbrStrategy to use or null to use the default selection (see {@link RenderBuilder#setAbrStrategy(AbrStrategy)})
+     */
+    public void setAbrStrategy(@Nullable AbrStrategy abrStrategy) {
+        this.abrStrategy = abrStrategy;
+    }
+
+    /**
+     * Sets the policy that determines the highest video bitrate the adaptive (DASH, HLS,
+     * and SmoothStreaming) video may select depending on the network and data saver state.
+     * This will be used for any media set after this call.
+     *
+     * @param bitratePolicy The BitratePolicy to use [default: {@link BitratePolicy#DEFAULT}]
+     */
+    public void setBitratePolicy(BitratePolicy bitratePolicy) {
+        this.bitratePolicy = bitratePolicy;
+    }
+
+    /**
+     * Sets the controller used to keep live DASH and SmoothStreaming video close to the
+     * live edge.  Live media set after this call will also start playback at the target
+     * latency of the controller.  This is only supported when the ExoPlayer is being used.
+     *
+     * @param controller The EMLiveLatencyController to use or null to play at the default latency
+     */
+    public void setLiveLatencyController(@Nullable EMLiveLatencyController controller) {
+        liveLatencyController = controller;
+        if (useExo) {
+            emExoPlayer.setLiveLatencyController(controller);
+        }
+    }
+
+    /**
+     * Retrieves how far the playback position is behind the live edge.  This is only
+     * available when the ExoPlayer is being used.
+     *
+     * @return The distance in milliseconds or {@link ExoPlayer#UNKNOWN_TIME} if the video isn't live
+     */
+    public long getLiveEdgeDistance() {
+        return useExo ? emExoPlayer.getLiveEdgeDistance() : ExoPlayer.UNKNOWN_TIME;
+    }
+
+    /**
+     * Retrieves the number of bytes loaded over the network for the current video,
+     * including the manifests and captions.  This is only available when the
+     * ExoPlayer is being used.
+     *
+     * @return The number of bytes transferred
+     */
+    public long getBytesTransferred() {
+        return useExo ? emExoPlayer.getBytesTransferred() : 0;
+    }
+
     /**
      * Retrieves the user agent that the EMVideoView will use when communicating
      * with media servers
@@ -842,9 +1015,20 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
      * @param defaultMediaType The MediaType to use when auto-detection fails
      */
     public void setVideoURI(Uri uri, MediaUtil.MediaType defaultMediaType, String captionsUri) {
+        //The preloaded players don't include captions
+        if (useExo && uri != null && captionsUri == null && usePreloadedPlayer(uri)) {
+            return;
+        }
+
         RenderBuilder builder = null;
         if (uri != null) {
             builder = getRendererBuilder(MediaSourceType.get(uri), uri, defaultMediaType, captionsUri);
+            builder.setBufferPolicy(getBufferPolicy());
+            builder.setAbrStrategy(abrStrategy);
+            builder.setBitratePolicy(bitratePolicy);
+            if (liveLatencyController != null) {
+                builder.setLiveEdgeLatencyMs(liveLatencyController.getTargetLatencyMs());
+            }
         }
 
         setVideoURI(uri, builder, captionsUri);
@@ -890,7 +1074,44 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
         }
     }
 
+    /**
+     * Speculatively prepares the video for the <code>uri</code>, buffering the start of the
+     * video without using this view's surface.  If the media format cannot be determined MP4
+     * will be assumed.  When this view (or any other) is later set to the same Uri, without
+     * captions, playback will start from the preloaded player.  The number of preloaded
+     * videos is bounded by the {@link EMPreloadCache}.
+     *
+     * @param uri The video's Uri
+     */
+    public void preload(Uri uri) {
+        preload(uri, MediaUtil.MediaType.MP4);
+    }
+
+    /**
+     * Speculatively prepares the video for the <code>uri</code>, buffering the start of the
+     * video without using this view's surface (see {@link #preload(Uri)})
+     *
+     * @param uri The video's Uri
+     * @param defaultMediaType The MediaType to use when auto-detection fails
+     */
+    public void preload(Uri uri, MediaUtil.MediaType defaultMediaType) {
+        if (!useExo) {
+            return;
+        }
+
+        RenderBuilder builder = getRendererBuilder(MediaSourceType.get(uri), uri, defaultMediaType, null);
+        builder.setBufferPolicy(getBufferPolicy());
+        builder.setAbrStrategy(abrStrategy);
+        builder.setBitratePolicy(bitratePolicy);
+        if (liveLatencyController != null) {
+            builder.setLiveEdgeLatencyMs(liveLatencyController.getTargetLatencyMs());
+        }
+
+        EMPreloadCache.initialize(getContext()).preload(uri, builder);
+    }
+
     public void setCaptionsListener(CaptionListener captionsListener) {
+        this.captionListener = captionsListener;
         if (emExoPlayer != null) {
             emExoPlayer.setCaptionListener(captionsListener);
         }
@@ -966,6 +1187,73 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
         }
     }
 
+    /**
+     * Sets the mode used to determine the position {@link #seekTo(int)} moves the
+     * playback to.  This is only supported when the ExoPlayer is being used; the
+     * native VideoView always performs exact seeks.
+     *
+     * @param seekMode The SeekMode to use [default: {@link SeekMode#EXACT}]
+     */
+    public void setSeekMode(SeekMode seekMode) {
+        this.seekMode = seekMode;
+        if (useExo) {
+            emExoPlayer.setSeekMode(seekMode);
+        }
+    }
+
+    /**
+     * Retrieves the mode used to determine the position {@link #seekTo(int)}
+     * moves the playback to
+     *
+     * @return The current SeekMode
+     */
+    public SeekMode getSeekMode() {
+        return seekMode;
+    }
+
+    /**
+     * Enables or disables scrubbing.  While scrubbing, rapid calls to {@link #seekTo(int)} are
+     * coalesced so that only the newest position is sought.  This should be enabled while the
+     * user is dragging a seek bar or repeatedly pressing fast forward and rewind, and disabled
+     * once they have finished.  This is only supported when the ExoPlayer is being used.
+     *
+     * @param scrubbing True if the user is scrubbing through the video
+     */
+    public void setScrubbing(boolean scrubbing) {
+        if (useExo) {
+            emExoPlayer.setScrubbing(scrubbing);
+        }
+    }
+
+    /**
+     * Sets the WebVTT thumbnail track used to show previews while seeking with the
+     * default controls.  The track can reference individual images or regions of sprite
+     * sheets (using the <code>#xywh</code> media fragment).
+     *
+     * @param thumbnailUri The Uri for the WebVTT thumbnail track or null to remove the thumbnails
+     */
+    public void setThumbnailUri(@Nullable Uri thumbnailUri) {
+        if (thumbnailLoader == null) {
+            if (thumbnailUri == null) {
+                return;
+            }
+
+            thumbnailLoader = new EMThumbnailLoader(getContext(), getUserAgent());
+        }
+
+        thumbnailLoader.setSource(thumbnailUri);
+    }
+
+    /**
+     * Retrieves the loader for the thumbnail track specified with {@link #setThumbnailUri(Uri)}
+     *
+     * @return The EMThumbnailLoader or null
+     */
+    @Nullable
+    public EMThumbnailLoader getThumbnailLoader() {
+        return thumbnailLoader;
+    }
+
     /**
      * Returns if a video is currently in playback
      *
@@ -1174,6 +1462,31 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
         return emExoPlayer.getBufferedPercentage();
     }
 
+    /**
+     * Retrieves the timeline of how long each startup phase took for the current
+     * video.  This is only available when the ExoPlayer is being used.
+     *
+     * @return The startup report or null
+     */
+    @Nullable
+    public EMStartupReport getStartupReport() {
+        return useExo ? emExoPlayer.getStartupReport() : null;
+    }
+
+    /**
+     * Sets the listener to inform of the startup timeline, adaptive format switches,
+     * and live edge distance of the video.  This is only supported when the
+     * ExoPlayer is being used.
+     *
+     * @param listener The listener to inform or null
+     */
+    public void setPlaybackInfoListener(@Nullable PlaybackInfoListener listener) {
+        playbackInfoListener = listener;
+        if (useExo) {
+            emExoPlayer.setPlaybackInfoListener(listener);
+        }
+    }
+
     /**
      * Sets the listener to inform of any exoPlayer events
      *
@@ -1232,6 +1545,67 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
         listenerMux.setOnInfoListener(listener);
     }
 
+    /**
+     * Replaces the current player with the one preloaded for the <code>uri</code>
+     * (see {@link #preload(Uri)}), if there is one
+     *
+     * @param uri The video's Uri
+     * @return True if a preloaded player is now being used
+     */
+    private boolean usePreloadedPlayer(Uri uri) {
+        EMPreloadCache preloadCache = EMPreloadCache.getInstance();
+        EMExoPlayer preloadedPlayer = preloadCache != null ? preloadCache.take(uri) : null;
+        if (preloadedPlayer == null) {
+            return false;
+        }
+
+        Surface surface = emExoPlayer.getSurface();
+        emExoPlayer.removeListener(listenerMux);
+        emExoPlayer.release();
+
+        emExoPlayer = preloadedPlayer;
+        emExoPlayer.addListener(listenerMux);
+        emExoPlayer.setMetadataListener(null);
+        emExoPlayer.setCaptionListener(captionListener);
+        emExoPlayer.setPlaybackInfoListener(playbackInfoListener);
+        emExoPlayer.setSeekMode(seekMode);
+        emExoPlayer.setLiveLatencyController(liveLatencyController);
+        emExoPlayer.getFormatConstraints().setViewportSize(exoVideoTextureView.getWidth(), exoVideoTextureView.getHeight());
+        if (surface != null) {
+            emExoPlayer.setSurface(surface);
+        }
+
+        updateAudioOnly();
+
+        videoUri = uri;
+        captionsUri = null;
+        listenerMux.setNotifiedCompleted(false);
+        listenerMux.setNotifiedPrepared(false);
+
+        if (defaultControls != null) {
+            defaultControls.restartLoading();
+        }
+
+        //The preloaded player may already be prepared, in which case it won't report the state again
+        if (emExoPlayer.getPlaybackState() == ExoPlayer.STATE_READY) {
+            listenerMux.onStateChanged(emExoPlayer.getPlayWhenReady(), ExoPlayer.STATE_READY);
+        }
+
+        return true;
+    }
+
+    /**
+     * Informs the EMExoPlayer of the current audio only state, taking in to
+     * account the background audio when the surface has been destroyed and
+     * whether the application has been backgrounded.
+     */
+    private void updateAudioOnly() {
+        if (useExo && emExoPlayer != null) {
+            boolean backgrounded = memoryGovernor != null && memoryGovernor.isBackgrounded();
+            emExoPlayer.setAudioOnly(audioOnly || (backgroundAudioEnabled && surfaceDestroyed) || backgrounded);
+        }
+    }
+
     /**
      * Performs the functionality to stop the progress polling, and stop any other
      * procedures from running that we no longer need.
@@ -1341,6 +1715,11 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
             if (emExoPlayer != null) {
                 surface = new Surface(surfaceTexture);
                 emExoPlayer.setSurface(surface);
+                emExoPlayer.getFormatConstraints().setViewportSize(width, height);
+
+                surfaceDestroyed = false;
+                updateAudioOnly();
+
                 if (playRequested) {
                     emExoPlayer.setPlayWhenReady(true);
                 }
@@ -1349,7 +1728,10 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
 
         @Override
         public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
-            // Purposefully left blank
+            //The adaptive video will re-select its format for the new size at the next segment
+            if (emExoPlayer != null) {
+                emExoPlayer.getFormatConstraints().setViewportSize(width, height);
+            }
         }
 
         @Override
@@ -1357,6 +1739,9 @@ public class EMVideoView extends RelativeLayout implements AudioCapabilitiesRece
             surface.release();
             if (emExoPlayer != null) {
                 emExoPlayer.blockingClearSurface();
+
+                surfaceDestroyed = true;
+                updateAudioOnly();
             }
 
             return true;
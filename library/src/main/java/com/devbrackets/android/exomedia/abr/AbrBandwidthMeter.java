@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.devbrackets.android.exomedia.abr;
+
+import android.support.annotation.Nullable;
+
+import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The HlsChunkSource doesn't support a {@link com.google.android.exoplayer.chunk.FormatEvaluator},
+ * instead selecting the highest variant that fits in its fraction of the bandwidth estimate.
+ * This BandwidthMeter steers that selection towards the variant chosen by an {@link AbrStrategy}
+ * by reporting the estimate that the HlsChunkSource would select the variant for.  Without a
+ * strategy the estimate is only limited to the highest variant allowed by the
+ * {@link FormatConstraints} of the player.  The actual measurement is still performed by the
+ * wrapped BandwidthMeter.
+ * <p>
+ * The HlsChunkSource still applies its own buffer thresholds before switching, so the
+ * switch may happen later than the strategy decided.
+ */
+public class AbrBandwidthMeter implements BandwidthMeter {
+    //Matches the fraction of the estimate the HlsChunkSource uses for selecting the variant
+    private static final float HLS_BANDWIDTH_FRACTION = 0.8f;
+
+    @Nullable
+    private final AbrStrategy strategy;
+    private final BandwidthMeter bandwidthMeter;
+    private final EMExoPlayer player;
+    private final Format[] formats;
+
+    private volatile Format current;
+
+    public AbrBandwidthMeter(@Nullable AbrStrategy strategy, BandwidthMeter bandwidthMeter, EMExoPlayer player, List<Variant> variants) {
+        this.strategy = strategy;
+        this.bandwidthMeter = bandwidthMeter;
+        this.player = player;
+
+        formats = new Format[variants.size()];
+        for (int i = 0; i < formats.length; i++) {
+            formats[i] = variants.get(i).format;
+        }
+
+        Arrays.sort(formats, new Format.DecreasingBandwidthComparator());
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+        if (formats.length == 0) {
+            return bitrateEstimate;
+        }
+
+        Format[] allowedFormats = player.getFormatConstraints().apply(formats);
+        if (strategy == null) {
+            return bitrateEstimate == NO_ESTIMATE ? NO_ESTIMATE : Math.min(bitrateEstimate, getSelectionEstimate(allowedFormats[0]));
+        }
+
+        long bufferedDurationMs = player.getBufferedDuration();
+        Format selected = strategy.selectFormat(allowedFormats, AbrFormatEvaluator.getAllowedFormat(allowedFormats, current), bufferedDurationMs, bitrateEstimate);
+        if (selected != current) {
+            final AbrDecision decision = new AbrDecision(strategy, selected, current, bufferedDurationMs, bitrateEstimate);
+            player.getMainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    player.onAbrDecision(decision);
+                }
+            });
+
+            current = selected;
+        }
+
+        return getSelectionEstimate(selected);
+    }
+
+    @Override
+    public void onTransferStart() {
+        bandwidthMeter.onTransferStart();
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+        bandwidthMeter.onBytesTransferred(bytes);
+    }
+
+    @Override
+    public void onTransferEnd() {
+        bandwidthMeter.onTransferEnd();
+    }
+
+    /**
+     * Determines the lowest estimate the HlsChunkSource will select the <code>format</code> for
+     */
+    private static long getSelectionEstimate(Format format) {
+        return (long) Math.ceil(format.bitrate / HLS_BANDWIDTH_FRACTION);
+    }
+}
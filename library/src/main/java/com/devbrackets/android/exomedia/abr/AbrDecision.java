@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.devbrackets.android.exomedia.abr;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.chunk.Format;
+
+/**
+ * Describes a format switch made by an {@link AbrStrategy} along with the
+ * inputs it was made with, allowing the strategies to be compared in the field.
+ */
+public class AbrDecision {
+    private final AbrStrategy strategy;
+    private final Format format;
+    @Nullable
+    private final Format previousFormat;
+    private final long bufferedDurationMs;
+    private final long bitrateEstimate;
+
+    public AbrDecision(AbrStrategy strategy, Format format, @Nullable Format previousFormat, long bufferedDurationMs, long bitrateEstimate) {
+        this.strategy = strategy;
+        this.format = format;
+        this.previousFormat = previousFormat;
+        this.bufferedDurationMs = bufferedDurationMs;
+        this.bitrateEstimate = bitrateEstimate;
+    }
+
+    /**
+     * Retrieves the strategy that made the decision
+     *
+     * @return The AbrStrategy
+     */
+    public AbrStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Retrieves the format that was selected
+     *
+     * @return The selected Format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Retrieves the format that was selected before the decision
+     *
+     * @return The previous Format or null if this was the initial selection
+     */
+    @Nullable
+    public Format getPreviousFormat() {
+        return previousFormat;
+    }
+
+    /**
+     * Retrieves the amount of media that was buffered when the decision was made
+     *
+     * @return The buffered duration in milliseconds
+     */
+    public long getBufferedDurationMs() {
+        return bufferedDurationMs;
+    }
+
+    /**
+     * Retrieves the bandwidth estimate when the decision was made
+     *
+     * @return The estimate in bits per second or {@link com.google.android.exoplayer.upstream.BandwidthMeter#NO_ESTIMATE}
+     */
+    public long getBitrateEstimate() {
+        return bitrateEstimate;
+    }
+
+    @Override
+    public String toString() {
+        return "AbrDecision{" + strategy.getClass().getSimpleName() + ", " + (previousFormat != null ? previousFormat.bitrate : "none") + " -> " + format.bitrate +
+                ", buffered=" + bufferedDurationMs + "ms, estimate=" + bitrateEstimate + "}";
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.devbrackets.android.exomedia.abr;
+
+import android.support.annotation.Nullable;
+
+import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.List;
+
+/**
+ * A {@link FormatEvaluator} for the DASH and SmoothStreaming chunk sources that delegates
+ * the format selection to an {@link AbrStrategy}, informing the {@link EMExoPlayer} of
+ * each format switch.  The strategy only selects from the formats allowed by the
+ * {@link FormatConstraints} of the player.  When switching to a higher format with a large enough buffer,
+ * the queued chunks far enough ahead of the playback position are discarded so the
+ * higher format is visible sooner.
+ */
+public class AbrFormatEvaluator implements FormatEvaluator {
+    public static final long DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS = 25000;
+
+    //The discarded chunks are limited to lower than HD so that an HD chunk is never thrown away
+    private static final int MAX_DISCARD_HEIGHT = 720;
+    private static final int MAX_DISCARD_WIDTH = 1280;
+
+    private final AbrStrategy strategy;
+    private final BandwidthMeter bandwidthMeter;
+    private final EMExoPlayer player;
+    private final long minDurationToRetainAfterDiscardUs;
+
+    public AbrFormatEvaluator(AbrStrategy strategy, BandwidthMeter bandwidthMeter, EMExoPlayer player) {
+        this(strategy, bandwidthMeter, player, DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS);
+    }
+
+    public AbrFormatEvaluator(AbrStrategy strategy, BandwidthMeter bandwidthMeter, EMExoPlayer player, long minDurationToRetainAfterDiscardMs) {
+        this.strategy = strategy;
+        this.bandwidthMeter = bandwidthMeter;
+        this.player = player;
+        this.minDurationToRetainAfterDiscardUs = minDurationToRetainAfterDiscardMs * 1000;
+    }
+
+    @Override
+    public void enable() {
+        //Purposefully left blank
+    }
+
+    @Override
+    public void disable() {
+        //Purposefully left blank
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs, Format[] formats, Evaluation evaluation) {
+        long bufferedDurationUs = queue.isEmpty() ? 0 : queue.get(queue.size() - 1).endTimeUs - playbackPositionUs;
+        long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+
+        Format[] allowedFormats = player.getFormatConstraints().apply(formats);
+        Format current = evaluation.format;
+        Format selected = strategy.selectFormat(allowedFormats, getAllowedFormat(allowedFormats, current), bufferedDurationUs / 1000, bitrateEstimate);
+
+        if (current != null && selected.bitrate > current.bitrate && bufferedDurationUs >= minDurationToRetainAfterDiscardUs) {
+            discardLowerChunks(queue, playbackPositionUs, selected, evaluation);
+        }
+
+        if (selected != current) {
+            if (current != null) {
+                evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+            }
+
+            final AbrDecision decision = new AbrDecision(strategy, selected, current, bufferedDurationUs / 1000, bitrateEstimate);
+            player.getMainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    player.onAbrDecision(decision);
+                }
+            });
+        }
+
+        evaluation.format = selected;
+    }
+
+    /**
+     * Retrieves the <code>current</code> format if it is still allowed, otherwise null so
+     * that the strategy makes a new selection instead of holding on to it
+     */
+    @Nullable
+    static Format getAllowedFormat(Format[] allowedFormats, @Nullable Format current) {
+        for (Format format : allowedFormats) {
+            if (format == current) {
+                return current;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reduces the queue size to discard the chunks that are lower quality than the
+     * <code>selected</code> format and are far enough ahead of the playback position
+     */
+    private void discardLowerChunks(List<? extends MediaChunk> queue, long playbackPositionUs, Format selected, Evaluation evaluation) {
+        for (int i = 1; i < queue.size(); i++) {
+            MediaChunk chunk = queue.get(i);
+            if (chunk.startTimeUs - playbackPositionUs >= minDurationToRetainAfterDiscardUs
+                    && chunk.format.bitrate < selected.bitrate
+                    && chunk.format.height < selected.height
+                    && chunk.format.height < MAX_DISCARD_HEIGHT
+                    && chunk.format.width < MAX_DISCARD_WIDTH) {
+                evaluation.queueSize = i;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.abr;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.chunk.Format;
+
+/**
+ * Determines which format of an adaptive stream should be loaded next.  The strategies
+ * are called from the playback thread, and the same strategy may be used by multiple
+ * players at once, so they should not hold any per stream state.
+ */
+public interface AbrStrategy {
+
+    /**
+     * Selects the format to load the next chunk (or segment) in
+     *
+     * @param formats The available formats, ordered from the highest to the lowest bitrate
+     * @param current The format currently being loaded or null if nothing has been loaded yet
+     * @param bufferedDurationMs The amount of media that is buffered ahead of the playback position
+     * @param bitrateEstimate The bandwidth estimate in bits per second or {@link com.google.android.exoplayer.upstream.BandwidthMeter#NO_ESTIMATE}
+     * @return The format to load, this must be one of the <code>formats</code>
+     */
+    Format selectFormat(Format[] formats, @Nullable Format current, long bufferedDurationMs, long bitrateEstimate);
+}
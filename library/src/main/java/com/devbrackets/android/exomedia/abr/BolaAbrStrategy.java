@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.abr;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * An {@link AbrStrategy} that selects the format based on how much media is buffered
+ * (BOLA) instead of the measured bandwidth.  Each format is given a utility that grows
+ * logarithmically with its bitrate, and the format that maximizes the utility per bit
+ * for the current buffer level is selected; with an empty buffer that is the lowest
+ * format and as the buffer approaches the target the higher formats are selected.
+ * <p>
+ * Since the bandwidth estimate isn't needed to stay out of a rebuffer, short drops
+ * (common on cellular networks) don't cause a switch down while the buffer can cover
+ * them.  The bandwidth estimate is still used to select the initial format, and to
+ * limit switching up to formats the bandwidth can sustain to avoid oscillating.
+ */
+public class BolaAbrStrategy implements AbrStrategy {
+    public static final long DEFAULT_MIN_BUFFER_MS = 10000;
+    public static final long DEFAULT_BUFFER_PER_FORMAT_MS = 2000;
+    public static final long DEFAULT_MIN_TARGET_BUFFER_MS = 12000;
+
+    private final long minBufferMs;
+    private final long bufferPerFormatMs;
+    private final long minTargetBufferMs;
+    private final ThroughputAbrStrategy throughputStrategy;
+
+    public BolaAbrStrategy() {
+        this(DEFAULT_MIN_BUFFER_MS, DEFAULT_BUFFER_PER_FORMAT_MS, DEFAULT_MIN_TARGET_BUFFER_MS, new ThroughputAbrStrategy());
+    }
+
+    /**
+     * @param minBufferMs The buffer level at which only the lowest format is selected
+     * @param bufferPerFormatMs The amount of buffer to target for each available format
+     * @param minTargetBufferMs The minimum buffer level at which the highest format is selected
+     * @param throughputStrategy The strategy used for the initial format and to limit switching up
+     */
+    public BolaAbrStrategy(long minBufferMs, long bufferPerFormatMs, long minTargetBufferMs, ThroughputAbrStrategy throughputStrategy) {
+        this.minBufferMs = minBufferMs;
+        this.bufferPerFormatMs = bufferPerFormatMs;
+        this.minTargetBufferMs = minTargetBufferMs;
+        this.throughputStrategy = throughputStrategy;
+    }
+
+    @Override
+    public Format selectFormat(Format[] formats, @Nullable Format current, long bufferedDurationMs, long bitrateEstimate) {
+        Format lowest = formats[formats.length - 1];
+        if (current == null || formats[0].bitrate <= lowest.bitrate || lowest.bitrate <= 0) {
+            return throughputStrategy.selectFormat(formats, current, bufferedDurationMs, bitrateEstimate);
+        }
+
+        //The utilities are normalized so that the lowest format has a utility of 1
+        double maxUtility = getUtility(formats[0], lowest);
+        long targetBufferMs = Math.max(minTargetBufferMs, minBufferMs + bufferPerFormatMs * formats.length);
+        double gp = (maxUtility - 1) / ((double) targetBufferMs / minBufferMs - 1);
+        double vp = minBufferMs / gp;
+
+        Format selected = lowest;
+        double selectedScore = -Double.MAX_VALUE;
+        for (Format format : formats) {
+            double score = (vp * (getUtility(format, lowest) + gp) - bufferedDurationMs) / format.bitrate;
+            if (score > selectedScore) {
+                selected = format;
+                selectedScore = score;
+            }
+        }
+
+        //Only switches up as far as the bandwidth can sustain, to avoid oscillating between formats
+        if (selected.bitrate > current.bitrate && bitrateEstimate != BandwidthMeter.NO_ESTIMATE) {
+            Format sustainable = throughputStrategy.getSustainableFormat(formats, bitrateEstimate);
+            if (sustainable.bitrate < selected.bitrate) {
+                selected = sustainable.bitrate > current.bitrate ? sustainable : current;
+            }
+        }
+
+        return selected;
+    }
+
+    private static double getUtility(Format format, Format lowest) {
+        return Math.log((double) format.bitrate / lowest.bitrate) + 1;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.devbrackets.android.exomedia.abr;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.devbrackets.android.exomedia.builder.BitratePolicy;
+import com.devbrackets.android.exomedia.util.EMDecoderHealth;
+import com.google.android.exoplayer.chunk.Format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The limits on which formats of the adaptive video may be selected, applied before
+ * the {@link AbrStrategy} makes its selection.  The constraints can be changed at any
+ * time and will take effect at the next chunk (or segment) boundary.
+ * <p>
+ * Formats larger than the device can decode without dropping frames, as determined
+ * by the {@link EMDecoderHealth}, are also excluded.
+ */
+public class FormatConstraints {
+    //Formats within 2% of the displayed size are considered large enough
+    private static final float VIEWPORT_SIZE_TOLERANCE = 1.02f;
+
+    //How often the network state is checked to update the bitrate ceiling
+    private static final long BITRATE_CHECK_INTERVAL_MS = 5000;
+
+    private int viewportWidth;
+    private int viewportHeight;
+
+    @Nullable
+    private Context context;
+    @Nullable
+    private BitratePolicy bitratePolicy;
+    private int maxBitrate = BitratePolicy.NO_LIMIT;
+    private long maxBitrateCheckTime;
+
+    /**
+     * Sets the size of the surface the video is displayed on.  Formats larger than needed
+     * to fill the surface will not be selected.
+     *
+     * @param width The width of the surface in pixels or 0 to remove the constraint
+     * @param height The height of the surface in pixels or 0 to remove the constraint
+     */
+    public synchronized void setViewportSize(int width, int height) {
+        viewportWidth = width;
+        viewportHeight = height;
+    }
+
+    /**
+     * Sets the policy that determines the highest bitrate that can be selected.  The
+     * ceiling is updated as the network (metered or not) and data saver state change.
+     *
+     * @param context The context to use for determining the network state
+     * @param bitratePolicy The BitratePolicy to use or null to remove the constraint
+     */
+    public synchronized void setBitratePolicy(Context context, @Nullable BitratePolicy bitratePolicy) {
+        this.context = context.getApplicationContext();
+        this.bitratePolicy = bitratePolicy;
+        maxBitrateCheckTime = 0;
+    }
+
+    /**
+     * Retrieves the current bitrate ceiling from the {@link BitratePolicy}
+     *
+     * @return The maximum bitrate in bits per second or {@link BitratePolicy#NO_LIMIT}
+     */
+    public synchronized int getMaxBitrate() {
+        if (bitratePolicy == null || context == null) {
+            return BitratePolicy.NO_LIMIT;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (maxBitrateCheckTime == 0 || now - maxBitrateCheckTime >= BITRATE_CHECK_INTERVAL_MS) {
+            maxBitrate = bitratePolicy.getMaxBitrate(context);
+            maxBitrateCheckTime = now;
+        }
+
+        return maxBitrate;
+    }
+
+    /**
+     * Filters the <code>formats</code> to the ones that satisfy the constraints.  If none
+     * of the formats do then the lowest format will be returned.
+     *
+     * @param formats The available formats, ordered from the highest to the lowest bitrate
+     * @return The allowed formats, ordered from the highest to the lowest bitrate
+     */
+    public synchronized Format[] apply(Format[] formats) {
+        long maxPixels = getMaxPixelsForViewport(formats);
+        int maxFormatBitrate = getMaxBitrate();
+        EMDecoderHealth decoderHealth = EMDecoderHealth.getInstance();
+        boolean decoderCapped = decoderHealth != null && decoderHealth.hasCaps();
+        if (maxPixels == Long.MAX_VALUE && maxFormatBitrate == BitratePolicy.NO_LIMIT && !decoderCapped) {
+            return formats;
+        }
+
+        List<Format> allowed = new ArrayList<>(formats.length);
+        for (Format format : formats) {
+            boolean sizeAllowed = format.width <= 0 || format.height <= 0 || (long) format.width * format.height <= maxPixels;
+            boolean decodeAllowed = !decoderCapped || decoderHealth.isSustainable(format);
+            if (sizeAllowed && decodeAllowed && format.bitrate <= maxFormatBitrate) {
+                allowed.add(format);
+            }
+        }
+
+        if (allowed.isEmpty()) {
+            return new Format[] {formats[formats.length - 1]};
+        }
+
+        return allowed.toArray(new Format[allowed.size()]);
+    }
+
+    /**
+     * Determines the pixel count of the smallest format that still fills the viewport,
+     * anything larger would be scaled down when displayed.
+     */
+    private long getMaxPixelsForViewport(Format[] formats) {
+        if (viewportWidth <= 0 || viewportHeight <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        long maxPixels = Long.MAX_VALUE;
+        for (Format format : formats) {
+            if (format.width <= 0 || format.height <= 0) {
+                continue;
+            }
+
+            float scale = Math.min((float) viewportWidth / format.width, (float) viewportHeight / format.height);
+            if (scale <= VIEWPORT_SIZE_TOLERANCE) {
+                maxPixels = Math.min(maxPixels, (long) format.width * format.height);
+            }
+        }
+
+        return maxPixels;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.abr;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * An {@link AbrStrategy} that selects the highest format that the measured bandwidth
+ * can sustain, only switching up once enough media is buffered to absorb a drop in
+ * bandwidth and only switching down when the buffer can't cover it.  This matches the
+ * behavior of the ExoPlayer {@link com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator}.
+ */
+public class ThroughputAbrStrategy implements AbrStrategy {
+    public static final int DEFAULT_MAX_INITIAL_BITRATE = 800000;
+    public static final long DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS = 10000;
+    public static final long DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS = 25000;
+    public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+    private final int maxInitialBitrate;
+    private final long minDurationForQualityIncreaseMs;
+    private final long maxDurationForQualityDecreaseMs;
+    private final float bandwidthFraction;
+
+    public ThroughputAbrStrategy() {
+        this(DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS, DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS, DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * @param maxInitialBitrate The maximum bitrate in bits per second to use before there is a bandwidth estimate
+     * @param minDurationForQualityIncreaseMs The minimum buffered duration required to switch to a higher format
+     * @param maxDurationForQualityDecreaseMs The buffered duration above which a lower format won't be switched to
+     * @param bandwidthFraction The fraction of the estimated bandwidth the selected format may use
+     */
+    public ThroughputAbrStrategy(int maxInitialBitrate, long minDurationForQualityIncreaseMs, long maxDurationForQualityDecreaseMs, float bandwidthFraction) {
+        this.maxInitialBitrate = maxInitialBitrate;
+        this.minDurationForQualityIncreaseMs = minDurationForQualityIncreaseMs;
+        this.maxDurationForQualityDecreaseMs = maxDurationForQualityDecreaseMs;
+        this.bandwidthFraction = bandwidthFraction;
+    }
+
+    @Override
+    public Format selectFormat(Format[] formats, @Nullable Format current, long bufferedDurationMs, long bitrateEstimate) {
+        Format ideal = getSustainableFormat(formats, bitrateEstimate);
+        if (current == null) {
+            return ideal;
+        }
+
+        if (ideal.bitrate > current.bitrate && bufferedDurationMs < minDurationForQualityIncreaseMs) {
+            return current;
+        }
+
+        if (ideal.bitrate < current.bitrate && bufferedDurationMs >= maxDurationForQualityDecreaseMs) {
+            return current;
+        }
+
+        return ideal;
+    }
+
+    /**
+     * Retrieves the highest format that fits in the usable fraction of the
+     * <code>bitrateEstimate</code>, or the lowest format if none do
+     *
+     * @param formats The available formats, ordered from the highest to the lowest bitrate
+     * @param bitrateEstimate The bandwidth estimate in bits per second or {@link BandwidthMeter#NO_ESTIMATE}
+     * @return The highest sustainable format
+     */
+    public Format getSustainableFormat(Format[] formats, long bitrateEstimate) {
+        long effectiveBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE ? maxInitialBitrate : (long) (bitrateEstimate * bandwidthFraction);
+        for (Format format : formats) {
+            if (format.bitrate <= effectiveBitrate) {
+                return format;
+            }
+        }
+
+        return formats[formats.length - 1];
+    }
+}
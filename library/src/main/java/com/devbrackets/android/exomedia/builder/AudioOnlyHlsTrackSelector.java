@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.builder;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
+import com.google.android.exoplayer.hls.Variant;
+
+import java.io.IOException;
+
+/**
+ * An HlsTrackSelector used when only the audio will be played.  The alternate audio
+ * renditions are used when the master playlist specifies them, otherwise the audio only
+ * variants are preferred, falling back to the lowest bitrate variant.
+ */
+class AudioOnlyHlsTrackSelector implements HlsTrackSelector {
+
+    @Override
+    public void selectTracks(HlsMasterPlaylist playlist, Output output) throws IOException {
+        if (playlist.audios != null && !playlist.audios.isEmpty()) {
+            for (Variant audio : playlist.audios) {
+                output.fixedTrack(playlist, audio);
+            }
+
+            return;
+        }
+
+        Variant selected = null;
+        for (Variant variant : playlist.variants) {
+            if (selected == null || isPreferred(variant, selected)) {
+                selected = variant;
+            }
+        }
+
+        if (selected != null) {
+            output.fixedTrack(playlist, selected);
+        }
+    }
+
+    private static boolean isPreferred(Variant variant, Variant current) {
+        boolean audioOnly = isAudioOnly(variant.format.codecs);
+        boolean currentAudioOnly = isAudioOnly(current.format.codecs);
+        if (audioOnly != currentAudioOnly) {
+            return audioOnly;
+        }
+
+        return variant.format.bitrate < current.format.bitrate;
+    }
+
+    /**
+     * Determines if the variant codecs only contain audio codecs.  When the
+     * codecs aren't specified we can't tell, so the variant isn't considered audio only.
+     */
+    private static boolean isAudioOnly(@Nullable String codecs) {
+        if (codecs == null || codecs.isEmpty()) {
+            return false;
+        }
+
+        for (String codec : codecs.split(",")) {
+            String trimmed = codec.trim();
+            if (!trimmed.startsWith("mp4a") && !trimmed.startsWith("ac-3") && !trimmed.startsWith("ec-3")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
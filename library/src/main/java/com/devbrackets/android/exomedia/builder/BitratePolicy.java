@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.devbrackets.android.exomedia.builder;
+
+import android.content.Context;
+
+import com.devbrackets.android.exomedia.util.EMNetworkUtil;
+
+/**
+ * Specifies the highest video bitrate the adaptive (HLS, DASH, and SmoothStreaming)
+ * RenderBuilders may select, depending on whether the active network is metered and
+ * whether the app has enabled data saving with {@link EMNetworkUtil#setDataSaverEnabled(boolean)}.
+ * The most restrictive of the applicable ceilings is used, and the ceiling follows
+ * changes to the network during playback.
+ */
+public class BitratePolicy {
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+    public static final int DEFAULT_DATA_SAVER_MAX_BITRATE = 800000;
+
+    /**
+     * The policy used by the RenderBuilders when one hasn't been specified, only
+     * limiting the bitrate when the app has enabled data saving.
+     */
+    public static final BitratePolicy DEFAULT = new Builder().build();
+
+    /**
+     * A policy that also limits the bitrate on metered (e.g. cellular) networks
+     */
+    public static final BitratePolicy METERED = new Builder()
+            .setMeteredMaxBitrate(1500000)
+            .build();
+
+    private final int maxBitrate;
+    private final int meteredMaxBitrate;
+    private final int dataSaverMaxBitrate;
+
+    private BitratePolicy(Builder builder) {
+        maxBitrate = builder.maxBitrate;
+        meteredMaxBitrate = builder.meteredMaxBitrate;
+        dataSaverMaxBitrate = builder.dataSaverMaxBitrate;
+    }
+
+    /**
+     * Retrieves the bitrate ceiling for the current network and data saver state
+     *
+     * @param context The context to use for determining the network state
+     * @return The maximum bitrate in bits per second or {@link #NO_LIMIT}
+     */
+    public int getMaxBitrate(Context context) {
+        return getMaxBitrate(EMNetworkUtil.isActiveNetworkMetered(context), EMNetworkUtil.isDataSaverEnabled());
+    }
+
+    /**
+     * Retrieves the bitrate ceiling for the specified network and data saver state
+     *
+     * @param metered True if the active network is metered
+     * @param dataSaverEnabled True if the app has enabled data saving
+     * @return The maximum bitrate in bits per second or {@link #NO_LIMIT}
+     */
+    public int getMaxBitrate(boolean metered, boolean dataSaverEnabled) {
+        int bitrate = maxBitrate;
+        if (metered) {
+            bitrate = Math.min(bitrate, meteredMaxBitrate);
+        }
+
+        if (dataSaverEnabled) {
+            bitrate = Math.min(bitrate, dataSaverMaxBitrate);
+        }
+
+        return bitrate;
+    }
+
+    /**
+     * Creates a Builder initialized with the values from this policy
+     *
+     * @return The Builder
+     */
+    public Builder buildUpon() {
+        return new Builder()
+                .setMaxBitrate(maxBitrate)
+                .setMeteredMaxBitrate(meteredMaxBitrate)
+                .setDataSaverMaxBitrate(dataSaverMaxBitrate);
+    }
+
+    /**
+     * Used to create custom {@link BitratePolicy}s.  Any values that aren't
+     * specified will use the same values as the {@link #DEFAULT} policy.
+     */
+    public static class Builder {
+        private int maxBitrate = NO_LIMIT;
+        private int meteredMaxBitrate = NO_LIMIT;
+        private int dataSaverMaxBitrate = DEFAULT_DATA_SAVER_MAX_BITRATE;
+
+        /**
+         * Sets the bitrate ceiling that always applies
+         *
+         * @param maxBitrate The maximum bitrate in bits per second [default: {@link #NO_LIMIT}]
+         * @return The Builder
+         */
+        public Builder setMaxBitrate(int maxBitrate) {
+            this.maxBitrate = maxBitrate;
+            return this;
+        }
+
+        /**
+         * Sets the bitrate ceiling used when the active network is metered
+         *
+         * @param meteredMaxBitrate The maximum bitrate in bits per second [default: {@link #NO_LIMIT}]
+         * @return The Builder
+         */
+        public Builder setMeteredMaxBitrate(int meteredMaxBitrate) {
+            this.meteredMaxBitrate = meteredMaxBitrate;
+            return this;
+        }
+
+        /**
+         * Sets the bitrate ceiling used when the app has enabled data saving
+         *
+         * @param dataSaverMaxBitrate The maximum bitrate in bits per second [default: {@value #DEFAULT_DATA_SAVER_MAX_BITRATE}]
+         * @return The Builder
+         */
+        public Builder setDataSaverMaxBitrate(int dataSaverMaxBitrate) {
+            this.dataSaverMaxBitrate = dataSaverMaxBitrate;
+            return this;
+        }
+
+        public BitratePolicy build() {
+            return new BitratePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.builder;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Specifies how much media the RenderBuilders will buffer and when the buffering
+ * will start and stop.  The buffer is allocated in segments of {@link #getSegmentSize()}
+ * bytes, split between the video, audio, and text tracks.  The load watermarks and
+ * buffered durations are passed to the {@link com.google.android.exoplayer.DefaultLoadControl}
+ * used by the adaptive (HLS, DASH, and SmoothStreaming) RenderBuilders.
+ * <p>
+ * Presets are provided for the common cases, and custom policies can be created
+ * with the {@link Builder}.
+ */
+public class BufferPolicy {
+    public static final int DEFAULT_LOW_WATERMARK_MS = 15000;
+    public static final int DEFAULT_HIGH_WATERMARK_MS = 30000;
+    public static final float DEFAULT_LOW_BUFFER_LOAD = 0.2f;
+    public static final float DEFAULT_HIGH_BUFFER_LOAD = 0.8f;
+
+    /**
+     * The policy used by the RenderBuilders when one hasn't been specified, allowing
+     * up to 16MB of media to be buffered.
+     */
+    public static final BufferPolicy DEFAULT = new Builder().build();
+
+    /**
+     * A policy for devices with limited memory (or when multiple players are active)
+     * that buffers at most 4MB of media with shorter buffered durations.
+     */
+    public static final BufferPolicy LOW_MEMORY = new Builder()
+            .setSegmentCounts(48, 14, 2)
+            .setBufferedDuration(10000, 20000)
+            .build();
+
+    /**
+     * A policy for audio only playback that only reserves a small amount of space
+     * for video, so that streams with a video track don't stall loading.
+     */
+    public static final BufferPolicy AUDIO_ONLY = new Builder()
+            .setSegmentCounts(8, 54, 2)
+            .build();
+
+    /**
+     * A policy for high bitrate (e.g. 4K) content that buffers up to 48MB of media
+     */
+    public static final BufferPolicy HIGH_BITRATE = new Builder()
+            .setSegmentCounts(680, 80, 2)
+            .setBufferedDuration(10000, 30000)
+            .build();
+
+    private static final int LOW_MEMORY_CLASS_MB = 64;
+
+    private final int segmentSize;
+    private final int videoSegmentCount;
+    private final int audioSegmentCount;
+    private final int textSegmentCount;
+    private final int lowWatermarkMs;
+    private final int highWatermarkMs;
+    private final float lowBufferLoad;
+    private final float highBufferLoad;
+
+    /**
+     * Determines the preset to use for the current device.  Devices that report themselves
+     * as low RAM, or that have a small application memory class, will use the {@link #LOW_MEMORY}
+     * policy, all others will use the {@link #DEFAULT} policy.
+     *
+     * @param context The context to use for determining the device memory
+     * @return The BufferPolicy for the device
+     */
+    public static BufferPolicy forDevice(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return DEFAULT;
+        }
+
+        boolean isLowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice();
+        return isLowRam || activityManager.getMemoryClass() <= LOW_MEMORY_CLASS_MB ? LOW_MEMORY : DEFAULT;
+    }
+
+    private BufferPolicy(Builder builder) {
+        segmentSize = builder.segmentSize;
+        videoSegmentCount = builder.videoSegmentCount;
+        audioSegmentCount = builder.audioSegmentCount;
+        textSegmentCount = builder.textSegmentCount;
+        lowWatermarkMs = builder.lowWatermarkMs;
+        highWatermarkMs = builder.highWatermarkMs;
+        lowBufferLoad = builder.lowBufferLoad;
+        highBufferLoad = builder.highBufferLoad;
+    }
+
+    /**
+     * Retrieves the size of the individual buffer segments
+     *
+     * @return The size of a buffer segment in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Retrieves the number of bytes that can be buffered for the video track
+     *
+     * @return The video buffer size in bytes
+     */
+    public int getVideoBufferSize() {
+        return videoSegmentCount * segmentSize;
+    }
+
+    /**
+     * Retrieves the number of bytes that can be buffered for the audio track
+     *
+     * @return The audio buffer size in bytes
+     */
+    public int getAudioBufferSize() {
+        return audioSegmentCount * segmentSize;
+    }
+
+    /**
+     * Retrieves the number of bytes that can be buffered for the text (captions) track
+     *
+     * @return The text buffer size in bytes
+     */
+    public int getTextBufferSize() {
+        return textSegmentCount * segmentSize;
+    }
+
+    /**
+     * Retrieves the total number of bytes that can be buffered.  This is used
+     * when the tracks share a single source (e.g. HLS and progressive media).
+     *
+     * @return The total buffer size in bytes
+     */
+    public int getTotalBufferSize() {
+        return getVideoBufferSize() + getAudioBufferSize() + getTextBufferSize();
+    }
+
+    /**
+     * Retrieves the buffered duration below which loading will be resumed
+     *
+     * @return The low watermark in milliseconds
+     */
+    public int getLowWatermarkMs() {
+        return lowWatermarkMs;
+    }
+
+    /**
+     * Retrieves the buffered duration above which loading will be paused
+     *
+     * @return The high watermark in milliseconds
+     */
+    public int getHighWatermarkMs() {
+        return highWatermarkMs;
+    }
+
+    /**
+     * Retrieves the fraction of the buffer below which loading
+     * will always be resumed
+     *
+     * @return The low buffer load [0, 1]
+     */
+    public float getLowBufferLoad() {
+        return lowBufferLoad;
+    }
+
+    /**
+     * Retrieves the fraction of the buffer above which loading
+     * will be paused
+     *
+     * @return The high buffer load [0, 1]
+     */
+    public float getHighBufferLoad() {
+        return highBufferLoad;
+    }
+
+    /**
+     * Creates a Builder initialized with the values from this policy
+     *
+     * @return The Builder
+     */
+    public Builder buildUpon() {
+        return new Builder()
+                .setSegmentSize(segmentSize)
+                .setSegmentCounts(videoSegmentCount, audioSegmentCount, textSegmentCount)
+                .setBufferedDuration(lowWatermarkMs, highWatermarkMs)
+                .setBufferLoad(lowBufferLoad, highBufferLoad);
+    }
+
+    /**
+     * Used to create custom {@link BufferPolicy}s.  Any values that aren't
+     * specified will use the same values as the {@link #DEFAULT} policy.
+     */
+    public static class Builder {
+        private int segmentSize = RenderBuilder.BUFFER_SEGMENT_SIZE;
+        private int videoSegmentCount = RenderBuilder.BUFFER_SEGMENTS_VIDEO;
+        private int audioSegmentCount = RenderBuilder.BUFFER_SEGMENTS_AUDIO;
+        private int textSegmentCount = RenderBuilder.BUFFER_SEGMENTS_TEXT;
+        private int lowWatermarkMs = DEFAULT_LOW_WATERMARK_MS;
+        private int highWatermarkMs = DEFAULT_HIGH_WATERMARK_MS;
+        private float lowBufferLoad = DEFAULT_LOW_BUFFER_LOAD;
+        private float highBufferLoad = DEFAULT_HIGH_BUFFER_LOAD;
+
+        /**
+         * Sets the size of the individual buffer segments
+         *
+         * @param segmentSize The segment size in bytes [default: {@value RenderBuilder#BUFFER_SEGMENT_SIZE}]
+         * @return The Builder
+         */
+        public Builder setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of segments that can be buffered for each track
+         *
+         * @param video The number of segments for the video track
+         * @param audio The number of segments for the audio track
+         * @param text The number of segments for the text (captions) track
+         * @return The Builder
+         */
+        public Builder setSegmentCounts(int video, int audio, int text) {
+            videoSegmentCount = video;
+            audioSegmentCount = audio;
+            textSegmentCount = text;
+            return this;
+        }
+
+        /**
+         * Sets the total amount of memory that can be buffered, keeping the
+         * current ratio between the video, audio, and text tracks
+         *
+         * @param totalBytes The total buffer size in bytes
+         * @return The Builder
+         */
+        public Builder setTotalBufferSize(int totalBytes) {
+            int totalSegments = videoSegmentCount + audioSegmentCount + textSegmentCount;
+            int targetSegments = Math.max(1, totalBytes / segmentSize);
+
+            videoSegmentCount = (int) ((long) videoSegmentCount * targetSegments / totalSegments);
+            audioSegmentCount = (int) ((long) audioSegmentCount * targetSegments / totalSegments);
+            textSegmentCount = Math.max(textSegmentCount > 0 ? 1 : 0, targetSegments - videoSegmentCount - audioSegmentCount);
+            return this;
+        }
+
+        /**
+         * Sets the minimum and maximum amount of media (in time) that will be buffered.
+         * Loading will resume once the buffer drops below the <code>lowWatermarkMs</code> and
+         * will pause once it reaches the <code>highWatermarkMs</code>.
+         *
+         * @param lowWatermarkMs The low watermark in milliseconds [default: {@value #DEFAULT_LOW_WATERMARK_MS}]
+         * @param highWatermarkMs The high watermark in milliseconds [default: {@value #DEFAULT_HIGH_WATERMARK_MS}]
+         * @return The Builder
+         */
+        public Builder setBufferedDuration(int lowWatermarkMs, int highWatermarkMs) {
+            this.lowWatermarkMs = lowWatermarkMs;
+            this.highWatermarkMs = highWatermarkMs;
+            return this;
+        }
+
+        /**
+         * Sets the fractions of the buffer used to start and stop loading.  Loading will
+         * resume once the buffer drops below the <code>lowBufferLoad</code> and will
+         * pause once it fills beyond the <code>highBufferLoad</code>.
+         *
+         * @param lowBufferLoad The low buffer load [default: {@value #DEFAULT_LOW_BUFFER_LOAD}]
+         * @param highBufferLoad The high buffer load [default: {@value #DEFAULT_HIGH_BUFFER_LOAD}]
+         * @return The Builder
+         */
+        public Builder setBufferLoad(float lowBufferLoad, float highBufferLoad) {
+            this.lowBufferLoad = lowBufferLoad;
+            this.highBufferLoad = highBufferLoad;
+            return this;
+        }
+
+        public BufferPolicy build() {
+            return new BufferPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.builder;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import com.devbrackets.android.exomedia.util.EMCodecCapabilities;
+import com.devbrackets.android.exomedia.util.MediaUtil;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.util.MimeTypes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An HlsTrackSelector that selects the variants the device can decode using the
+ * {@link EMCodecCapabilities} loaded at app start, instead of querying the MediaCodecList.
+ * The variants are otherwise selected the same way as the {@link DefaultHlsTrackSelector},
+ * which is used when the capabilities haven't been loaded.
+ */
+class CodecCapabilitiesHlsTrackSelector implements HlsTrackSelector {
+    private final Context context;
+
+    public CodecCapabilitiesHlsTrackSelector(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void selectTracks(HlsMasterPlaylist playlist, Output output) throws IOException {
+        EMCodecCapabilities codecCapabilities = getLoadedCapabilities();
+        if (codecCapabilities == null) {
+            DefaultHlsTrackSelector.newDefaultInstance(context).selectTracks(playlist, output);
+            return;
+        }
+
+        List<Variant> enabledVariants = getSupportedVariants(codecCapabilities, playlist.variants);
+
+        //Prefers the variants that definitely contain video, removing the audio only ones
+        List<Variant> videoVariants = new ArrayList<>();
+        List<Variant> audioOnlyVariants = new ArrayList<>();
+        for (Variant variant : enabledVariants) {
+            if (variant.format.height > 0 || MediaUtil.getVideoMimeType(variant.format.codecs) != null) {
+                videoVariants.add(variant);
+            } else if (variant.format.codecs != null && variant.format.codecs.startsWith("mp4a")) {
+                audioOnlyVariants.add(variant);
+            }
+        }
+
+        if (!videoVariants.isEmpty()) {
+            enabledVariants = videoVariants;
+        } else if (audioOnlyVariants.size() < enabledVariants.size()) {
+            enabledVariants.removeAll(audioOnlyVariants);
+        }
+
+        if (enabledVariants.size() > 1) {
+            output.adaptiveTrack(playlist, enabledVariants.toArray(new Variant[enabledVariants.size()]));
+        }
+
+        for (Variant variant : enabledVariants) {
+            output.fixedTrack(playlist, variant);
+        }
+    }
+
+    /**
+     * Retrieves the shared EMCodecCapabilities if they have been loaded
+     *
+     * @return The loaded EMCodecCapabilities or null
+     */
+    @Nullable
+    static EMCodecCapabilities getLoadedCapabilities() {
+        EMCodecCapabilities codecCapabilities = EMCodecCapabilities.getInstance();
+        return codecCapabilities != null && codecCapabilities.isLoaded() ? codecCapabilities : null;
+    }
+
+    /**
+     * Filters the <code>variants</code> to the ones the decoder for their video codec supports
+     *
+     * @param codecCapabilities The loaded decoder capabilities
+     * @param variants The variants from the master playlist
+     * @return The supported variants
+     */
+    static List<Variant> getSupportedVariants(EMCodecCapabilities codecCapabilities, List<Variant> variants) {
+        List<Variant> supportedVariants = new ArrayList<>();
+        for (Variant variant : variants) {
+            if (isSupported(codecCapabilities, variant.format)) {
+                supportedVariants.add(variant);
+            }
+        }
+
+        return supportedVariants;
+    }
+
+    private static boolean isSupported(EMCodecCapabilities codecCapabilities, Format format) {
+        if (format.width <= 0 || format.height <= 0) {
+            return true;
+        }
+
+        //Variants that don't specify their video codec are assumed to be H.264, matching the ExoPlayer
+        String mimeType = MediaUtil.getVideoMimeType(format.codecs);
+        return codecCapabilities.isVideoSizeSupported(mimeType != null ? mimeType : MimeTypes.VIDEO_H264, format.width, format.height);
+    }
+}
@@ -24,6 +24,7 @@ import android.media.MediaCodec;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -31,7 +32,6 @@ import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
 import com.devbrackets.android.exomedia.renderer.EMMediaCodecAudioTrackRenderer;
 import com.devbrackets.android.exomedia.type.MediaMimeType;
 import com.google.android.exoplayer.C;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
@@ -42,7 +42,6 @@ import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
-import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
 import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
 import com.google.android.exoplayer.dash.mpd.AdaptationSet;
@@ -56,15 +55,14 @@ import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.text.TextTrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
-import com.google.android.exoplayer.upstream.UriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A RenderBuilder for parsing and creating the renderers for
@@ -73,12 +71,14 @@ import java.io.IOException;
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 public class DashRenderBuilder extends RenderBuilder {
     private static final String TAG = "DashRendererBuilder";
-    private static final int LIVE_EDGE_LATENCY_MS = 30000;
 
     private static final int SECURITY_LEVEL_UNKNOWN = -1;
     private static final int SECURITY_LEVEL_1 = 1;
     private static final int SECURITY_LEVEL_3 = 3;
 
+    //The DRM setup has its own thread so that it doesn't delay the progressive builds
+    private static final ExecutorService DRM_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private final Context context;
     private final String userAgent;
     private final String url;
@@ -106,6 +106,8 @@ public class DashRenderBuilder extends RenderBuilder {
 
     @Override
     public void buildRenderers(EMExoPlayer player) {
+        configureFormatConstraints(player);
+
         currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, captionsUrl, player, streamType);
         currentAsyncBuilder.init();
     }
@@ -118,6 +120,13 @@ public class DashRenderBuilder extends RenderBuilder {
         }
     }
 
+    /**
+     * Builds the renderers once the manifest has loaded, the UtcTiming clock has been
+     * synchronized (live streams only), and the DRM session manager has been created
+     * (protected content only).  These steps are performed concurrently: the clock offset
+     * is reused or resolved from the {@link UtcTimingCache} while the manifest loads, and
+     * the DRM session manager is created on the build thread while the clock is synchronized.
+     */
     private final class AsyncRendererBuilder implements ManifestFetcher.ManifestCallback<MediaPresentationDescription>, UtcTimingCallback {
         private final Context context;
         private final String userAgent;
@@ -125,25 +134,45 @@ public class DashRenderBuilder extends RenderBuilder {
         private final EMExoPlayer player;
         private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
         private MediaPresentationDescription currentManifest;
-        private final UriDataSource manifestDataSource;
         private final String captionsUrl;
+        private final String host;
 
         private boolean canceled;
+        private boolean rendererBuildStarted;
         private long elapsedRealtimeOffset;
 
+        private boolean timingResolved;
+        private boolean timingResolving;
+
+        private boolean drmPending;
+        private StreamingDrmSessionManager drmSessionManager;
+        private boolean filterHdContent;
+
         public AsyncRendererBuilder(Context context, String userAgent, String url, String captionsUrl, EMExoPlayer player, int streamType) {
             this.context = context;
             this.userAgent = userAgent;
             this.streamType = streamType;
             this.player = player;
             this.captionsUrl = captionsUrl;
+            this.host = Uri.parse(url).getHost();
 
             MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-            manifestDataSource = new DefaultUriDataSource(context, null, userAgent, true);
-            manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
+            manifestFetcher = new ManifestFetcher<>(url, createManifestDataSource(url), parser);
         }
 
         public void init() {
+            //Synchronizes the clock while the manifest is loading when the host has been seen before
+            long cachedOffset = UtcTimingCache.getOffset(host);
+            if (cachedOffset != UtcTimingCache.NO_OFFSET) {
+                elapsedRealtimeOffset = cachedOffset;
+                timingResolved = true;
+            } else {
+                UtcTimingElement cachedTiming = UtcTimingCache.getTimingElement(host);
+                if (cachedTiming != null) {
+                    resolveTiming(cachedTiming, SystemClock.elapsedRealtime());
+                }
+            }
+
             manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
         }
 
@@ -158,11 +187,23 @@ public class DashRenderBuilder extends RenderBuilder {
             }
 
             this.currentManifest = manifest;
-            if (manifest.dynamic && manifest.utcTiming != null) {
-                UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming, manifestFetcher.getManifestLoadCompleteTimestamp(), this);
-            } else {
-                buildRenderers();
+            player.onManifestLoaded();
+            onManifestLoaded(url, !manifest.dynamic);
+            if (manifest.dynamic && manifest.utcTiming != null && !timingResolved && !timingResolving) {
+                resolveTiming(manifest.utcTiming, manifestFetcher.getManifestLoadCompleteTimestamp());
+            }
+
+            if (hasContentProtection(manifest.getPeriod(0))) {
+                //Check DRM support if the content is protected
+                if (Util.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    player.onRenderersError(new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
+                    return;
+                }
+
+                createDrmSessionManager();
             }
+
+            maybeBuildRenderers();
         }
 
         @Override
@@ -180,8 +221,11 @@ public class DashRenderBuilder extends RenderBuilder {
                 return;
             }
 
+            UtcTimingCache.put(host, utcTiming, elapsedRealtimeOffset);
             this.elapsedRealtimeOffset = elapsedRealtimeOffset;
-            buildRenderers();
+            timingResolving = false;
+            timingResolved = true;
+            maybeBuildRenderers();
         }
 
         @Override
@@ -192,80 +236,129 @@ public class DashRenderBuilder extends RenderBuilder {
 
             Log.e(TAG, "Failed to resolve UtcTiming element [" + utcTiming + "]", e);
             // Be optimistic and continue in the hope that the device clock is correct.
-            buildRenderers();
+            timingResolving = false;
+            maybeBuildRenderers();
         }
 
-        private void buildRenderers() {
-            boolean filterHdContent = false;
-            boolean hasContentProtection = false;
-            Period period = currentManifest.getPeriod(0);
-            StreamingDrmSessionManager drmSessionManager = null;
+        private void resolveTiming(UtcTimingElement utcTiming, long timingElementElapsedRealtime) {
+            timingResolving = true;
+
+            //The resolver can run while the manifest is loading, so it needs its own DataSource
+            UtcTimingElementResolver.resolveTimingElement(createManifestDataSource(url), utcTiming, timingElementElapsedRealtime, this);
+        }
+
+        /**
+         * Creates the Widevine session manager on a background thread, since creating the
+         * MediaDrm and querying the security level can block for a noticeable amount of time
+         */
+        private void createDrmSessionManager() {
+            drmPending = true;
+            DRM_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final StreamingDrmSessionManager sessionManager = StreamingDrmSessionManager.newWidevineInstance(player.getPlaybackLooper(), null, null, player.getMainHandler(), player);
+                        final boolean filterHd = getWidevineSecurityLevel(sessionManager) != SECURITY_LEVEL_1;
+                        player.getMainHandler().post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onDrmSessionManagerCreated(sessionManager, filterHd);
+                            }
+                        });
+                    } catch (final UnsupportedDrmException e) {
+                        player.getMainHandler().post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!canceled) {
+                                    player.onRenderersError(e);
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
 
-            //Determines if the media has content protection
+        private void onDrmSessionManagerCreated(StreamingDrmSessionManager sessionManager, boolean filterHd) {
+            if (canceled) {
+                return;
+            }
+
+            drmSessionManager = sessionManager;
+            filterHdContent = filterHd;
+            drmPending = false;
+            maybeBuildRenderers();
+        }
+
+        private boolean hasContentProtection(Period period) {
             for (int i = 0; i < period.adaptationSets.size(); i++) {
                 AdaptationSet adaptationSet = period.adaptationSets.get(i);
-                if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN) {
-                    hasContentProtection |= adaptationSet.hasContentProtection();
+                if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN && adaptationSet.hasContentProtection()) {
+                    return true;
                 }
             }
 
-            // Check DRM support if the content is protected
-            if (hasContentProtection) {
-                if (Util.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                    player.onRenderersError(new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
-                    return;
-                }
-                try {
-                    drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(player.getPlaybackLooper(), null, null, player.getMainHandler(), player);
-                    filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
-                } catch (UnsupportedDrmException e) {
-                    player.onRenderersError(e);
-                    return;
-                }
+            return false;
+        }
+
+        /**
+         * Builds the renderers once all of the startup steps have completed
+         */
+        private void maybeBuildRenderers() {
+            if (rendererBuildStarted || currentManifest == null || drmPending) {
+                return;
+            }
+
+            if (currentManifest.dynamic && timingResolving) {
+                return;
             }
 
+            rendererBuildStarted = true;
             buildRenderers(drmSessionManager, filterHdContent);
         }
 
         private void buildRenderers(DrmSessionManager drmSessionManager, boolean filterHdContent) {
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
-
-
-            //Create the Sample Source to be used by the Video Renderer
-            DataSource dataSourceVideo = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
-            ChunkSource chunkSourceVideo = new DashChunkSource(manifestFetcher, DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent), dataSourceVideo,
-                    new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS, elapsedRealtimeOffset, mainHandler, player, EMExoPlayer.RENDER_VIDEO);
-            ChunkSampleSource sampleSourceVideo = new ChunkSampleSource(chunkSourceVideo, loadControl, BUFFER_SEGMENTS_VIDEO * BUFFER_SEGMENT_SIZE,
-                    mainHandler, player, EMExoPlayer.RENDER_VIDEO);
+            LoadControl loadControl = createLoadControl(player);
+            BandwidthMeter bandwidthMeter = createBandwidthMeter(player);
+
+
+            //Create the Video Renderer, unless only the audio will be played
+            MediaCodecVideoTrackRenderer videoRenderer = null;
+            if (!isAudioOnly()) {
+                DataSource dataSourceVideo = createDataSource(bandwidthMeter);
+                ChunkSource chunkSourceVideo = new DashChunkSource(manifestFetcher, DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent), dataSourceVideo,
+                        createFormatEvaluator(player, bandwidthMeter), getLiveEdgeLatencyMs(), elapsedRealtimeOffset, mainHandler, player, EMExoPlayer.RENDER_VIDEO);
+                ChunkSampleSource sampleSourceVideo = new ChunkSampleSource(chunkSourceVideo, loadControl, getBufferPolicy().getVideoBufferSize(),
+                        mainHandler, player, EMExoPlayer.RENDER_VIDEO);
+                videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSourceVideo, MediaCodecSelector.DEFAULT,
+                        MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, mainHandler, player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
+            }
 
 
             //Create the Sample Source to be used by the Audio Renderer
-            DataSource dataSourceAudio = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
+            DataSource dataSourceAudio = createDataSource(bandwidthMeter);
             ChunkSource chunkSourceAudio = new DashChunkSource(manifestFetcher, DefaultDashTrackSelector.newAudioInstance(), dataSourceAudio,
-                    null, LIVE_EDGE_LATENCY_MS, elapsedRealtimeOffset, mainHandler, player, EMExoPlayer.RENDER_AUDIO);
-            ChunkSampleSource sampleSourceAudio = new ChunkSampleSource(chunkSourceAudio, loadControl, BUFFER_SEGMENTS_AUDIO * BUFFER_SEGMENT_SIZE,
+                    null, getLiveEdgeLatencyMs(), elapsedRealtimeOffset, mainHandler, player, EMExoPlayer.RENDER_AUDIO);
+            ChunkSampleSource sampleSourceAudio = new ChunkSampleSource(chunkSourceAudio, loadControl, getBufferPolicy().getAudioBufferSize(),
                     mainHandler, player, EMExoPlayer.RENDER_AUDIO);
 
 
             //Create the Sample Source to be used by the Closed Captions Renderer
-            DataSource dataSourceCC = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
+            DataSource dataSourceCC = createDataSource(bandwidthMeter);
             SampleSource sampleSourceCC;
             if (!TextUtils.isEmpty(captionsUrl)) {
                 MediaFormat mediaFormat = MediaFormat.createTextFormat("0", MediaMimeType.getMimeType(Uri.parse(captionsUrl)), MediaFormat.NO_VALUE, C.MATCH_LONGEST_US, null);
-                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUrl), new DefaultUriDataSource(context, bandwidthMeter, userAgent, true), mediaFormat);
+                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUrl), createDataSource(bandwidthMeter), mediaFormat);
             } else {
                 ChunkSource chunkSourceCC = new DashChunkSource(manifestFetcher, DefaultDashTrackSelector.newAudioInstance(), dataSourceCC,
-                        null, LIVE_EDGE_LATENCY_MS, elapsedRealtimeOffset, mainHandler, player, EMExoPlayer.RENDER_CLOSED_CAPTION);
-                sampleSourceCC = new ChunkSampleSource(chunkSourceCC, loadControl, BUFFER_SEGMENTS_TEXT * BUFFER_SEGMENT_SIZE,
+                        null, getLiveEdgeLatencyMs(), elapsedRealtimeOffset, mainHandler, player, EMExoPlayer.RENDER_CLOSED_CAPTION);
+                sampleSourceCC = new ChunkSampleSource(chunkSourceCC, loadControl, getBufferPolicy().getTextBufferSize(),
                         mainHandler, player, EMExoPlayer.RENDER_CLOSED_CAPTION);
             }
 
 
             //Build the renderers
-            MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSourceVideo, MediaCodecSelector.DEFAULT,
-                    MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, mainHandler, player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
             EMMediaCodecAudioTrackRenderer audioRenderer = new EMMediaCodecAudioTrackRenderer(sampleSourceAudio, MediaCodecSelector.DEFAULT,
                     drmSessionManager, true, mainHandler, player, AudioCapabilities.getCapabilities(context), streamType);
             TextTrackRenderer captionsRenderer = new TextTrackRenderer(sampleSourceCC, player, mainHandler.getLooper());
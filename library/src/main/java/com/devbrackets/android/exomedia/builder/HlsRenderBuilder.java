@@ -27,11 +27,13 @@ import android.os.Build;
 import android.os.Handler;
 import android.text.TextUtils;
 
+import com.devbrackets.android.exomedia.abr.AbrBandwidthMeter;
+import com.devbrackets.android.exomedia.abr.AbrStrategy;
 import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
 import com.devbrackets.android.exomedia.renderer.EMMediaCodecAudioTrackRenderer;
 import com.devbrackets.android.exomedia.type.MediaMimeType;
+import com.devbrackets.android.exomedia.util.EMCodecCapabilities;
 import com.google.android.exoplayer.C;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecUtil;
@@ -42,22 +44,22 @@ import com.google.android.exoplayer.SingleSampleSource;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.VideoFormatSelectorUtil;
-import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
 import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylistParser;
 import com.google.android.exoplayer.hls.HlsSampleSource;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
 import com.google.android.exoplayer.hls.PtsTimestampAdjusterProvider;
+import com.google.android.exoplayer.hls.Variant;
 import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.metadata.id3.Id3Parser;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
 
@@ -97,6 +99,8 @@ public class HlsRenderBuilder extends RenderBuilder {
 
     @Override
     public void buildRenderers(EMExoPlayer player) {
+        configureFormatConstraints(player);
+
         currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, captionsUrl, player, streamType);
         currentAsyncBuilder.init();
     }
@@ -109,7 +113,44 @@ public class HlsRenderBuilder extends RenderBuilder {
         }
     }
 
-    private static final class AsyncRendererBuilder implements ManifestCallback<HlsPlaylist> {
+    /**
+     * Determines how many of the video <code>variants</code> the device can play.  When the
+     * {@link EMCodecCapabilities} have been loaded the cached capabilities of the decoder for
+     * each variant's video codec are used, otherwise the MediaCodecList will be queried.
+     *
+     * @param variants The video variants from the master playlist
+     * @return The number of supported variants
+     * @throws MediaCodecUtil.DecoderQueryException If the MediaCodecList couldn't be queried
+     */
+    protected int getSupportedVariantCount(List<Variant> variants) throws MediaCodecUtil.DecoderQueryException {
+        EMCodecCapabilities codecCapabilities = CodecCapabilitiesHlsTrackSelector.getLoadedCapabilities();
+        if (codecCapabilities == null) {
+            return VideoFormatSelectorUtil.selectVideoFormatsForDefaultDisplay(context, variants, null, false).length;
+        }
+
+        return CodecCapabilitiesHlsTrackSelector.getSupportedVariants(codecCapabilities, variants).size();
+    }
+
+    /**
+     * Creates the BandwidthMeter for the HlsChunkSource to select the variants with.  For
+     * master playlists this is an {@link AbrBandwidthMeter} that limits the selection to the
+     * variants allowed by the player's {@link com.devbrackets.android.exomedia.abr.FormatConstraints},
+     * and steers it with the {@link AbrStrategy} if one has been set.
+     *
+     * @param player The EMExoPlayer to inform of the variant decisions
+     * @param bandwidthMeter The BandwidthMeter measuring the media loads
+     * @param playlist The playlist the HlsChunkSource will load
+     * @return The BandwidthMeter for the HlsChunkSource
+     */
+    protected BandwidthMeter createVariantBandwidthMeter(EMExoPlayer player, BandwidthMeter bandwidthMeter, HlsPlaylist playlist) {
+        if (isAudioOnly() || !(playlist instanceof HlsMasterPlaylist) || ((HlsMasterPlaylist) playlist).variants.size() < 2) {
+            return bandwidthMeter;
+        }
+
+        return new AbrBandwidthMeter(getAbrStrategy(), bandwidthMeter, player, ((HlsMasterPlaylist) playlist).variants);
+    }
+
+    private final class AsyncRendererBuilder implements ManifestCallback<HlsPlaylist> {
         private final Context context;
         private final String userAgent;
         private final String url;
@@ -129,7 +170,7 @@ public class HlsRenderBuilder extends RenderBuilder {
             this.player = player;
 
             HlsPlaylistParser parser = new HlsPlaylistParser();
-            playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, null, userAgent, true), parser);
+            playlistFetcher = new ManifestFetcher<>(url, createManifestDataSource(url), parser);
         }
 
         public void init() {
@@ -155,49 +196,58 @@ public class HlsRenderBuilder extends RenderBuilder {
                 return;
             }
 
+            player.onManifestLoaded();
+
+            //The master playlist doesn't change, even for live streams
+            onManifestLoaded(url, playlist instanceof HlsMasterPlaylist || !((HlsMediaPlaylist) playlist).live);
             buildRenderers(playlist);
         }
 
         private void buildRenderers(HlsPlaylist playlist) {
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+            LoadControl loadControl = createLoadControl(player);
+            BandwidthMeter bandwidthMeter = createBandwidthMeter(player);
             PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
 
-            //Calculates the Chunk variant indices
-            int[] variantIndices;
-            if (playlist instanceof HlsMasterPlaylist) {
+            //Calculates the Chunk variant indices, the video variants aren't needed when audio only
+            if (playlist instanceof HlsMasterPlaylist && !isAudioOnly()) {
                 HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
 
+                int variantCount;
                 try {
-                    variantIndices = VideoFormatSelectorUtil.selectVideoFormatsForDefaultDisplay(context, masterPlaylist.variants, null, false);
+                    variantCount = getSupportedVariantCount(masterPlaylist.variants);
                 } catch (MediaCodecUtil.DecoderQueryException e) {
                     player.onRenderersError(e);
                     return;
                 }
 
-                if (variantIndices.length == 0) {
+                if (variantCount == 0) {
                     player.onRenderersError(new IllegalStateException("No variants selected."));
                     return;
                 }
             }
 
             //Create the Sample Source to be used by the renders
-            DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
-            HlsChunkSource chunkSource = new HlsChunkSource(true, dataSource, playlist, DefaultHlsTrackSelector.newDefaultInstance(context),
-                    bandwidthMeter, timestampAdjusterProvider);
+            DataSource dataSource = createDataSource(bandwidthMeter);
+            HlsTrackSelector trackSelector = isAudioOnly() ? new AudioOnlyHlsTrackSelector() : new CodecCapabilitiesHlsTrackSelector(context);
+            HlsChunkSource chunkSource = new HlsChunkSource(true, dataSource, playlist, trackSelector,
+                    createVariantBandwidthMeter(player, bandwidthMeter, playlist), timestampAdjusterProvider);
             HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
-                    BUFFER_SEGMENTS_TOTAL * BUFFER_SEGMENT_SIZE, mainHandler, player, EMExoPlayer.RENDER_VIDEO);
+                    getTotalBufferSize(), mainHandler, player, EMExoPlayer.RENDER_VIDEO);
 
             SampleSource sampleSourceCC = null;
             if (!TextUtils.isEmpty(captionsUrl)) {
                 MediaFormat mediaFormat = MediaFormat.createTextFormat("0", MediaMimeType.getMimeType(Uri.parse(captionsUrl)), MediaFormat.NO_VALUE, C.MATCH_LONGEST_US, null);
-                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUrl), new DefaultUriDataSource(context, bandwidthMeter, userAgent, true), mediaFormat);
+                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUrl), createDataSource(bandwidthMeter), mediaFormat);
             }
 
             //Build the renderers
-            MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSource, MediaCodecSelector.DEFAULT,
-                    MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, mainHandler, player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
+            MediaCodecVideoTrackRenderer videoRenderer = null;
+            if (!isAudioOnly()) {
+                videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSource, MediaCodecSelector.DEFAULT,
+                        MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, mainHandler, player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
+            }
+
             EMMediaCodecAudioTrackRenderer audioRenderer = new EMMediaCodecAudioTrackRenderer(sampleSource, MediaCodecSelector.DEFAULT, null, true,
                     player.getMainHandler(), player, AudioCapabilities.getCapabilities(context), streamType);
             TrackRenderer captionsRenderer;
@@ -24,26 +24,46 @@ import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.net.Uri;
 import android.os.Build;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import com.devbrackets.android.exomedia.abr.AbrFormatEvaluator;
+import com.devbrackets.android.exomedia.abr.AbrStrategy;
+import com.devbrackets.android.exomedia.abr.ThroughputAbrStrategy;
 import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
 import com.devbrackets.android.exomedia.renderer.EMMediaCodecAudioTrackRenderer;
 import com.devbrackets.android.exomedia.type.MediaMimeType;
+import com.devbrackets.android.exomedia.upstream.DataSourceFactory;
+import com.devbrackets.android.exomedia.upstream.EMAllocatorPool;
+import com.devbrackets.android.exomedia.upstream.EMBandwidthMeter;
+import com.devbrackets.android.exomedia.upstream.EMManifestCache;
+import com.devbrackets.android.exomedia.upstream.EMPooledDataSourceFactory;
+import com.devbrackets.android.exomedia.upstream.EMSegmentCache;
+import com.devbrackets.android.exomedia.upstream.EMUriDataSource;
 import com.devbrackets.android.exomedia.util.MediaUtil;
 import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.SingleSampleSource;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.extractor.ExtractorSampleSource;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A default RenderBuilder that can process general
@@ -54,17 +74,33 @@ public class RenderBuilder {
     protected static final int DROPPED_FRAME_NOTIFICATION_AMOUNT = 50;
     protected static final long MAX_JOIN_TIME = 5000;
 
+    public static final long DEFAULT_LIVE_EDGE_LATENCY_MS = 30000;
+
     protected static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
     protected static final int BUFFER_SEGMENTS_VIDEO = 200;
     protected static final int BUFFER_SEGMENTS_AUDIO = 54;
     protected static final int BUFFER_SEGMENTS_TEXT = 2;
     protected static final int BUFFER_SEGMENTS_TOTAL = BUFFER_SEGMENTS_VIDEO + BUFFER_SEGMENTS_AUDIO + BUFFER_SEGMENTS_TEXT;
 
+    private static final ExecutorService BUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private final Context context;
     private final String userAgent;
     private final String uri;
     private final int streamType;
     private final String captionsUri;
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    private DataSourceFactory dataSourceFactory = new EMPooledDataSourceFactory();
+    private BufferPolicy bufferPolicy = BufferPolicy.DEFAULT;
+    private BitratePolicy bitratePolicy = BitratePolicy.DEFAULT;
+    private long liveEdgeLatencyMs = DEFAULT_LIVE_EDGE_LATENCY_MS;
+    private boolean audioOnly;
+
+    @Nullable
+    private AbrStrategy abrStrategy;
+    @Nullable
+    private AsyncRendererBuilder currentAsyncBuilder;
 
     public RenderBuilder(Context context, String userAgent, String uri, String captionsUri) {
         this(context, userAgent, uri, captionsUri, AudioManager.STREAM_MUSIC);
@@ -83,37 +119,395 @@ public class RenderBuilder {
     }
 
 
+    /**
+     * Asynchronously builds the renderers for the media, informing the <code>player</code>
+     * on the main thread once they have been built.  The progressive media renderers are
+     * built on a background thread, and any previous build that hasn't completed
+     * will be canceled.
+     *
+     * @param player The EMExoPlayer to build the renderers for
+     */
     public void buildRenderers(EMExoPlayer player) {
-        //Create the Sample Source to be used by the renderers
-        Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
-        DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(player.getMainHandler(), player);
-        DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
-
-        ExtractorSampleSource sampleSource = new ExtractorSampleSource(Uri.parse(MediaUtil.getUriWithProtocol(uri)), dataSource,
-               allocator, BUFFER_SEGMENT_SIZE * BUFFER_SEGMENTS_TOTAL);
-
-        //Create the Renderers
-        MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSource, MediaCodecSelector.DEFAULT,
-                MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, null, true, player.getMainHandler(), player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
-        EMMediaCodecAudioTrackRenderer audioRenderer = new EMMediaCodecAudioTrackRenderer(sampleSource, MediaCodecSelector.DEFAULT, null, true,
-                player.getMainHandler(), player, AudioCapabilities.getCapabilities(context), streamType);
-        SingleSampleSource sampleSourceCC = null;
-        if (!TextUtils.isEmpty(captionsUri)) {
-            MediaFormat mediaFormat = MediaFormat.createTextFormat("0", MediaMimeType.getMimeType(Uri.parse(captionsUri)), MediaFormat.NO_VALUE, C.MATCH_LONGEST_US, null);
-            sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUri), new DefaultUriDataSource(context, bandwidthMeter, userAgent, true), mediaFormat);
+        cancel();
+
+        currentAsyncBuilder = new AsyncRendererBuilder(player);
+        BUILD_EXECUTOR.execute(currentAsyncBuilder);
+    }
+
+    /**
+     * Cancels the current build, the player won't be informed of the
+     * renderers or any error that occurs.
+     */
+    public void cancel() {
+        if (currentAsyncBuilder != null) {
+            currentAsyncBuilder.cancel();
+            currentAsyncBuilder = null;
         }
-        TrackRenderer captionsRenderer = new TextTrackRenderer(sampleSourceCC != null ? sampleSourceCC : sampleSource, player, player.getMainHandler().getLooper());
+    }
 
+    /**
+     * Sets the factory used to create the HttpDataSources for the manifests, media,
+     * and captions.  This should be called before the renderers are built.
+     *
+     * @param dataSourceFactory The factory to use [default: {@link EMPooledDataSourceFactory}]
+     */
+    public void setDataSourceFactory(DataSourceFactory dataSourceFactory) {
+        this.dataSourceFactory = dataSourceFactory;
+    }
 
-        //Create the Render list to send to the callback
-        TrackRenderer[] renderers = new TrackRenderer[EMExoPlayer.RENDER_COUNT];
-        renderers[EMExoPlayer.RENDER_VIDEO] = videoRenderer;
-        renderers[EMExoPlayer.RENDER_AUDIO] = audioRenderer;
-        renderers[EMExoPlayer.RENDER_CLOSED_CAPTION] = captionsRenderer;
-        player.onRenderers(renderers, bandwidthMeter);
+    /**
+     * Retrieves the factory used to create the HttpDataSources
+     *
+     * @return The DataSourceFactory
+     */
+    public DataSourceFactory getDataSourceFactory() {
+        return dataSourceFactory;
     }
 
-    public void cancel() {
-        //Purposefully left blank
+    /**
+     * Sets the policy that determines how much media will be buffered.  This
+     * should be called before the renderers are built.
+     *
+     * @param bufferPolicy The BufferPolicy to use [default: {@link BufferPolicy#DEFAULT}]
+     */
+    public void setBufferPolicy(BufferPolicy bufferPolicy) {
+        this.bufferPolicy = bufferPolicy;
+    }
+
+    /**
+     * Retrieves the policy that determines how much media will be buffered
+     *
+     * @return The BufferPolicy
+     */
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy;
+    }
+
+    /**
+     * Sets the policy that determines the highest video bitrate the adaptive streams
+     * may select.  This should be called before the renderers are built.
+     *
+     * @param bitratePolicy The BitratePolicy to use [default: {@link BitratePolicy#DEFAULT}]
+     */
+    public void setBitratePolicy(BitratePolicy bitratePolicy) {
+        this.bitratePolicy = bitratePolicy;
+    }
+
+    /**
+     * Retrieves the policy that determines the highest video bitrate
+     * the adaptive streams may select
+     *
+     * @return The BitratePolicy
+     */
+    public BitratePolicy getBitratePolicy() {
+        return bitratePolicy;
+    }
+
+    /**
+     * Sets the distance from the live edge that live DASH and SmoothStreaming media
+     * will start playback at.  This should be called before the renderers are built.
+     *
+     * @param liveEdgeLatencyMs The distance from the live edge in milliseconds [default: {@value #DEFAULT_LIVE_EDGE_LATENCY_MS}]
+     */
+    public void setLiveEdgeLatencyMs(long liveEdgeLatencyMs) {
+        this.liveEdgeLatencyMs = liveEdgeLatencyMs;
+    }
+
+    /**
+     * Retrieves the distance from the live edge that live media will start playback at
+     *
+     * @return The distance from the live edge in milliseconds
+     */
+    public long getLiveEdgeLatencyMs() {
+        return liveEdgeLatencyMs;
+    }
+
+    /**
+     * Retrieves the number of bytes loaded over the network for the manifests, media,
+     * and captions by the data sources this RenderBuilder has created.  Since a RenderBuilder
+     * is created for each media item this represents the data used by the playback session.
+     *
+     * @return The number of bytes transferred
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * Sets the RenderBuilder to only build the renderers needed for audio playback.  No
+     * video renderer will be created, adaptive streams will only load the audio tracks
+     * (or for HLS the audio renditions when available), and no memory will be buffered
+     * for video.  Progressive media with muxed audio and video still needs to be fully loaded.
+     * This should be called before the renderers are built.
+     *
+     * @param audioOnly True if only the audio will be played [default: false]
+     */
+    public void setAudioOnly(boolean audioOnly) {
+        this.audioOnly = audioOnly;
+    }
+
+    /**
+     * Determines if the RenderBuilder will only build the renderers needed for audio playback
+     *
+     * @return True if only the audio will be played
+     */
+    public boolean isAudioOnly() {
+        return audioOnly;
+    }
+
+    /**
+     * Sets the strategy used to select the format of the adaptive video.  When no strategy
+     * is set the DASH and SmoothStreaming video will use a {@link ThroughputAbrStrategy}, and
+     * HLS will use the HlsChunkSource variant selection.  This should be called before the
+     * renderers are built.
+     *
+     * @param abrStrategy The AbrStrategy to use or null [default: null]
+     */
+    public void setAbrStrategy(@Nullable AbrStrategy abrStrategy) {
+        this.abrStrategy = abrStrategy;
+    }
+
+    /**
+     * Retrieves the strategy used to select the format of the adaptive video
+     *
+     * @return The AbrStrategy or null if the default selection is used
+     */
+    @Nullable
+    public AbrStrategy getAbrStrategy() {
+        return abrStrategy;
+    }
+
+    /**
+     * Retrieves the size of the buffer used when the tracks share a single source
+     * (e.g. HLS and progressive media), excluding the video portion when audio only.
+     *
+     * @return The buffer size in bytes
+     */
+    protected int getTotalBufferSize() {
+        return audioOnly ? bufferPolicy.getAudioBufferSize() + bufferPolicy.getTextBufferSize() : bufferPolicy.getTotalBufferSize();
+    }
+
+    /**
+     * Creates the Allocator to use for the media buffers.  By default the segments
+     * are shared with the other players through the {@link EMAllocatorPool}.
+     *
+     * @return The Allocator to use
+     */
+    protected Allocator createAllocator() {
+        return EMAllocatorPool.getInstance(context).createAllocator(bufferPolicy.getSegmentSize());
+    }
+
+    /**
+     * Creates the LoadControl to use for the adaptive streams, using the
+     * segment size and watermarks from the {@link BufferPolicy}
+     *
+     * @param player The EMExoPlayer the LoadControl will be used with
+     * @return The LoadControl to use
+     */
+    protected LoadControl createLoadControl(EMExoPlayer player) {
+        return new DefaultLoadControl(createAllocator(), player.getMainHandler(), null,
+                bufferPolicy.getLowWatermarkMs(), bufferPolicy.getHighWatermarkMs(), bufferPolicy.getLowBufferLoad(), bufferPolicy.getHighBufferLoad());
+    }
+
+    /**
+     * Creates the BandwidthMeter to use for measuring the media loads.  By default this
+     * is an {@link EMBandwidthMeter} so that the adaptive streams start with the
+     * last known bandwidth for the current network type.
+     *
+     * @param player The EMExoPlayer to inform of bandwidth samples
+     * @return The BandwidthMeter to use
+     */
+    protected BandwidthMeter createBandwidthMeter(EMExoPlayer player) {
+        return new EMBandwidthMeter(context, player.getMainHandler(), player);
+    }
+
+    /**
+     * Applies the {@link BitratePolicy} to the {@link com.devbrackets.android.exomedia.abr.FormatConstraints}
+     * of the <code>player</code>, this should be called by the adaptive RenderBuilders before
+     * building the renderers.
+     *
+     * @param player The EMExoPlayer the renderers will be built for
+     */
+    protected void configureFormatConstraints(EMExoPlayer player) {
+        player.getFormatConstraints().setBitratePolicy(context, bitratePolicy);
+    }
+
+    /**
+     * Creates the FormatEvaluator to use for selecting the format of the adaptive
+     * video in the chunked (DASH and SmoothStreaming) streams
+     *
+     * @param player The EMExoPlayer to inform of the format decisions
+     * @param bandwidthMeter The BandwidthMeter measuring the media loads
+     * @return The FormatEvaluator to use
+     */
+    protected FormatEvaluator createFormatEvaluator(EMExoPlayer player, BandwidthMeter bandwidthMeter) {
+        AbrStrategy strategy = abrStrategy != null ? abrStrategy : new ThroughputAbrStrategy();
+        return new AbrFormatEvaluator(strategy, bandwidthMeter, player);
+    }
+
+    /**
+     * Creates the DataSource to use for loading the media and captions.  Local files
+     * are read through a memory mapped {@link com.devbrackets.android.exomedia.upstream.MappedFileDataSource}.
+     * If the {@link EMSegmentCache} has been initialized then any network media will be
+     * read through the cache.
+     *
+     * @param transferListener The listener to inform of data transfers, normally the BandwidthMeter
+     * @return The DataSource to use for loading media
+     */
+    protected DataSource createDataSource(@Nullable TransferListener transferListener) {
+        HttpDataSource httpDataSource = dataSourceFactory.createHttpDataSource(userAgent, new CountingTransferListener(transferListener));
+        DataSource dataSource = new EMUriDataSource(context, transferListener, httpDataSource);
+
+        EMSegmentCache segmentCache = EMSegmentCache.getInstance();
+        return segmentCache != null ? segmentCache.createDataSource(dataSource) : dataSource;
+    }
+
+    /**
+     * Creates the UriDataSource to use for loading the manifest.  If the
+     * {@link EMManifestCache} has been initialized then the manifest will be
+     * loaded through the cache.
+     *
+     * @param manifestUrl The url for the manifest
+     * @return The UriDataSource to use for loading the manifest
+     */
+    protected UriDataSource createManifestDataSource(String manifestUrl) {
+        HttpDataSource httpDataSource = dataSourceFactory.createHttpDataSource(userAgent, new CountingTransferListener(null));
+
+        EMManifestCache manifestCache = EMManifestCache.getInstance();
+        if (manifestCache != null) {
+            return manifestCache.createDataSource(context, httpDataSource, manifestUrl);
+        }
+
+        return new DefaultUriDataSource(context, null, httpDataSource);
+    }
+
+    /**
+     * Informs the {@link EMManifestCache} (if initialized) whether the loaded manifest
+     * represents static (VOD) content that can be served without refreshing.
+     *
+     * @param manifestUrl The url for the manifest
+     * @param isStatic True if the manifest represents static (VOD) content
+     */
+    protected void onManifestLoaded(String manifestUrl, boolean isStatic) {
+        EMManifestCache manifestCache = EMManifestCache.getInstance();
+        if (manifestCache != null) {
+            manifestCache.setStatic(manifestUrl, isStatic);
+        }
+    }
+
+    /**
+     * Counts the bytes transferred over the network for {@link #getBytesTransferred()},
+     * passing the transfers on to the wrapped listener
+     */
+    private final class CountingTransferListener implements TransferListener {
+        @Nullable
+        private final TransferListener transferListener;
+
+        public CountingTransferListener(@Nullable TransferListener transferListener) {
+            this.transferListener = transferListener;
+        }
+
+        @Override
+        public void onTransferStart() {
+            if (transferListener != null) {
+                transferListener.onTransferStart();
+            }
+        }
+
+        @Override
+        public void onBytesTransferred(int bytes) {
+            bytesTransferred.addAndGet(bytes);
+            if (transferListener != null) {
+                transferListener.onBytesTransferred(bytes);
+            }
+        }
+
+        @Override
+        public void onTransferEnd() {
+            if (transferListener != null) {
+                transferListener.onTransferEnd();
+            }
+        }
+    }
+
+    /**
+     * Builds the renderers for the progressive media off of the main thread, since
+     * creating the data sources, sample source, and renderers (including the
+     * AudioCapabilities query) can take long enough to drop frames.
+     */
+    private final class AsyncRendererBuilder implements Runnable {
+        private final EMExoPlayer player;
+
+        private volatile boolean canceled;
+
+        public AsyncRendererBuilder(EMExoPlayer player) {
+            this.player = player;
+        }
+
+        public void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        public void run() {
+            if (canceled) {
+                return;
+            }
+
+            try {
+                buildRenderers();
+            } catch (final Exception e) {
+                player.getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!canceled) {
+                            player.onRenderersError(e);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void buildRenderers() {
+            //Create the Sample Source to be used by the renderers
+            Allocator allocator = createAllocator();
+            final BandwidthMeter bandwidthMeter = createBandwidthMeter(player);
+            DataSource dataSource = createDataSource(bandwidthMeter);
+
+            ExtractorSampleSource sampleSource = new ExtractorSampleSource(Uri.parse(MediaUtil.getUriWithProtocol(uri)), dataSource,
+                   allocator, getTotalBufferSize());
+
+            //Create the Renderers
+            MediaCodecVideoTrackRenderer videoRenderer = null;
+            if (!audioOnly) {
+                videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSource, MediaCodecSelector.DEFAULT,
+                        MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, null, true, player.getMainHandler(), player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
+            }
+
+            EMMediaCodecAudioTrackRenderer audioRenderer = new EMMediaCodecAudioTrackRenderer(sampleSource, MediaCodecSelector.DEFAULT, null, true,
+                    player.getMainHandler(), player, AudioCapabilities.getCapabilities(context), streamType);
+            SingleSampleSource sampleSourceCC = null;
+            if (!TextUtils.isEmpty(captionsUri)) {
+                MediaFormat mediaFormat = MediaFormat.createTextFormat("0", MediaMimeType.getMimeType(Uri.parse(captionsUri)), MediaFormat.NO_VALUE, C.MATCH_LONGEST_US, null);
+                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUri), createDataSource(bandwidthMeter), mediaFormat);
+            }
+            TrackRenderer captionsRenderer = new TextTrackRenderer(sampleSourceCC != null ? sampleSourceCC : sampleSource, player, player.getMainHandler().getLooper());
+
+
+            //Create the Render list to send to the callback
+            final TrackRenderer[] renderers = new TrackRenderer[EMExoPlayer.RENDER_COUNT];
+            renderers[EMExoPlayer.RENDER_VIDEO] = videoRenderer;
+            renderers[EMExoPlayer.RENDER_AUDIO] = audioRenderer;
+            renderers[EMExoPlayer.RENDER_CLOSED_CAPTION] = captionsRenderer;
+
+            player.getMainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!canceled) {
+                        player.onRenderers(renderers, bandwidthMeter);
+                    }
+                }
+            });
+        }
     }
-}
\ No newline at end of file
+}
@@ -31,18 +31,17 @@ import com.devbrackets.android.exomedia.exoplayer.EMExoPlayer;
 import com.devbrackets.android.exomedia.renderer.EMMediaCodecAudioTrackRenderer;
 import com.devbrackets.android.exomedia.type.MediaMimeType;
 import com.google.android.exoplayer.C;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.SingleSampleSource;
+import com.google.android.exoplayer.TimeRange;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
-import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
@@ -52,11 +51,8 @@ import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
 import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
 import com.google.android.exoplayer.smoothstreaming.SmoothStreamingTrackSelector;
 import com.google.android.exoplayer.text.TextTrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 
@@ -68,8 +64,6 @@ import java.io.IOException;
  */
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 public class SmoothStreamRenderBuilder extends RenderBuilder {
-    private static final int LIVE_EDGE_LATENCY_MS = 30000;
-
     private final Context context;
     private final String userAgent;
     private final String url;
@@ -90,13 +84,26 @@ public class SmoothStreamRenderBuilder extends RenderBuilder {
         super(context, userAgent, url, captionsUrl);
         this.context = context;
         this.userAgent = userAgent;
-        this.url = Util.toLowerInvariant(url).endsWith("/manifest") ? url : url + "/Manifest";
+        this.url = getManifestUrl(url);
         this.streamType = streamType;
         this.captionsUrl = captionsUrl;
     }
 
+    /**
+     * Retrieves the url for the SmoothStreaming manifest, appending the
+     * <code>/Manifest</code> path when it hasn't been specified.
+     *
+     * @param url The url for the SmoothStreaming media
+     * @return The url for the manifest
+     */
+    public static String getManifestUrl(String url) {
+        return Util.toLowerInvariant(url).endsWith("/manifest") ? url : url + "/Manifest";
+    }
+
     @Override
     public void buildRenderers(EMExoPlayer player) {
+        configureFormatConstraints(player);
+
         currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, captionsUrl, player, streamType);
         currentAsyncBuilder.init();
     }
@@ -109,7 +116,7 @@ public class SmoothStreamRenderBuilder extends RenderBuilder {
         }
     }
 
-    private static final class AsyncRendererBuilder implements ManifestFetcher.ManifestCallback<SmoothStreamingManifest> {
+    private final class AsyncRendererBuilder implements ManifestFetcher.ManifestCallback<SmoothStreamingManifest>, ManifestFetcher.EventListener {
         private final Context context;
         private final String userAgent;
         private final int streamType;
@@ -126,7 +133,7 @@ public class SmoothStreamRenderBuilder extends RenderBuilder {
             this.player = player;
             this.captionsUrl = captionsUrl;
             SmoothStreamingManifestParser parser = new SmoothStreamingManifestParser();
-            manifestFetcher = new ManifestFetcher<>(url, new DefaultHttpDataSource(userAgent, null), parser);
+            manifestFetcher = new ManifestFetcher<>(url, createManifestDataSource(url), parser, player.getMainHandler(), this);
         }
 
         public void init() {
@@ -152,6 +159,9 @@ public class SmoothStreamRenderBuilder extends RenderBuilder {
                 return;
             }
 
+            player.onManifestLoaded();
+            onManifestLoaded(url, !manifest.isLive);
+
             // Check drm support if necessary.
             DrmSessionManager drmSessionManager = null;
             if (manifest.protectionElement != null) {
@@ -169,48 +179,93 @@ public class SmoothStreamRenderBuilder extends RenderBuilder {
             }
 
             buildRenderers(drmSessionManager);
+            reportAvailableRange(manifest);
         }
 
-        private void buildRenderers(DrmSessionManager drmSessionManager) {
-            Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+        @Override
+        public void onManifestRefreshStarted() {
+            //Purposefully left blank
+        }
 
+        @Override
+        public void onManifestRefreshed() {
+            if (!canceled) {
+                reportAvailableRange(manifestFetcher.getManifest());
+            }
+        }
 
-            //Create the Sample Source to be used by the Video Renderer
-            DataSource dataSourceVideo = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
-            SmoothStreamingTrackSelector trackSelectorVideo = DefaultSmoothStreamingTrackSelector.newVideoInstance(context, true, false);
-            ChunkSource chunkSourceVideo = new SmoothStreamingChunkSource(manifestFetcher, trackSelectorVideo, dataSourceVideo,
-                    new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS);
-            ChunkSampleSource sampleSourceVideo = new ChunkSampleSource(chunkSourceVideo, loadControl, BUFFER_SEGMENTS_VIDEO * BUFFER_SEGMENT_SIZE,
-                    mainHandler, player, EMExoPlayer.RENDER_VIDEO);
+        @Override
+        public void onManifestError(IOException e) {
+            //Purposefully left blank
+        }
+
+        /**
+         * The SmoothStreamingChunkSource doesn't report the available range, so for live
+         * media it is determined from the manifest for tracking the live edge distance
+         */
+        private void reportAvailableRange(SmoothStreamingManifest manifest) {
+            if (!manifest.isLive) {
+                return;
+            }
+
+            long startTimeUs = Long.MAX_VALUE;
+            long endTimeUs = Long.MIN_VALUE;
+            for (SmoothStreamingManifest.StreamElement element : manifest.streamElements) {
+                if (element.chunkCount > 0) {
+                    int lastChunk = element.chunkCount - 1;
+                    startTimeUs = Math.min(startTimeUs, element.getStartTimeUs(0));
+                    endTimeUs = Math.max(endTimeUs, element.getStartTimeUs(lastChunk) + element.getChunkDurationUs(lastChunk));
+                }
+            }
+
+            if (endTimeUs != Long.MIN_VALUE) {
+                player.onAvailableRangeChanged(EMExoPlayer.RENDER_VIDEO, new TimeRange.StaticTimeRange(startTimeUs, endTimeUs));
+            }
+        }
+
+        private void buildRenderers(DrmSessionManager drmSessionManager) {
+            Handler mainHandler = player.getMainHandler();
+            LoadControl loadControl = createLoadControl(player);
+            BandwidthMeter bandwidthMeter = createBandwidthMeter(player);
+
+
+            //Create the Video Renderer, unless only the audio will be played
+            MediaCodecVideoTrackRenderer videoRenderer = null;
+            if (!isAudioOnly()) {
+                DataSource dataSourceVideo = createDataSource(bandwidthMeter);
+                SmoothStreamingTrackSelector trackSelectorVideo = DefaultSmoothStreamingTrackSelector.newVideoInstance(context, true, false);
+                ChunkSource chunkSourceVideo = new SmoothStreamingChunkSource(manifestFetcher, trackSelectorVideo, dataSourceVideo,
+                        createFormatEvaluator(player, bandwidthMeter), getLiveEdgeLatencyMs());
+                ChunkSampleSource sampleSourceVideo = new ChunkSampleSource(chunkSourceVideo, loadControl, getBufferPolicy().getVideoBufferSize(),
+                        mainHandler, player, EMExoPlayer.RENDER_VIDEO);
+                videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSourceVideo, MediaCodecSelector.DEFAULT,
+                        MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, drmSessionManager, true, mainHandler, player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
+            }
 
 
             //Create the Sample Source to be used by the Audio Renderer
-            DataSource dataSourceAudio = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
+            DataSource dataSourceAudio = createDataSource(bandwidthMeter);
             SmoothStreamingTrackSelector trackSelectorAudio = DefaultSmoothStreamingTrackSelector.newAudioInstance();
-            ChunkSource chunkSourceAudio = new SmoothStreamingChunkSource(manifestFetcher, trackSelectorAudio, dataSourceAudio, null, LIVE_EDGE_LATENCY_MS);
-            ChunkSampleSource sampleSourceAudio = new ChunkSampleSource(chunkSourceAudio, loadControl, BUFFER_SEGMENTS_AUDIO * BUFFER_SEGMENT_SIZE,
+            ChunkSource chunkSourceAudio = new SmoothStreamingChunkSource(manifestFetcher, trackSelectorAudio, dataSourceAudio, null, getLiveEdgeLatencyMs());
+            ChunkSampleSource sampleSourceAudio = new ChunkSampleSource(chunkSourceAudio, loadControl, getBufferPolicy().getAudioBufferSize(),
                     mainHandler, player, EMExoPlayer.RENDER_AUDIO);
 
 
             //Create the Sample Source to be used by the Closed Captions Renderer
-            DataSource dataSourceCC = new DefaultUriDataSource(context, bandwidthMeter, userAgent, true);
+            DataSource dataSourceCC = createDataSource(bandwidthMeter);
 
             SampleSource sampleSourceCC;
             if (!TextUtils.isEmpty(captionsUrl)) {
                 MediaFormat mediaFormat = MediaFormat.createTextFormat("0", MediaMimeType.getMimeType(Uri.parse(captionsUrl)), MediaFormat.NO_VALUE, C.MATCH_LONGEST_US, null);
-                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUrl), new DefaultUriDataSource(context, bandwidthMeter, userAgent, true), mediaFormat);
+                sampleSourceCC = new SingleSampleSource(Uri.parse(captionsUrl), createDataSource(bandwidthMeter), mediaFormat);
             } else {
                 SmoothStreamingTrackSelector trackSelectorCC = DefaultSmoothStreamingTrackSelector.newTextInstance();
-                ChunkSource chunkSourceCC = new SmoothStreamingChunkSource(manifestFetcher, trackSelectorCC, dataSourceCC, null, LIVE_EDGE_LATENCY_MS);
-                sampleSourceCC = new ChunkSampleSource(chunkSourceCC, loadControl, BUFFER_SEGMENTS_TEXT * BUFFER_SEGMENT_SIZE,
+                ChunkSource chunkSourceCC = new SmoothStreamingChunkSource(manifestFetcher, trackSelectorCC, dataSourceCC, null, getLiveEdgeLatencyMs());
+                sampleSourceCC = new ChunkSampleSource(chunkSourceCC, loadControl, getBufferPolicy().getTextBufferSize(),
                         mainHandler, player, EMExoPlayer.RENDER_CLOSED_CAPTION);
             }
 
             // Build the renderers
-            MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, sampleSourceVideo, MediaCodecSelector.DEFAULT,
-                    MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, MAX_JOIN_TIME, drmSessionManager, true, mainHandler, player, DROPPED_FRAME_NOTIFICATION_AMOUNT);
             EMMediaCodecAudioTrackRenderer audioRenderer = new EMMediaCodecAudioTrackRenderer(sampleSourceAudio, MediaCodecSelector.DEFAULT, drmSessionManager,
                     true, mainHandler, player, AudioCapabilities.getCapabilities(context), streamType);
             TextTrackRenderer captionsRenderer = new TextTrackRenderer(sampleSourceCC, player, mainHandler.getLooper());
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.builder;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the resolved UtcTiming clock offsets for each manifest host so that
+ * live DASH streams from the same host don't need to resolve the timing again
+ * before the renderers can be built.  The timing element itself is remembered for
+ * longer than the offset, allowing it to be resolved while the manifest is loading.
+ * Only the elements that request the time from a server can be resolved again; the
+ * direct elements contain the time the manifest was created so they would produce
+ * an offset that is wrong by the age of the element.
+ */
+class UtcTimingCache {
+    public static final long NO_OFFSET = Long.MIN_VALUE;
+
+    public static final long MAX_OFFSET_AGE = 10 * 60 * 1000;
+    public static final long MAX_ELEMENT_AGE = 24 * 60 * 60 * 1000;
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+
+    private UtcTimingCache() {
+        //Purposefully left blank
+    }
+
+    /**
+     * Retrieves the clock offset last resolved for the <code>host</code>
+     *
+     * @param host The host the manifest is loaded from
+     * @return The elapsed realtime offset in milliseconds or {@link #NO_OFFSET}
+     */
+    public static synchronized long getOffset(@Nullable String host) {
+        Entry entry = host != null ? entries.get(host) : null;
+        if (entry == null || SystemClock.elapsedRealtime() - entry.resolvedTime > MAX_OFFSET_AGE) {
+            return NO_OFFSET;
+        }
+
+        return entry.elapsedRealtimeOffset;
+    }
+
+    /**
+     * Retrieves the UtcTiming element last specified by a manifest from the <code>host</code>
+     * if it can be resolved again (see {@link #isServerTiming(UtcTimingElement)})
+     *
+     * @param host The host the manifest is loaded from
+     * @return The UtcTimingElement or null
+     */
+    @Nullable
+    public static synchronized UtcTimingElement getTimingElement(@Nullable String host) {
+        Entry entry = host != null ? entries.get(host) : null;
+        if (entry == null || SystemClock.elapsedRealtime() - entry.resolvedTime > MAX_ELEMENT_AGE || !isServerTiming(entry.utcTiming)) {
+            return null;
+        }
+
+        return entry.utcTiming;
+    }
+
+    /**
+     * Determines if the <code>utcTiming</code> element requests the time from a server
+     * (the <code>http-iso</code> and <code>http-xsdate</code> schemes) instead of
+     * containing the time itself
+     *
+     * @param utcTiming The UtcTimingElement to check
+     * @return True if resolving the element requests the current time from a server
+     */
+    static boolean isServerTiming(UtcTimingElement utcTiming) {
+        String schemeIdUri = utcTiming.schemeIdUri;
+        return schemeIdUri != null && (schemeIdUri.startsWith("urn:mpeg:dash:utc:http-iso:") || schemeIdUri.startsWith("urn:mpeg:dash:utc:http-xsdate:"));
+    }
+
+    /**
+     * Stores the resolved clock offset for the <code>host</code>
+     *
+     * @param host The host the manifest was loaded from
+     * @param utcTiming The UtcTimingElement that was resolved
+     * @param elapsedRealtimeOffset The resolved elapsed realtime offset in milliseconds
+     */
+    public static synchronized void put(@Nullable String host, UtcTimingElement utcTiming, long elapsedRealtimeOffset) {
+        if (host != null) {
+            entries.put(host, new Entry(utcTiming, elapsedRealtimeOffset, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private static class Entry {
+        private final UtcTimingElement utcTiming;
+        private final long elapsedRealtimeOffset;
+        private final long resolvedTime;
+
+        public Entry(UtcTimingElement utcTiming, long elapsedRealtimeOffset, long resolvedTime) {
+            this.utcTiming = utcTiming;
+            this.elapsedRealtimeOffset = elapsedRealtimeOffset;
+            this.resolvedTime = resolvedTime;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.download;
+
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The information tracked by the {@link DownloadIndex} for a single media item
+ */
+class DownloadEntry {
+    public enum State {
+        QUEUED,
+        DOWNLOADING,
+        PAUSED,
+        FAILED,
+        COMPLETED
+    }
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_URL = "url";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_LOCAL_PATH = "localPath";
+    private static final String KEY_BYTES_DOWNLOADED = "bytesDownloaded";
+    private static final String KEY_TOTAL_BYTES = "totalBytes";
+    private static final String KEY_LAST_ACCESS = "lastAccess";
+
+    public final long id;
+    public final String url;
+
+    public volatile State state = State.QUEUED;
+    @Nullable
+    public volatile String localPath;
+    public volatile long bytesDownloaded;
+    public volatile long totalBytes = -1;
+    public volatile long lastAccessTime;
+
+    public DownloadEntry(long id, String url) {
+        this.id = id;
+        this.url = url;
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_ID, id);
+        json.put(KEY_URL, url);
+        json.put(KEY_STATE, state.name());
+        json.put(KEY_LOCAL_PATH, localPath);
+        json.put(KEY_BYTES_DOWNLOADED, bytesDownloaded);
+        json.put(KEY_TOTAL_BYTES, totalBytes);
+        json.put(KEY_LAST_ACCESS, lastAccessTime);
+
+        return json;
+    }
+
+    public static DownloadEntry fromJson(JSONObject json) throws JSONException {
+        DownloadEntry entry = new DownloadEntry(json.getLong(KEY_ID), json.getString(KEY_URL));
+        entry.state = State.valueOf(json.getString(KEY_STATE));
+        entry.localPath = json.isNull(KEY_LOCAL_PATH) ? null : json.getString(KEY_LOCAL_PATH);
+        entry.bytesDownloaded = json.getLong(KEY_BYTES_DOWNLOADED);
+        entry.totalBytes = json.getLong(KEY_TOTAL_BYTES);
+        entry.lastAccessTime = json.getLong(KEY_LAST_ACCESS);
+
+        //Downloads that were in progress when the process ended will need to be resumed
+        if (entry.state == State.DOWNLOADING || entry.state == State.QUEUED) {
+            entry.state = State.PAUSED;
+        }
+
+        return entry;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.download;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the downloaded media, keyed by the media url so that
+ * lookups don't need to touch the file system.  The index is persisted as
+ * json in the download directory.
+ * <p>
+ * The persisted index is read with {@link #load()} on a background thread; any
+ * access before it has been read will wait for it to complete.
+ */
+class DownloadIndex {
+    private static final String TAG = "DownloadIndex";
+    private static final String INDEX_FILE = "index.json";
+
+    private final File indexFile;
+    private final Map<String, DownloadEntry> entries = new HashMap<>();
+    private long nextId = 1;
+    private boolean loaded = false;
+
+    public DownloadIndex(File directory) {
+        indexFile = new File(directory, INDEX_FILE);
+    }
+
+    @Nullable
+    public synchronized DownloadEntry get(String url) {
+        waitForLoad();
+        return entries.get(url);
+    }
+
+    public synchronized DownloadEntry getOrCreate(String url) {
+        waitForLoad();
+        DownloadEntry entry = entries.get(url);
+        if (entry == null) {
+            entry = new DownloadEntry(nextId++, url);
+            entries.put(url, entry);
+        }
+
+        return entry;
+    }
+
+    public synchronized void remove(String url) {
+        waitForLoad();
+        entries.remove(url);
+    }
+
+    public synchronized List<DownloadEntry> getEntries() {
+        waitForLoad();
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Retrieves the total number of bytes used by the downloads
+     *
+     * @return The number of bytes used
+     */
+    public synchronized long getUsedBytes() {
+        waitForLoad();
+        long usedBytes = 0;
+        for (DownloadEntry entry : entries.values()) {
+            usedBytes += entry.bytesDownloaded;
+        }
+
+        return usedBytes;
+    }
+
+    /**
+     * Retrieves the completed download that was accessed the longest ago, ignoring
+     * the entry for the <code>excludedUrl</code>
+     *
+     * @param excludedUrl The url for the entry to ignore
+     * @return The least recently used entry or null
+     */
+    @Nullable
+    public synchronized DownloadEntry getLeastRecentlyUsed(@Nullable String excludedUrl) {
+        waitForLoad();
+        DownloadEntry leastRecent = null;
+        for (DownloadEntry entry : entries.values()) {
+            if (entry.state == DownloadEntry.State.COMPLETED && !entry.url.equals(excludedUrl)
+                    && (leastRecent == null || entry.lastAccessTime < leastRecent.lastAccessTime)) {
+                leastRecent = entry;
+            }
+        }
+
+        return leastRecent;
+    }
+
+    /**
+     * Writes the index to disk.  The index is written to a temporary file first
+     * so that a failure won't corrupt the existing index.
+     */
+    public synchronized void save() {
+        waitForLoad();
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        Writer writer = null;
+
+        try {
+            JSONArray jsonEntries = new JSONArray();
+            for (DownloadEntry entry : entries.values()) {
+                jsonEntries.put(entry.toJson());
+            }
+
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            writer.write(jsonEntries.toString());
+            writer.close();
+            writer = null;
+
+            if (!tempFile.renameTo(indexFile)) {
+                Log.d(TAG, "Unable to replace the download index");
+            }
+        } catch (IOException | JSONException e) {
+            Log.d(TAG, "Unable to save the download index", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    //Purposefully left blank
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the persisted index from disk.  This should be called once,
+     * on a background thread, before the index is used.
+     */
+    public void load() {
+        List<DownloadEntry> loadedEntries = read();
+
+        synchronized (this) {
+            for (DownloadEntry entry : loadedEntries) {
+                entries.put(entry.url, entry);
+                nextId = Math.max(nextId, entry.id + 1);
+            }
+
+            loaded = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the persisted index to be read by {@link #load()}
+     */
+    private void waitForLoad() {
+        boolean interrupted = false;
+        while (!loaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        //Restores the interrupt so that the caller can still handle it
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<DownloadEntry> read() {
+        List<DownloadEntry> loadedEntries = new ArrayList<>();
+        if (!indexFile.exists()) {
+            return loadedEntries;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            StringBuilder builder = new StringBuilder();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+
+            JSONArray jsonEntries = new JSONArray(builder.toString());
+            for (int i = 0; i < jsonEntries.length(); i++) {
+                loadedEntries.add(DownloadEntry.fromJson(jsonEntries.getJSONObject(i)));
+            }
+        } catch (IOException | JSONException e) {
+            Log.d(TAG, "Unable to load the download index", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //Purposefully left blank
+                }
+            }
+        }
+
+        return loadedEntries;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.download;
+
+import android.os.SystemClock;
+
+/**
+ * Limits the combined rate of all the download threads by blocking
+ * the reading threads once the allowed bytes for the current second
+ * have been used.
+ */
+class DownloadThrottle {
+    private static final long WINDOW_MS = 1000;
+
+    private long maxBytesPerSecond;
+    private long windowStartTime;
+    private long windowBytes;
+
+    public synchronized void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Records that the <code>bytes</code> were read, blocking the calling thread
+     * if the maximum rate has been exceeded.
+     *
+     * @param bytes The number of bytes read
+     * @throws InterruptedException If the thread was interrupted while blocked
+     */
+    public void onBytesRead(int bytes) throws InterruptedException {
+        long sleepTime;
+
+        synchronized (this) {
+            if (maxBytesPerSecond <= 0) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            if (now - windowStartTime >= WINDOW_MS) {
+                windowStartTime = now;
+                windowBytes = 0;
+            }
+
+            windowBytes += bytes;
+            if (windowBytes < maxBytesPerSecond) {
+                return;
+            }
+
+            sleepTime = windowStartTime + WINDOW_MS - now;
+        }
+
+        if (sleepTime > 0) {
+            Thread.sleep(sleepTime);
+        }
+    }
+}
@@ -0,0 +1,623 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.download;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.devbrackets.android.exomedia.BuildConfig;
+import com.devbrackets.android.exomedia.listener.EMDownloadListener;
+import com.devbrackets.android.exomedia.type.MediaSourceType;
+import com.devbrackets.android.exomedia.upstream.DataSourceFactory;
+import com.devbrackets.android.exomedia.upstream.EMPooledDataSourceFactory;
+import com.devbrackets.android.exomedia.util.MediaUtil;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads media to the device for offline playback.  Progressive media (e.g. MP3, MP4)
+ * is downloaded as a single file, and HLS media is downloaded as a single rendition
+ * with its segments fetched in parallel and the playlist re-written to reference the local copies.
+ * <p>
+ * Downloads are resumed from the bytes already on disk, the combined download rate can be
+ * limited with {@link #setMaxBytesPerSecond(long)}, and once the storage quota is exceeded the
+ * least recently played downloads are removed.  The downloads are tracked in an index so that
+ * {@link #isDownloaded(String)} doesn't need to access the file system, allowing the
+ * {@link com.devbrackets.android.exomedia.service.EMPlaylistService} to use it directly.
+ */
+public class EMDownloadManager {
+    private static final String TAG = "EMDownloadManager";
+    private static final String USER_AGENT_FORMAT = "EMDownloadManager %s / Android %s / %s";
+    private static final String DOWNLOAD_DIRECTORY = "exomedia_downloads";
+    private static final String PARTIAL_EXTENSION = ".partial";
+    private static final String MEDIA_FILE_NAME = "media";
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final long PROGRESS_INTERVAL = 500;
+
+    public static final long DEFAULT_QUOTA = 1024L * 1024 * 1024;
+    public static final int DEFAULT_PARALLEL_DOWNLOADS = 3;
+
+    @Nullable
+    private static EMDownloadManager instance;
+
+    private final File directory;
+    private final DownloadIndex index;
+    private final DownloadThrottle throttle = new DownloadThrottle();
+    private final ExecutorService downloadExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<EMDownloadListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, DownloadTask> activeTasks = new HashMap<>();
+
+    private volatile long quotaBytes;
+    private volatile int parallelDownloads = DEFAULT_PARALLEL_DOWNLOADS;
+    private volatile int maxHlsBitrate = Integer.MAX_VALUE;
+    private volatile String userAgent = String.format(USER_AGENT_FORMAT, BuildConfig.VERSION_NAME + " (" + BuildConfig.VERSION_CODE + ")", Build.VERSION.RELEASE, Build.MODEL);
+    private volatile DataSourceFactory dataSourceFactory = new EMPooledDataSourceFactory();
+
+    /**
+     * Initializes the shared download manager with the {@link #DEFAULT_QUOTA}
+     *
+     * @param context The context to use for determining the download directory
+     * @return The shared EMDownloadManager
+     */
+    public static EMDownloadManager initialize(Context context) {
+        return initialize(context, DEFAULT_QUOTA);
+    }
+
+    /**
+     * Initializes the shared download manager.  If the manager has already been
+     * initialized then the existing instance will be returned.
+     *
+     * @param context The context to use for determining the download directory
+     * @param quotaBytes The maximum amount of storage the downloads can use
+     * @return The shared EMDownloadManager
+     */
+    public static synchronized EMDownloadManager initialize(Context context, long quotaBytes) {
+        if (instance == null) {
+            instance = new EMDownloadManager(new File(context.getApplicationContext().getFilesDir(), DOWNLOAD_DIRECTORY), quotaBytes);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the shared download manager if it has been initialized
+     * with {@link #initialize(Context, long)}
+     *
+     * @return The shared EMDownloadManager or null
+     */
+    @Nullable
+    public static synchronized EMDownloadManager getInstance() {
+        return instance;
+    }
+
+    private EMDownloadManager(File directory, long quotaBytes) {
+        this.directory = directory;
+        this.quotaBytes = quotaBytes;
+
+        index = new DownloadIndex(directory);
+
+        //Reads the index off of the caller's thread, the downloads are performed after it completes
+        downloadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //noinspection ResultOfMethodCallIgnored
+                EMDownloadManager.this.directory.mkdirs();
+                index.load();
+            }
+        });
+    }
+
+    /**
+     * Sets the maximum amount of storage the downloads can use.  Once exceeded, the
+     * least recently played downloads will be removed.
+     *
+     * @param quotaBytes The storage quota in bytes
+     */
+    public void setQuota(long quotaBytes) {
+        this.quotaBytes = quotaBytes;
+    }
+
+    /**
+     * Retrieves the maximum amount of storage the downloads can use
+     *
+     * @return The storage quota in bytes
+     */
+    public long getQuota() {
+        return quotaBytes;
+    }
+
+    /**
+     * Retrieves the amount of storage currently used by the downloads, including
+     * the partially downloaded media.
+     *
+     * @return The number of bytes used
+     */
+    public long getUsedBytes() {
+        return index.getUsedBytes();
+    }
+
+    /**
+     * Limits the combined rate of all downloads
+     *
+     * @param maxBytesPerSecond The maximum download rate, or 0 for no limit [default: 0]
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        throttle.setMaxBytesPerSecond(maxBytesPerSecond);
+    }
+
+    /**
+     * Sets the number of HLS segments that will be downloaded at the same time.
+     * This will take effect with the next download.
+     *
+     * @param parallelDownloads The number of parallel segment downloads [default: {@value #DEFAULT_PARALLEL_DOWNLOADS}]
+     */
+    public void setParallelDownloads(int parallelDownloads) {
+        this.parallelDownloads = Math.max(1, parallelDownloads);
+    }
+
+    /**
+     * Sets the maximum bitrate of the HLS rendition to download.  The rendition with
+     * the highest bitrate below this value will be used, or the lowest if none are.
+     *
+     * @param maxBitrate The maximum bitrate in bits per second [default: {@link Integer#MAX_VALUE}]
+     */
+    public void setMaxHlsBitrate(int maxBitrate) {
+        maxHlsBitrate = maxBitrate;
+    }
+
+    /**
+     * Sets the user agent to use when downloading the media
+     *
+     * @param userAgent The user agent to use
+     */
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Sets the factory used to create the HttpDataSources for the downloads
+     *
+     * @param dataSourceFactory The factory to use [default: {@link EMPooledDataSourceFactory}]
+     */
+    public void setDataSourceFactory(DataSourceFactory dataSourceFactory) {
+        this.dataSourceFactory = dataSourceFactory;
+    }
+
+    public void addListener(EMDownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(EMDownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues the media at the <code>mediaUrl</code> to be downloaded.  If the media
+     * was partially downloaded then the download will be resumed.
+     *
+     * @param mediaUrl The url for the media to download
+     */
+    public void download(String mediaUrl) {
+        synchronized (activeTasks) {
+            DownloadEntry entry = index.getOrCreate(mediaUrl);
+            if (entry.state == DownloadEntry.State.COMPLETED || activeTasks.containsKey(mediaUrl)) {
+                return;
+            }
+
+            entry.state = DownloadEntry.State.QUEUED;
+            DownloadTask task = new DownloadTask(entry);
+            activeTasks.put(mediaUrl, task);
+            downloadExecutor.execute(task);
+        }
+
+        saveIndex();
+    }
+
+    /**
+     * Stops the download of the media at the <code>mediaUrl</code>.  The bytes
+     * already downloaded are kept so that the download can be resumed.
+     *
+     * @param mediaUrl The url for the media to stop downloading
+     */
+    public void cancel(String mediaUrl) {
+        synchronized (activeTasks) {
+            DownloadTask task = activeTasks.remove(mediaUrl);
+            if (task != null) {
+                task.cancel();
+            }
+        }
+    }
+
+    /**
+     * Stops any download for the media at the <code>mediaUrl</code> and
+     * removes the downloaded data.
+     *
+     * @param mediaUrl The url for the media to remove
+     */
+    public void remove(String mediaUrl) {
+        cancel(mediaUrl);
+
+        DownloadEntry entry = index.get(mediaUrl);
+        if (entry != null) {
+            removeEntry(entry);
+            saveIndex();
+        }
+    }
+
+    /**
+     * Determines if the media at the <code>mediaUrl</code> has been fully downloaded
+     *
+     * @param mediaUrl The url for the media
+     * @return True if the media has been downloaded
+     */
+    public boolean isDownloaded(String mediaUrl) {
+        DownloadEntry entry = index.get(mediaUrl);
+        return entry != null && entry.state == DownloadEntry.State.COMPLETED;
+    }
+
+    /**
+     * Determines if the media at the <code>mediaUrl</code> is queued or being downloaded
+     *
+     * @param mediaUrl The url for the media
+     * @return True if the media is being downloaded
+     */
+    public boolean isDownloading(String mediaUrl) {
+        synchronized (activeTasks) {
+            return activeTasks.containsKey(mediaUrl);
+        }
+    }
+
+    /**
+     * Retrieves the uri for the local copy of the media at the <code>mediaUrl</code>.
+     * This also marks the download as recently used, protecting it from the quota eviction.
+     *
+     * @param mediaUrl The url for the media
+     * @return The uri for the local copy or null if the media hasn't been downloaded
+     */
+    @Nullable
+    public String getDownloadedUri(String mediaUrl) {
+        DownloadEntry entry = index.get(mediaUrl);
+        if (entry == null || entry.state != DownloadEntry.State.COMPLETED) {
+            return null;
+        }
+
+        entry.lastAccessTime = System.currentTimeMillis();
+        saveIndex();
+
+        return entry.localPath;
+    }
+
+    /**
+     * Retrieves the number of bytes downloaded for the media at the <code>mediaUrl</code>
+     *
+     * @param mediaUrl The url for the media
+     * @return The number of bytes downloaded
+     */
+    public long getBytesDownloaded(String mediaUrl) {
+        DownloadEntry entry = index.get(mediaUrl);
+        return entry != null ? entry.bytesDownloaded : 0;
+    }
+
+    /**
+     * Loads the data at the <code>uri</code> in to memory.  This is used for
+     * small files such as playlists.
+     */
+    byte[] load(Uri uri) throws IOException {
+        HttpDataSource dataSource = dataSourceFactory.createHttpDataSource(userAgent, null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            dataSource.open(new DataSpec(uri));
+
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Downloads the data at the <code>uri</code> to the <code>target</code> file, resuming
+     * from any partial download that exists.  If the <code>target</code> already exists
+     * then it is assumed to be complete.
+     *
+     * @param uri The uri for the data to download
+     * @param position The position in the data to start downloading from
+     * @param length The length of data to download or {@link C#LENGTH_UNBOUNDED}
+     * @param target The file to download the data to
+     * @param task The task the download is being performed for
+     */
+    void downloadFile(Uri uri, long position, long length, File target, DownloadTask task) throws IOException, InterruptedException {
+        if (target.exists()) {
+            return;
+        }
+
+        File partialFile = new File(target.getPath() + PARTIAL_EXTENSION);
+        long existingBytes = partialFile.length();
+
+        if (length == C.LENGTH_UNBOUNDED || existingBytes < length) {
+            HttpDataSource dataSource = dataSourceFactory.createHttpDataSource(userAgent, null);
+            OutputStream outputStream = null;
+
+            try {
+                long requestLength = length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED : length - existingBytes;
+                long openedLength = dataSource.open(new DataSpec(uri, position + existingBytes, requestLength, null));
+                task.onLengthDetermined(openedLength == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED : existingBytes + openedLength);
+
+                outputStream = new FileOutputStream(partialFile, true);
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+                int read;
+                while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                    task.throwIfCanceled();
+
+                    outputStream.write(buffer, 0, read);
+                    task.onBytesDownloaded(read);
+                    throttle.onBytesRead(read);
+                }
+            } finally {
+                dataSource.close();
+                if (outputStream != null) {
+                    outputStream.close();
+                }
+            }
+        }
+
+        if (!partialFile.renameTo(target)) {
+            throw new IOException("Unable to move the download to " + target.getPath());
+        }
+    }
+
+    int getParallelDownloads() {
+        return parallelDownloads;
+    }
+
+    int getMaxHlsBitrate() {
+        return maxHlsBitrate;
+    }
+
+    private String downloadProgressive(DownloadEntry entry, File itemDirectory, DownloadTask task) throws IOException, InterruptedException {
+        String extension = MediaUtil.getMediaType(Uri.parse(entry.url).getLastPathSegment()).getExtension();
+        File mediaFile = new File(itemDirectory, MEDIA_FILE_NAME + extension);
+
+        downloadFile(Uri.parse(entry.url), 0, C.LENGTH_UNBOUNDED, mediaFile, task);
+        return Uri.fromFile(mediaFile).toString();
+    }
+
+    private File getItemDirectory(DownloadEntry entry) {
+        return new File(directory, String.valueOf(entry.id));
+    }
+
+    private void removeEntry(DownloadEntry entry) {
+        index.remove(entry.url);
+        deleteRecursively(getItemDirectory(entry));
+    }
+
+    /**
+     * Removes the least recently played downloads until the used
+     * storage is below the quota.
+     *
+     * @param retainedUrl The url for the download that should not be removed
+     */
+    private void enforceQuota(String retainedUrl) {
+        while (index.getUsedBytes() > quotaBytes) {
+            DownloadEntry leastRecent = index.getLeastRecentlyUsed(retainedUrl);
+            if (leastRecent == null) {
+                return;
+            }
+
+            Log.d(TAG, "Removing " + leastRecent.url + " to stay within the download quota");
+            removeEntry(leastRecent);
+        }
+    }
+
+    private void saveIndex() {
+        indexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                index.save();
+            }
+        });
+    }
+
+    private static long getDirectorySize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += getDirectorySize(child);
+            }
+        }
+
+        return size;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private void notifyProgress(final String mediaUrl, final long bytesDownloaded, final long totalBytes) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (EMDownloadListener listener : listeners) {
+                    listener.onDownloadProgress(mediaUrl, bytesDownloaded, totalBytes);
+                }
+            }
+        });
+    }
+
+    private void notifyCompleted(final String mediaUrl, final String downloadedUri) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (EMDownloadListener listener : listeners) {
+                    listener.onDownloadCompleted(mediaUrl, downloadedUri);
+                }
+            }
+        });
+    }
+
+    private void notifyFailed(final String mediaUrl, final Exception exception) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (EMDownloadListener listener : listeners) {
+                    listener.onDownloadFailed(mediaUrl, exception);
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs the download for a single media item, keeping
+     * the index entry up to date with the progress.
+     */
+    class DownloadTask implements Runnable {
+        private final DownloadEntry entry;
+
+        private volatile boolean canceled;
+        private long lastProgressTime;
+
+        public DownloadTask(@NonNull DownloadEntry entry) {
+            this.entry = entry;
+        }
+
+        public void cancel() {
+            canceled = true;
+        }
+
+        public void throwIfCanceled() throws InterruptedException {
+            if (canceled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("The download was canceled");
+            }
+        }
+
+        @Override
+        public void run() {
+            if (canceled) {
+                return;
+            }
+
+            File itemDirectory = getItemDirectory(entry);
+            //noinspection ResultOfMethodCallIgnored
+            itemDirectory.mkdirs();
+
+            entry.state = DownloadEntry.State.DOWNLOADING;
+            entry.bytesDownloaded = getDirectorySize(itemDirectory);
+            saveIndex();
+
+            try {
+                String localUri;
+                switch (MediaSourceType.get(Uri.parse(entry.url))) {
+                    case HLS:
+                        localUri = new HlsDownloader(EMDownloadManager.this, this).download(entry.url, itemDirectory);
+                        break;
+
+                    case DASH:
+                    case SMOOTH_STREAM:
+                        throw new IOException("Downloading DASH and SmoothStreaming media is not supported");
+
+                    default:
+                        localUri = downloadProgressive(entry, itemDirectory, this);
+                        break;
+                }
+
+                entry.localPath = localUri;
+                entry.bytesDownloaded = getDirectorySize(itemDirectory);
+                entry.totalBytes = entry.bytesDownloaded;
+                entry.lastAccessTime = System.currentTimeMillis();
+                entry.state = DownloadEntry.State.COMPLETED;
+
+                enforceQuota(entry.url);
+                notifyCompleted(entry.url, localUri);
+            } catch (InterruptedException e) {
+                entry.state = DownloadEntry.State.PAUSED;
+            } catch (IOException e) {
+                entry.state = canceled ? DownloadEntry.State.PAUSED : DownloadEntry.State.FAILED;
+                if (!canceled) {
+                    Log.d(TAG, "Unable to download " + entry.url, e);
+                    notifyFailed(entry.url, e);
+                }
+            } finally {
+                synchronized (activeTasks) {
+                    if (activeTasks.get(entry.url) == this) {
+                        activeTasks.remove(entry.url);
+                    }
+                }
+
+                saveIndex();
+            }
+        }
+
+        void onLengthDetermined(long totalBytes) {
+            //The total size is only known for progressive downloads
+            if (totalBytes != C.LENGTH_UNBOUNDED && MediaSourceType.get(Uri.parse(entry.url)) == MediaSourceType.DEFAULT) {
+                entry.totalBytes = totalBytes;
+            }
+        }
+
+        synchronized void onBytesDownloaded(int bytes) {
+            entry.bytesDownloaded += bytes;
+
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastProgressTime >= PROGRESS_INTERVAL) {
+                lastProgressTime = now;
+                notifyProgress(entry.url, entry.bytesDownloaded, entry.totalBytes);
+            }
+        }
+    }
+}
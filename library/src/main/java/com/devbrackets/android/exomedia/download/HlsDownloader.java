@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.download;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a single rendition of an HLS stream.  The segments are downloaded in
+ * parallel and a new media playlist is written that references the local segments
+ * (and encryption keys) so that it can be played with the HlsRenderBuilder.  Streams
+ * that specify alternate audio renditions are rejected, since the audio isn't part of
+ * the downloaded rendition.
+ */
+class HlsDownloader {
+    private static final String PLAYLIST_FILE_NAME = "index.m3u8";
+    private static final String SEGMENT_FILE_PREFIX = "segment_";
+    private static final String KEY_FILE_PREFIX = "key_";
+    private static final String DEFAULT_SEGMENT_EXTENSION = ".ts";
+
+    private final EMDownloadManager downloadManager;
+    private final EMDownloadManager.DownloadTask task;
+
+    public HlsDownloader(EMDownloadManager downloadManager, EMDownloadManager.DownloadTask task) {
+        this.downloadManager = downloadManager;
+        this.task = task;
+    }
+
+    /**
+     * Downloads the HLS stream at the <code>url</code> in to the <code>directory</code>
+     *
+     * @param url The url for the master or media playlist
+     * @param directory The directory to download the stream in to
+     * @return The uri for the local media playlist
+     */
+    public String download(String url, File directory) throws IOException, InterruptedException {
+        String mediaPlaylistUrl = url;
+        HlsPlaylist playlist = loadPlaylist(url);
+
+        if (playlist instanceof HlsMasterPlaylist) {
+            //The HlsRenderBuilder plays a single rendition, so the separate audio can't be combined with a local copy
+            HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+            if (masterPlaylist.audios != null && !masterPlaylist.audios.isEmpty()) {
+                throw new IOException("HLS streams with alternate audio renditions (EXT-X-MEDIA) can not be downloaded");
+            }
+
+            Variant variant = selectVariant(masterPlaylist.variants);
+            mediaPlaylistUrl = UriUtil.resolve(url, variant.url);
+            playlist = loadPlaylist(mediaPlaylistUrl);
+        }
+
+        if (!(playlist instanceof HlsMediaPlaylist)) {
+            throw new IOException("Unable to find the media playlist for " + url);
+        }
+
+        HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+        if (mediaPlaylist.live) {
+            throw new IOException("Live HLS streams can not be downloaded");
+        }
+
+        task.throwIfCanceled();
+        Map<String, String> keyFiles = downloadKeys(mediaPlaylistUrl, mediaPlaylist, directory);
+        List<String> segmentFiles = downloadSegments(mediaPlaylistUrl, mediaPlaylist, directory);
+
+        File playlistFile = new File(directory, PLAYLIST_FILE_NAME);
+        writePlaylist(mediaPlaylist, segmentFiles, keyFiles, playlistFile);
+
+        return Uri.fromFile(playlistFile).toString();
+    }
+
+    private HlsPlaylist loadPlaylist(String url) throws IOException {
+        byte[] data = downloadManager.load(Uri.parse(url));
+        return new HlsPlaylistParser().parse(url, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Selects the variant with the highest bitrate that doesn't exceed the maximum
+     * bitrate, or the lowest bitrate variant if all exceed it.
+     */
+    private Variant selectVariant(List<Variant> variants) throws IOException {
+        if (variants.isEmpty()) {
+            throw new IOException("The master playlist doesn't contain any variants");
+        }
+
+        int maxBitrate = downloadManager.getMaxHlsBitrate();
+        Variant selected = null;
+        Variant lowest = variants.get(0);
+
+        for (Variant variant : variants) {
+            if (variant.format.bitrate < lowest.format.bitrate) {
+                lowest = variant;
+            }
+
+            if (variant.format.bitrate <= maxBitrate && (selected == null || variant.format.bitrate > selected.format.bitrate)) {
+                selected = variant;
+            }
+        }
+
+        return selected != null ? selected : lowest;
+    }
+
+    /**
+     * Downloads the AES-128 keys for the playlist
+     *
+     * @return A map of the key uri to the local key file name
+     */
+    private Map<String, String> downloadKeys(String baseUrl, HlsMediaPlaylist playlist, File directory) throws IOException, InterruptedException {
+        Map<String, String> keyFiles = new HashMap<>();
+
+        for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+            if (segment.isEncrypted && !keyFiles.containsKey(segment.encryptionKeyUri)) {
+                String fileName = KEY_FILE_PREFIX + keyFiles.size() + ".key";
+                Uri keyUri = Uri.parse(UriUtil.resolve(baseUrl, segment.encryptionKeyUri));
+
+                downloadManager.downloadFile(keyUri, 0, C.LENGTH_UNBOUNDED, new File(directory, fileName), task);
+                keyFiles.put(segment.encryptionKeyUri, fileName);
+            }
+        }
+
+        return keyFiles;
+    }
+
+    /**
+     * Downloads the segments in parallel, with each segment being resumable
+     *
+     * @return The local file names for the segments, in playlist order
+     */
+    private List<String> downloadSegments(String baseUrl, HlsMediaPlaylist playlist, File directory) throws IOException, InterruptedException {
+        List<String> segmentFiles = new ArrayList<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(downloadManager.getParallelDownloads());
+
+        try {
+            for (int i = 0; i < playlist.segments.size(); i++) {
+                HlsMediaPlaylist.Segment segment = playlist.segments.get(i);
+                String fileName = SEGMENT_FILE_PREFIX + i + getExtension(segment.url);
+                segmentFiles.add(fileName);
+
+                futures.add(executor.submit(new SegmentDownload(Uri.parse(UriUtil.resolve(baseUrl, segment.url)), segment, new File(directory, fileName))));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    } else if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    }
+
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return segmentFiles;
+    }
+
+    private void writePlaylist(HlsMediaPlaylist playlist, List<String> segmentFiles, Map<String, String> keyFiles, File playlistFile) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("#EXTM3U\n");
+        builder.append("#EXT-X-VERSION:").append(Math.max(3, playlist.version)).append('\n');
+        builder.append("#EXT-X-TARGETDURATION:").append(playlist.targetDurationSecs).append('\n');
+        builder.append("#EXT-X-MEDIA-SEQUENCE:").append(playlist.mediaSequence).append('\n');
+        builder.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+
+        String currentKeyFile = null;
+        String currentIv = null;
+        for (int i = 0; i < playlist.segments.size(); i++) {
+            HlsMediaPlaylist.Segment segment = playlist.segments.get(i);
+            if (i > 0 && segment.discontinuitySequenceNumber != playlist.segments.get(i - 1).discontinuitySequenceNumber) {
+                builder.append("#EXT-X-DISCONTINUITY\n");
+            }
+
+            String keyFile = segment.isEncrypted ? keyFiles.get(segment.encryptionKeyUri) : null;
+            String iv = segment.isEncrypted ? segment.encryptionIV : null;
+            if (!equals(keyFile, currentKeyFile) || !equals(iv, currentIv)) {
+                if (keyFile == null) {
+                    builder.append("#EXT-X-KEY:METHOD=NONE\n");
+                } else {
+                    builder.append("#EXT-X-KEY:METHOD=AES-128,URI=\"").append(keyFile).append('"');
+                    if (iv != null) {
+                        builder.append(",IV=").append(iv.startsWith("0x") || iv.startsWith("0X") ? iv : "0x" + iv);
+                    }
+
+                    builder.append('\n');
+                }
+
+                currentKeyFile = keyFile;
+                currentIv = iv;
+            }
+
+            builder.append(String.format(Locale.US, "#EXTINF:%.3f,\n", segment.durationSecs));
+            builder.append(segmentFiles.get(i)).append('\n');
+        }
+
+        builder.append("#EXT-X-ENDLIST\n");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(playlistFile), "UTF-8");
+        try {
+            writer.write(builder.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The HlsChunkSource picks the extractor using the segment extension,
+     * so the extension of the original segment is retained.
+     */
+    private static String getExtension(String segmentUrl) {
+        String path = Uri.parse(segmentUrl).getPath();
+        if (path == null) {
+            return DEFAULT_SEGMENT_EXTENSION;
+        }
+
+        int periodIndex = path.lastIndexOf('.');
+        int slashIndex = path.lastIndexOf('/');
+        return periodIndex > slashIndex ? path.substring(periodIndex) : DEFAULT_SEGMENT_EXTENSION;
+    }
+
+    private static boolean equals(@Nullable String first, @Nullable String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private class SegmentDownload implements Callable<Void> {
+        private final Uri uri;
+        private final HlsMediaPlaylist.Segment segment;
+        private final File target;
+
+        public SegmentDownload(Uri uri, HlsMediaPlaylist.Segment segment, File target) {
+            this.uri = uri;
+            this.segment = segment;
+            this.target = target;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            task.throwIfCanceled();
+
+            long position = segment.byterangeLength != C.LENGTH_UNBOUNDED ? segment.byterangeOffset : 0;
+            downloadManager.downloadFile(uri, position, segment.byterangeLength, target, task);
+            return null;
+        }
+    }
+}
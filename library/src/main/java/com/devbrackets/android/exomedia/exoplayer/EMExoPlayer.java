@@ -25,13 +25,18 @@ import android.os.PowerManager;
 import android.support.annotation.Nullable;
 import android.view.Surface;
 
+import com.devbrackets.android.exomedia.abr.AbrDecision;
+import com.devbrackets.android.exomedia.abr.FormatConstraints;
 import com.devbrackets.android.exomedia.builder.RenderBuilder;
 import com.devbrackets.android.exomedia.listener.CaptionListener;
 import com.devbrackets.android.exomedia.listener.ExoPlayerListener;
 import com.devbrackets.android.exomedia.listener.Id3MetadataListener;
 import com.devbrackets.android.exomedia.listener.InfoListener;
 import com.devbrackets.android.exomedia.listener.InternalErrorListener;
+import com.devbrackets.android.exomedia.listener.PlaybackInfoListener;
 import com.devbrackets.android.exomedia.renderer.EMMediaCodecAudioTrackRenderer;
+import com.devbrackets.android.exomedia.type.SeekMode;
+import com.devbrackets.android.exomedia.util.EMDecoderHealth;
 import com.google.android.exoplayer.DummyTrackRenderer;
 import com.google.android.exoplayer.ExoPlaybackException;
 import com.google.android.exoplayer.ExoPlayer;
@@ -41,6 +46,7 @@ import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TimeRange;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Chunk;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.dash.DashChunkSource;
@@ -57,6 +63,8 @@ import com.google.android.exoplayer.util.PlayerControl;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class EMExoPlayer implements
@@ -80,6 +88,8 @@ public class EMExoPlayer implements
     public static final int RENDER_TIMED_METADATA = 3;
 
     public static final int BUFFER_LENGTH_MIN = 1000;
+    private static final long NO_PENDING_SEEK = -1;
+    private static final long MAX_SCRUB_SEEK_WAIT = 500;
 
     public enum RenderBuildingState {
         IDLE,
@@ -89,6 +99,8 @@ public class EMExoPlayer implements
 
     private RenderBuilder rendererBuilder;
     private final ExoPlayer player;
+    @Nullable
+    private final EMExoPlayerPool playerPool;
     private final PlayerControl playerControl;
     private final Handler mainHandler;
     private final CopyOnWriteArrayList<ExoPlayerListener> listeners;
@@ -98,6 +110,18 @@ public class EMExoPlayer implements
     private boolean lastReportedPlayWhenReady;
 
     private boolean prepared = false;
+    private boolean released = false;
+    private boolean audioOnly = false;
+    private long pendingSeekPosition = NO_PENDING_SEEK;
+
+    private SeekMode seekMode = SeekMode.EXACT;
+    private final TreeMap<Long, Long> loadedVideoChunks = new TreeMap<>();
+
+    private boolean scrubbing = false;
+    private boolean scrubSeekInProgress = false;
+    private long pendingScrubPosition = NO_PENDING_SEEK;
+    private long lastScrubPosition = NO_PENDING_SEEK;
+    private long lastIssuedScrubPosition = NO_PENDING_SEEK;
 
     private Surface surface;
     private TrackRenderer videoRenderer;
@@ -107,16 +131,42 @@ public class EMExoPlayer implements
     private Id3MetadataListener id3MetadataListener;
     private InternalErrorListener internalErrorListener;
     private InfoListener infoListener;
+    private PlaybackInfoListener playbackInfoListener;
+
+    private final FormatConstraints formatConstraints = new FormatConstraints();
+
+    @Nullable
+    private Format videoFormat;
+    private final EMDecoderHealth.Sample decoderHealthSample = new EMDecoderHealth.Sample();
+
+    @Nullable
+    private EMLiveLatencyController liveLatencyController;
+    @Nullable
+    private TimeRange availableRange;
+    private final long[] availableRangeBounds = new long[2];
+
+    @Nullable
+    private EMStartupReport startupReport;
 
     private PowerManager.WakeLock wakeLock = null;
 
+    private final Runnable scrubSeekTimeout = new Runnable() {
+        @Override
+        public void run() {
+            onScrubSeekCompleted();
+        }
+    };
+
     public EMExoPlayer() {
         this(null);
     }
 
     public EMExoPlayer(RenderBuilder rendererBuilder) {
         this.rendererBuilder = rendererBuilder;
-        player = ExoPlayer.Factory.newInstance(RENDER_COUNT, BUFFER_LENGTH_MIN, 0);
+
+        //Uses an idle player from the pool when available to avoid starting a new playback thread
+        playerPool = EMExoPlayerPool.getInstance();
+        player = playerPool != null ? playerPool.obtain() : EMExoPlayerPool.newPlayer();
         player.addListener(this);
         playerControl = new PlayerControl(player);
 
@@ -129,6 +179,10 @@ public class EMExoPlayer implements
 
     public void replaceRenderBuilder(RenderBuilder renderBuilder) {
         this.rendererBuilder = renderBuilder;
+        pendingSeekPosition = NO_PENDING_SEEK;
+        if (renderBuilder != null && audioOnly) {
+            renderBuilder.setAudioOnly(true);
+        }
 
         prepared = false;
         prepare();
@@ -158,6 +212,10 @@ public class EMExoPlayer implements
         infoListener = listener;
     }
 
+    public void setPlaybackInfoListener(PlaybackInfoListener listener) {
+        playbackInfoListener = listener;
+    }
+
     public void setCaptionListener(CaptionListener listener) {
         captionListener = listener;
     }
@@ -181,14 +239,18 @@ public class EMExoPlayer implements
     }
 
     public int getTrackCount(int type) {
-        return player.getTrackCount(type);
+        return released ? 0 : player.getTrackCount(type);
     }
 
     public int getSelectedTrack(int type) {
-        return player.getSelectedTrack(type);
+        return released ? DISABLED_TRACK : player.getSelectedTrack(type);
     }
 
     public void setSelectedTrack(int type, int index) {
+        if (released) {
+            return;
+        }
+
         player.setSelectedTrack(type, index);
         if (type == RENDER_CLOSED_CAPTION && index == DISABLED_TRACK && captionListener != null) {
             captionListener.onCues(Collections.<Cue>emptyList());
@@ -196,15 +258,62 @@ public class EMExoPlayer implements
     }
 
     public void setVolume(float volume) {
+        if (released) {
+            return;
+        }
+
         player.sendMessage(audioRenderer, MediaCodecAudioTrackRenderer.MSG_SET_VOLUME, volume);
     }
 
+    /**
+     * Switches the player in to, or out of, audio only playback.  While audio only
+     * the renderers are built without video (see {@link RenderBuilder#setAudioOnly(boolean)}).
+     * If the renderers have already been built they will be rebuilt, resuming
+     * playback at the current position.
+     *
+     * @param audioOnly True if only the audio should be played
+     */
+    public void setAudioOnly(boolean audioOnly) {
+        if (this.audioOnly == audioOnly) {
+            return;
+        }
+
+        this.audioOnly = audioOnly;
+        if (rendererBuilder == null || released) {
+            return;
+        }
+
+        rendererBuilder.setAudioOnly(audioOnly);
+        if (rendererBuildingState == RenderBuildingState.IDLE) {
+            return;
+        }
+
+        //Rebuilds the renderers at the current position
+        if (rendererBuildingState == RenderBuildingState.BUILT) {
+            pendingSeekPosition = player.getCurrentPosition();
+        }
+
+        rendererBuilder.cancel();
+        prepared = false;
+        prepare();
+    }
+
+    /**
+     * Determines if the player is in audio only playback
+     * (see {@link #setAudioOnly(boolean)})
+     *
+     * @return True if only the audio is being played
+     */
+    public boolean isAudioOnly() {
+        return audioOnly;
+    }
+
     public void forcePrepare() {
         prepared = false;
     }
 
     public void prepare() {
-        if (prepared || rendererBuilder == null) {
+        if (prepared || released || rendererBuilder == null) {
             return;
         }
 
@@ -213,14 +322,32 @@ public class EMExoPlayer implements
         }
 
         videoRenderer = null;
+        loadedVideoChunks.clear();
+        availableRange = null;
+        videoFormat = null;
         rendererBuildingState = RenderBuildingState.BUILDING;
+        startupReport = new EMStartupReport();
         reportPlayerState();
 
         rendererBuilder.buildRenderers(this);
         prepared = true;
     }
 
+    /**
+     * Informs the player that the RenderBuilder has loaded the manifest for the
+     * media, used to track the startup time (see {@link #getStartupReport()})
+     */
+    public void onManifestLoaded() {
+        markStartupPhase(EMStartupReport.Phase.MANIFEST_LOADED);
+    }
+
     public void onRenderers(TrackRenderer[] renderers, @Nullable BandwidthMeter bandwidthMeter) {
+        if (released) {
+            return;
+        }
+
+        markStartupPhase(EMStartupReport.Phase.RENDERERS_BUILT);
+
         for (int i = 0; i < RENDER_COUNT; i++) {
             if (renderers[i] == null) {
                 // Convert a null renderer to a dummy renderer.
@@ -235,9 +362,18 @@ public class EMExoPlayer implements
         pushSurface(false);
         player.prepare(renderers);
         rendererBuildingState = RenderBuildingState.BUILT;
+
+        if (pendingSeekPosition != NO_PENDING_SEEK) {
+            player.seekTo(pendingSeekPosition);
+            pendingSeekPosition = NO_PENDING_SEEK;
+        }
     }
 
     public void onRenderersError(Exception e) {
+        if (released) {
+            return;
+        }
+
         if (internalErrorListener != null) {
             internalErrorListener.onRendererInitializationError(e);
         }
@@ -251,31 +387,180 @@ public class EMExoPlayer implements
     }
 
     public void setPlayWhenReady(boolean playWhenReady) {
+        if (released) {
+            return;
+        }
+
         player.setPlayWhenReady(playWhenReady);
         stayAwake(playWhenReady);
     }
 
+    /**
+     * Seeks to the <code>positionMs</code> using the current {@link SeekMode}.  While
+     * scrubbing (see {@link #setScrubbing(boolean)}) only the newest position will
+     * be sought once the previous seek has completed.
+     *
+     * @param positionMs The position to seek to in milliseconds
+     */
     public void seekTo(long positionMs) {
-        player.seekTo(positionMs);
+        if (released) {
+            return;
+        }
+
+        if (liveLatencyController != null) {
+            long liveEdge = getLiveEdge();
+            if (liveEdge != ExoPlayer.UNKNOWN_TIME) {
+                liveLatencyController.onSeek(liveEdge - positionMs);
+            }
+        }
+
+        if (scrubbing) {
+            scrubTo(positionMs);
+            return;
+        }
+
+        performSeek(getSeekPosition(positionMs, seekMode));
+    }
+
+    /**
+     * Sets the controller used to keep live playback close to the live edge.  The
+     * live edge distance is reported to the {@link PlaybackInfoListener} regardless of
+     * whether a controller is set.
+     *
+     * @param controller The EMLiveLatencyController to use or null
+     */
+    public void setLiveLatencyController(@Nullable EMLiveLatencyController controller) {
+        liveLatencyController = controller;
+    }
+
+    /**
+     * Retrieves the controller used to keep live playback close to the live edge
+     *
+     * @return The EMLiveLatencyController or null
+     */
+    @Nullable
+    public EMLiveLatencyController getLiveLatencyController() {
+        return liveLatencyController;
+    }
+
+    /**
+     * Retrieves how far the playback position is behind the live edge
+     *
+     * @return The distance in milliseconds or {@link ExoPlayer#UNKNOWN_TIME} if the media isn't live
+     */
+    public long getLiveEdgeDistance() {
+        long liveEdge = getLiveEdge();
+        return liveEdge == ExoPlayer.UNKNOWN_TIME ? ExoPlayer.UNKNOWN_TIME : Math.max(0, liveEdge - player.getCurrentPosition());
+    }
+
+    /**
+     * Sets the mode used to determine the position that {@link #seekTo(long)} moves
+     * the playback to
+     *
+     * @param seekMode The SeekMode to use [default: {@link SeekMode#EXACT}]
+     */
+    public void setSeekMode(SeekMode seekMode) {
+        this.seekMode = seekMode;
+    }
+
+    /**
+     * Retrieves the mode used to determine the position that {@link #seekTo(long)}
+     * moves the playback to
+     *
+     * @return The current SeekMode
+     */
+    public SeekMode getSeekMode() {
+        return seekMode;
+    }
+
+    /**
+     * Enables or disables scrubbing.  While scrubbing, seeks are snapped to the closest
+     * sync sample and rapid seeks are coalesced so that only the newest one is performed
+     * once the previous seek completes.  When scrubbing ends the final position is sought
+     * with the current {@link SeekMode}.
+     *
+     * @param scrubbing True if the user is scrubbing through the media
+     */
+    public void setScrubbing(boolean scrubbing) {
+        if (this.scrubbing == scrubbing) {
+            return;
+        }
+
+        this.scrubbing = scrubbing;
+        if (scrubbing) {
+            return;
+        }
+
+        mainHandler.removeCallbacks(scrubSeekTimeout);
+        scrubSeekInProgress = false;
+        pendingScrubPosition = NO_PENDING_SEEK;
+
+        //Makes sure the final position respects the seek mode
+        if (lastScrubPosition != NO_PENDING_SEEK && !released) {
+            long finalPosition = getSeekPosition(lastScrubPosition, seekMode);
+            if (finalPosition != lastIssuedScrubPosition) {
+                performSeek(finalPosition);
+            }
+        }
+
+        lastScrubPosition = NO_PENDING_SEEK;
+        lastIssuedScrubPosition = NO_PENDING_SEEK;
+    }
+
+    /**
+     * Determines if the player is currently scrubbing (see {@link #setScrubbing(boolean)})
+     *
+     * @return True if scrubbing
+     */
+    public boolean isScrubbing() {
+        return scrubbing;
     }
 
     public void stop() {
+        if (released) {
+            return;
+        }
+
         player.setPlayWhenReady(false);
         player.stop();
     }
 
+    /**
+     * Releases the player.  If the {@link EMExoPlayerPool} has been initialized the
+     * underlying ExoPlayer is returned to the pool for reuse, otherwise it is released.
+     * Once released this EMExoPlayer can no longer be used.
+     */
     public void release() {
+        if (released) {
+            return;
+        }
+
         if (rendererBuilder != null) {
             rendererBuilder.cancel();
         }
 
+        released = true;
+        mainHandler.removeCallbacks(scrubSeekTimeout);
         rendererBuildingState = RenderBuildingState.IDLE;
         surface = null;
-        player.release();
+        videoRenderer = null;
+        audioRenderer = null;
+        player.removeListener(this);
+
+        if (playerPool != null) {
+            playerPool.recycle(player);
+        } else {
+            player.release();
+        }
+
         stayAwake(false);
     }
 
     public int getPlaybackState() {
+        if (released) {
+            return ExoPlayer.STATE_IDLE;
+        }
+
         if (rendererBuildingState == RenderBuildingState.BUILDING) {
             return ExoPlayer.STATE_PREPARING;
         }
@@ -292,19 +577,39 @@ public class EMExoPlayer implements
     }
 
     public long getCurrentPosition() {
-        return player.getCurrentPosition();
+        if (released) {
+            return 0;
+        }
+
+        //While scrubbing the newest requested position is reported, even if it hasn't been sought yet
+        return scrubbing && lastScrubPosition != NO_PENDING_SEEK ? lastScrubPosition : player.getCurrentPosition();
     }
 
     public long getDuration() {
-        return player.getDuration();
+        return released ? ExoPlayer.UNKNOWN_TIME : player.getDuration();
     }
 
     public int getBufferedPercentage() {
-        return player.getBufferedPercentage();
+        return released ? 0 : player.getBufferedPercentage();
+    }
+
+    /**
+     * Retrieves the amount of media buffered ahead of the playback position.  This
+     * can be called from any thread.
+     *
+     * @return The buffered duration in milliseconds
+     */
+    public long getBufferedDuration() {
+        long bufferedPosition = released ? ExoPlayer.UNKNOWN_TIME : player.getBufferedPosition();
+        if (bufferedPosition == ExoPlayer.UNKNOWN_TIME) {
+            return 0;
+        }
+
+        return Math.max(0, bufferedPosition - player.getCurrentPosition());
     }
 
     public boolean getPlayWhenReady() {
-        return player.getPlayWhenReady();
+        return !released && player.getPlayWhenReady();
     }
 
     public Looper getPlaybackLooper() {
@@ -315,6 +620,17 @@ public class EMExoPlayer implements
         return mainHandler;
     }
 
+    /**
+     * Retrieves the timeline of the startup phases for the current media.  A new
+     * report is started each time the renderers are built.
+     *
+     * @return The startup report or null if the player hasn't been prepared
+     */
+    @Nullable
+    public EMStartupReport getStartupReport() {
+        return startupReport;
+    }
+
     /**
      * This function has the MediaPlayer access the low-level power manager
      * service to control the device's power usage while playing is occurring.
@@ -364,6 +680,17 @@ public class EMExoPlayer implements
 
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int state) {
+        if (scrubSeekInProgress && (state == ExoPlayer.STATE_READY || state == ExoPlayer.STATE_ENDED)) {
+            onScrubSeekCompleted();
+        }
+
+        if (state == ExoPlayer.STATE_READY) {
+            markStartupPhase(EMStartupReport.Phase.READY);
+            checkStartupCompleted();
+            checkLiveLatency();
+            notifyDecoderDiscontinuity();
+        }
+
         reportPlayerState();
     }
 
@@ -384,6 +711,11 @@ public class EMExoPlayer implements
 
     @Override
     public void onDroppedFrames(int count, long elapsed) {
+        EMDecoderHealth decoderHealth = EMDecoderHealth.getInstance();
+        if (decoderHealth != null && videoFormat != null) {
+            decoderHealth.onDroppedFrames(decoderHealthSample, videoFormat, count, elapsed);
+        }
+
         if (infoListener != null) {
             infoListener.onDroppedFrames(count, elapsed);
         }
@@ -398,6 +730,10 @@ public class EMExoPlayer implements
 
     @Override
     public void onDownstreamFormatChanged(int sourceId, Format format, int trigger, long mediaTimeMs) {
+        if (sourceId == RENDER_VIDEO) {
+            videoFormat = format;
+        }
+
         if (infoListener == null) {
             return;
         }
@@ -409,9 +745,40 @@ public class EMExoPlayer implements
         }
     }
 
+    /**
+     * Retrieves the number of bytes loaded over the network for the current media
+     *
+     * @return The number of bytes transferred
+     */
+    public long getBytesTransferred() {
+        return rendererBuilder != null ? rendererBuilder.getBytesTransferred() : 0;
+    }
+
+    /**
+     * Retrieves the constraints on the formats the adaptive video may select.  Changes
+     * to the constraints take effect at the next chunk (or segment) boundary.
+     *
+     * @return The FormatConstraints for the player
+     */
+    public FormatConstraints getFormatConstraints() {
+        return formatConstraints;
+    }
+
+    /**
+     * Informs the player of a format switch made by the {@link com.devbrackets.android.exomedia.abr.AbrStrategy}.
+     * This should be called on the main thread.
+     *
+     * @param decision The decision made by the AbrStrategy
+     */
+    public void onAbrDecision(AbrDecision decision) {
+        if (playbackInfoListener != null) {
+            playbackInfoListener.onAbrDecision(decision);
+        }
+    }
+
     @Override
     public void onDrmKeysLoaded() {
-        //Purposefully left blank
+        markStartupPhase(EMStartupReport.Phase.DRM_READY);
     }
 
     @Override
@@ -430,6 +797,7 @@ public class EMExoPlayer implements
 
     @Override
     public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs, long initializationDurationMs) {
+        markStartupPhase(EMStartupReport.Phase.DECODER_INITIALIZED);
         if (infoListener != null) {
             infoListener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
         }
@@ -486,9 +854,12 @@ public class EMExoPlayer implements
 
     @Override
     public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        this.availableRange = availableRange;
         if (infoListener != null) {
             infoListener.onAvailableRangeChanged(sourceId, availableRange);
         }
+
+        checkLiveLatency();
     }
 
     @Override
@@ -498,7 +869,8 @@ public class EMExoPlayer implements
 
     @Override
     public void onDrawnToSurface(Surface surface) {
-        //Purposefully left blank
+        markStartupPhase(EMStartupReport.Phase.FIRST_FRAME_RENDERED);
+        checkStartupCompleted();
     }
 
     @Override
@@ -510,6 +882,12 @@ public class EMExoPlayer implements
 
     @Override
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format, long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
+        markStartupPhase(EMStartupReport.Phase.FIRST_CHUNK_LOADED);
+
+        //Each media chunk starts with a sync sample, so they are used to snap the seeks
+        if (sourceId == RENDER_VIDEO && type == Chunk.TYPE_MEDIA && mediaStartTimeMs >= 0 && mediaEndTimeMs > mediaStartTimeMs) {
+            loadedVideoChunks.put(mediaStartTimeMs, mediaEndTimeMs);
+        }
         if (infoListener != null) {
             infoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
         }
@@ -525,8 +903,144 @@ public class EMExoPlayer implements
         //Purposefully left blank
     }
 
+    /**
+     * Determines the current position of the live edge from the available range
+     *
+     * @return The live edge position in milliseconds or {@link ExoPlayer#UNKNOWN_TIME} if the media isn't live
+     */
+    private long getLiveEdge() {
+        //Live media doesn't have a known duration
+        if (released || availableRange == null || player.getDuration() != ExoPlayer.UNKNOWN_TIME) {
+            return ExoPlayer.UNKNOWN_TIME;
+        }
+
+        availableRange.getCurrentBoundsMs(availableRangeBounds);
+        return availableRangeBounds[1];
+    }
+
+    /**
+     * Reports the live edge distance and seeks back to the target latency if the
+     * {@link EMLiveLatencyController} determines playback has drifted too far behind
+     */
+    private void checkLiveLatency() {
+        long liveEdge = getLiveEdge();
+        if (liveEdge == ExoPlayer.UNKNOWN_TIME) {
+            return;
+        }
+
+        long position = player.getCurrentPosition();
+        if (playbackInfoListener != null) {
+            playbackInfoListener.onLiveEdgeDistance(Math.max(0, liveEdge - position));
+        }
+
+        if (liveLatencyController == null || scrubbing || !player.getPlayWhenReady() || player.getPlaybackState() != ExoPlayer.STATE_READY) {
+            return;
+        }
+
+        long catchUpPosition = liveLatencyController.getCatchUpPosition(liveEdge, position);
+        if (catchUpPosition != EMLiveLatencyController.NO_CATCH_UP) {
+            performSeek(catchUpPosition);
+        }
+    }
+
+    private void performSeek(long positionMs) {
+        //If the renderers are being rebuilt the seek will be performed once they are ready
+        if (pendingSeekPosition != NO_PENDING_SEEK) {
+            pendingSeekPosition = positionMs;
+        }
+
+        notifyDecoderDiscontinuity();
+        player.seekTo(positionMs);
+    }
+
+    /**
+     * Informs the {@link EMDecoderHealth.Sample} that playback has started, seeked, or resumed
+     * after rebuffering so that the frames dropped while the decoder settles are ignored
+     */
+    private void notifyDecoderDiscontinuity() {
+        decoderHealthSample.onPlaybackDiscontinuity();
+    }
+
+    private void scrubTo(long positionMs) {
+        lastScrubPosition = positionMs;
+        if (scrubSeekInProgress) {
+            pendingScrubPosition = positionMs;
+            return;
+        }
+
+        scrubSeekInProgress = true;
+        lastIssuedScrubPosition = getSeekPosition(positionMs, SeekMode.CLOSEST_SYNC);
+        performSeek(lastIssuedScrubPosition);
+
+        //In case the state change isn't reported (e.g. seeking within the buffer while paused)
+        mainHandler.postDelayed(scrubSeekTimeout, MAX_SCRUB_SEEK_WAIT);
+    }
+
+    private void onScrubSeekCompleted() {
+        mainHandler.removeCallbacks(scrubSeekTimeout);
+        scrubSeekInProgress = false;
+
+        if (pendingScrubPosition != NO_PENDING_SEEK && scrubbing && !released) {
+            long position = pendingScrubPosition;
+            pendingScrubPosition = NO_PENDING_SEEK;
+            scrubTo(position);
+        }
+    }
+
+    /**
+     * Determines the position to seek to for the requested <code>positionMs</code>.  The
+     * sync modes snap to the boundaries of the loaded video chunk containing the position.
+     *
+     * @param positionMs The requested position in milliseconds
+     * @param mode The SeekMode to use
+     * @return The position to seek to in milliseconds
+     */
+    private long getSeekPosition(long positionMs, SeekMode mode) {
+        if (mode == SeekMode.EXACT) {
+            return positionMs;
+        }
+
+        Map.Entry<Long, Long> chunk = loadedVideoChunks.floorEntry(positionMs);
+        if (chunk == null || positionMs >= chunk.getValue()) {
+            return positionMs;
+        }
+
+        if (mode == SeekMode.PREVIOUS_SYNC) {
+            return chunk.getKey();
+        }
+
+        //The end of the chunk is the start of the next one, which begins with a sync sample
+        return positionMs - chunk.getKey() <= chunk.getValue() - positionMs ? chunk.getKey() : chunk.getValue();
+    }
+
+    private void markStartupPhase(EMStartupReport.Phase phase) {
+        if (startupReport != null) {
+            startupReport.mark(phase);
+        }
+    }
+
+    /**
+     * Completes the startup report once the player is ready and, when video is
+     * being rendered to a surface, the first frame has been drawn
+     */
+    private void checkStartupCompleted() {
+        if (startupReport == null || startupReport.isCompleted() || startupReport.getTime(EMStartupReport.Phase.READY) == EMStartupReport.UNKNOWN_TIME) {
+            return;
+        }
+
+        boolean rendersVideo = videoRenderer instanceof MediaCodecVideoTrackRenderer && surface != null;
+        if (rendersVideo && startupReport.getTime(EMStartupReport.Phase.FIRST_FRAME_RENDERED) == EMStartupReport.UNKNOWN_TIME) {
+            return;
+        }
+
+        startupReport.complete();
+        if (playbackInfoListener != null) {
+            playbackInfoListener.onStartupCompleted(startupReport);
+        }
+    }
+
     private void reportPlayerState() {
-        boolean playWhenReady = player.getPlayWhenReady();
+        boolean playWhenReady = getPlayWhenReady();
         int playbackState = getPlaybackState();
 
         if (lastReportedPlayWhenReady != playWhenReady || lastReportedPlaybackState != playbackState) {
@@ -540,7 +1054,7 @@ public class EMExoPlayer implements
     }
 
     private void pushSurface(boolean blockForSurfacePush) {
-        if (videoRenderer == null) {
+        if (videoRenderer == null || released) {
             return;
         }
 
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.exoplayer;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.audio.AudioCapabilitiesReceiver;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A process wide pool of idle ExoPlayer instances, with their playback threads already
+ * started, that the {@link EMExoPlayer}s are created with.  When an EMExoPlayer is released
+ * its ExoPlayer is stopped and returned to this pool instead of being released, avoiding
+ * the thread creation for the next EMExoPlayer.
+ * <p>
+ * The pool also shares a single {@link AudioCapabilitiesReceiver} between all of the
+ * players, and will release the idle players when the system reports memory pressure.
+ * The pool must only be used from the main thread.
+ */
+public class EMExoPlayerPool implements ComponentCallbacks2, AudioCapabilitiesReceiver.Listener {
+    public static final int DEFAULT_MAX_IDLE_PLAYERS = 2;
+
+    @Nullable
+    private static EMExoPlayerPool instance;
+
+    private final Context context;
+    private final LinkedList<ExoPlayer> idlePlayers = new LinkedList<>();
+    private final List<AudioCapabilitiesReceiver.Listener> audioCapabilitiesListeners = new CopyOnWriteArrayList<>();
+
+    private int maxIdlePlayers = DEFAULT_MAX_IDLE_PLAYERS;
+    private int createdCount;
+    private int reusedCount;
+
+    @Nullable
+    private AudioCapabilitiesReceiver audioCapabilitiesReceiver;
+    @Nullable
+    private AudioCapabilities audioCapabilities;
+
+    /**
+     * Initializes the shared player pool.  If the pool has already been
+     * initialized then the existing instance will be returned.
+     *
+     * @param context The context used to register for the trim memory and audio capabilities callbacks
+     * @return The shared EMExoPlayerPool
+     */
+    public static synchronized EMExoPlayerPool initialize(Context context) {
+        if (instance == null) {
+            instance = new EMExoPlayerPool(context.getApplicationContext());
+            instance.context.registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the shared player pool if it has been initialized
+     * with {@link #initialize(Context)}
+     *
+     * @return The shared EMExoPlayerPool or null
+     */
+    @Nullable
+    public static synchronized EMExoPlayerPool getInstance() {
+        return instance;
+    }
+
+    private EMExoPlayerPool(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Sets the maximum number of idle players to keep in the pool
+     *
+     * @param maxIdlePlayers The maximum number of idle players [default: {@value #DEFAULT_MAX_IDLE_PLAYERS}]
+     */
+    public void setMaxIdlePlayers(int maxIdlePlayers) {
+        this.maxIdlePlayers = maxIdlePlayers;
+        trimTo(maxIdlePlayers);
+    }
+
+    /**
+     * Creates idle players until the pool contains <code>count</code> players (limited to
+     * the maximum number of idle players).  This is useful for warming the pool before
+     * a screen that will show multiple videos is displayed.
+     *
+     * @param count The number of idle players to have available
+     */
+    public void prewarm(int count) {
+        int targetCount = Math.min(count, maxIdlePlayers);
+        while (idlePlayers.size() < targetCount) {
+            idlePlayers.add(createPlayer());
+        }
+    }
+
+    /**
+     * Retrieves the number of idle players currently in the pool
+     *
+     * @return The number of idle players
+     */
+    public int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    /**
+     * Retrieves the number of players that have been created by the pool
+     *
+     * @return The number of players created
+     */
+    public int getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * Retrieves the number of times an idle player was reused instead of
+     * creating a new one
+     *
+     * @return The number of reused players
+     */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Releases the idle players until there are at most <code>count</code> left in the pool
+     *
+     * @param count The maximum number of idle players to keep
+     */
+    public void trimTo(int count) {
+        while (idlePlayers.size() > Math.max(0, count)) {
+            idlePlayers.removeLast().release();
+        }
+    }
+
+    /**
+     * Registers the <code>listener</code> to be informed of changes to the audio
+     * capabilities.  If the capabilities are already known the listener will be
+     * informed immediately.
+     *
+     * @param listener The listener to register
+     */
+    public void addAudioCapabilitiesListener(AudioCapabilitiesReceiver.Listener listener) {
+        audioCapabilitiesListeners.add(listener);
+
+        if (audioCapabilitiesReceiver == null) {
+            audioCapabilitiesReceiver = new AudioCapabilitiesReceiver(context, this);
+            audioCapabilities = audioCapabilitiesReceiver.register();
+        }
+
+        if (audioCapabilities != null) {
+            listener.onAudioCapabilitiesChanged(audioCapabilities);
+        }
+    }
+
+    /**
+     * Unregisters the <code>listener</code> from the audio capabilities changes.  Once
+     * there are no more listeners the shared receiver will be unregistered.
+     *
+     * @param listener The listener to unregister
+     */
+    public void removeAudioCapabilitiesListener(AudioCapabilitiesReceiver.Listener listener) {
+        audioCapabilitiesListeners.remove(listener);
+
+        if (audioCapabilitiesListeners.isEmpty() && audioCapabilitiesReceiver != null) {
+            audioCapabilitiesReceiver.unregister();
+            audioCapabilitiesReceiver = null;
+            audioCapabilities = null;
+        }
+    }
+
+    @Override
+    public void onAudioCapabilitiesChanged(AudioCapabilities audioCapabilities) {
+        this.audioCapabilities = audioCapabilities;
+        for (AudioCapabilitiesReceiver.Listener listener : audioCapabilitiesListeners) {
+            listener.onAudioCapabilitiesChanged(audioCapabilities);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            trimTo(1);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimTo(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //Purposefully left blank
+    }
+
+    /**
+     * Retrieves an idle player from the pool, creating a new one if
+     * there are none available
+     *
+     * @return The ExoPlayer to use
+     */
+    ExoPlayer obtain() {
+        ExoPlayer player = idlePlayers.poll();
+        if (player != null) {
+            reusedCount++;
+            return player;
+        }
+
+        return createPlayer();
+    }
+
+    /**
+     * Stops the <code>player</code> and returns it to the pool, releasing it if the
+     * pool is already full.  The caller must have removed any listeners it registered.
+     *
+     * @param player The ExoPlayer to return to the pool
+     */
+    void recycle(ExoPlayer player) {
+        player.setPlayWhenReady(false);
+        player.stop();
+
+        if (idlePlayers.size() >= maxIdlePlayers) {
+            player.release();
+            return;
+        }
+
+        //Restores the default track selections
+        for (int i = 0; i < EMExoPlayer.RENDER_COUNT; i++) {
+            player.setSelectedTrack(i, ExoPlayer.TRACK_DEFAULT);
+        }
+
+        idlePlayers.add(player);
+    }
+
+    private ExoPlayer createPlayer() {
+        createdCount++;
+        return newPlayer();
+    }
+
+    /**
+     * Creates a new ExoPlayer configured for use by the {@link EMExoPlayer}
+     *
+     * @return The new ExoPlayer
+     */
+    static ExoPlayer newPlayer() {
+        return ExoPlayer.Factory.newInstance(EMExoPlayer.RENDER_COUNT, EMExoPlayer.BUFFER_LENGTH_MIN, 0);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.devbrackets.android.exomedia.exoplayer;
+
+import android.os.SystemClock;
+
+/**
+ * Keeps live playback close to a target distance (latency) from the live edge.  When
+ * playback drifts more than the allowed amount behind the target, for example after
+ * rebuffering, the {@link EMExoPlayer} seeks back to the target latency.  The catch up
+ * seeks are rate limited so that a poor connection doesn't repeatedly seek into a rebuffer.
+ * <p>
+ * If the user seeks further behind the live edge the catch up is suspended, until
+ * playback is within the allowed drift again.
+ */
+public class EMLiveLatencyController {
+    public static final long NO_CATCH_UP = -1;
+
+    public static final long DEFAULT_MAX_DRIFT_MS = 4000;
+    public static final long DEFAULT_MIN_CATCH_UP_INTERVAL_MS = 15000;
+
+    private final long targetLatencyMs;
+    private final long maxDriftMs;
+    private final long minCatchUpIntervalMs;
+
+    private long lastCatchUpTime;
+    private boolean suspended;
+
+    /**
+     * @param targetLatencyMs The distance from the live edge to play at
+     */
+    public EMLiveLatencyController(long targetLatencyMs) {
+        this(targetLatencyMs, DEFAULT_MAX_DRIFT_MS, DEFAULT_MIN_CATCH_UP_INTERVAL_MS);
+    }
+
+    /**
+     * @param targetLatencyMs The distance from the live edge to play at
+     * @param maxDriftMs The amount playback can fall behind the target before catching up
+     * @param minCatchUpIntervalMs The minimum amount of time between catch up seeks
+     */
+    public EMLiveLatencyController(long targetLatencyMs, long maxDriftMs, long minCatchUpIntervalMs) {
+        this.targetLatencyMs = targetLatencyMs;
+        this.maxDriftMs = maxDriftMs;
+        this.minCatchUpIntervalMs = minCatchUpIntervalMs;
+    }
+
+    /**
+     * Retrieves the distance from the live edge that playback is kept at
+     *
+     * @return The target latency in milliseconds
+     */
+    public long getTargetLatencyMs() {
+        return targetLatencyMs;
+    }
+
+    /**
+     * Informs the controller of a seek that wasn't requested by the controller
+     *
+     * @param liveEdgeDistanceMs The distance from the live edge to the seek position
+     */
+    void onSeek(long liveEdgeDistanceMs) {
+        suspended = liveEdgeDistanceMs > targetLatencyMs + maxDriftMs;
+    }
+
+    /**
+     * Determines if playback should catch up to the target latency
+     *
+     * @param liveEdgeMs The position of the live edge in milliseconds
+     * @param positionMs The current playback position in milliseconds
+     * @return The position to seek to or {@link #NO_CATCH_UP}
+     */
+    long getCatchUpPosition(long liveEdgeMs, long positionMs) {
+        long distanceMs = liveEdgeMs - positionMs;
+        if (distanceMs <= targetLatencyMs + maxDriftMs) {
+            suspended = false;
+            return NO_CATCH_UP;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (suspended || (lastCatchUpTime != 0 && now - lastCatchUpTime < minCatchUpIntervalMs)) {
+            return NO_CATCH_UP;
+        }
+
+        lastCatchUpTime = now;
+        return liveEdgeMs - targetLatencyMs;
+    }
+}
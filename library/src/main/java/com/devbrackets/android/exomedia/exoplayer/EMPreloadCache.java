@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.exoplayer;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import com.devbrackets.android.exomedia.builder.RenderBuilder;
+
+/**
+ * A bounded cache of speculatively prepared {@link EMExoPlayer}s.  Each preloaded player
+ * builds its renderers and buffers the start of the media without a surface, so that when
+ * a view is later bound to the same Uri playback can start from the warm player.  When the
+ * cache is full the least recently preloaded player is released, and all of the preloaded
+ * players are released when the system reports memory pressure.
+ * <p>
+ * The cache must only be used from the main thread.
+ */
+public class EMPreloadCache implements ComponentCallbacks2 {
+    public static final int DEFAULT_MAX_SESSIONS = 2;
+
+    @Nullable
+    private static EMPreloadCache instance;
+
+    private final LruCache<String, EMExoPlayer> sessions;
+
+    /**
+     * Initializes the shared preload cache.  If the cache has already been
+     * initialized then the existing instance will be returned.
+     *
+     * @param context The context used to register for the trim memory callbacks
+     * @return The shared EMPreloadCache
+     */
+    public static synchronized EMPreloadCache initialize(Context context) {
+        if (instance == null) {
+            instance = new EMPreloadCache(DEFAULT_MAX_SESSIONS);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the shared preload cache if it has been initialized
+     * with {@link #initialize(Context)}
+     *
+     * @return The shared EMPreloadCache or null
+     */
+    @Nullable
+    public static synchronized EMPreloadCache getInstance() {
+        return instance;
+    }
+
+    private EMPreloadCache(int maxSessions) {
+        sessions = new LruCache<String, EMExoPlayer>(maxSessions) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, EMExoPlayer oldValue, EMExoPlayer newValue) {
+                //Players taken from the cache are owned by the caller
+                if (evicted || (newValue != null && newValue != oldValue)) {
+                    oldValue.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Sets the maximum number of preloaded players to hold on to
+     *
+     * @param maxSessions The maximum number of preloaded players [default: {@value #DEFAULT_MAX_SESSIONS}]
+     */
+    public void setMaxSessions(int maxSessions) {
+        sessions.resize(maxSessions);
+    }
+
+    /**
+     * Starts preparing the media for the <code>uri</code> without a surface.  If the media
+     * has already been preloaded this has no effect.
+     *
+     * @param uri The Uri for the media
+     * @param renderBuilder The RenderBuilder to prepare the media with
+     */
+    public void preload(Uri uri, RenderBuilder renderBuilder) {
+        if (sessions.get(uri.toString()) != null) {
+            return;
+        }
+
+        EMExoPlayer player = new EMExoPlayer(renderBuilder);
+        player.setPlayWhenReady(false);
+        player.prepare();
+
+        sessions.put(uri.toString(), player);
+    }
+
+    /**
+     * Determines if the media for the <code>uri</code> has been preloaded
+     *
+     * @param uri The Uri for the media
+     * @return True if there is a preloaded player for the <code>uri</code>
+     */
+    public boolean isPreloaded(Uri uri) {
+        return sessions.get(uri.toString()) != null;
+    }
+
+    /**
+     * Removes the preloaded player for the <code>uri</code> from the cache.  The
+     * caller is responsible for releasing the returned player.
+     *
+     * @param uri The Uri for the media
+     * @return The preloaded player or null
+     */
+    @Nullable
+    public EMExoPlayer take(Uri uri) {
+        return sessions.remove(uri.toString());
+    }
+
+    /**
+     * Releases the preloaded player for the <code>uri</code> if one exists
+     *
+     * @param uri The Uri for the media
+     */
+    public void cancel(Uri uri) {
+        EMExoPlayer player = take(uri);
+        if (player != null) {
+            player.release();
+        }
+    }
+
+    /**
+     * Releases all of the preloaded players
+     */
+    public void clear() {
+        sessions.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //Purposefully left blank
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.exoplayer;
+
+import android.os.SystemClock;
+
+/**
+ * A timeline of the startup phases for a single playback session of the
+ * {@link EMExoPlayer}, starting when the renderers begin building.  The times
+ * are taken from {@link SystemClock#elapsedRealtime()} so they aren't affected
+ * by changes to the wall clock.  Phases that don't apply to the media (e.g. the
+ * manifest for progressive media) will not have a time.
+ */
+public class EMStartupReport {
+    public static final long UNKNOWN_TIME = -1;
+
+    public enum Phase {
+        BUILDER_STARTED,
+        MANIFEST_LOADED,
+        DRM_READY,
+        RENDERERS_BUILT,
+        FIRST_CHUNK_LOADED,
+        DECODER_INITIALIZED,
+        FIRST_FRAME_RENDERED,
+        READY
+    }
+
+    private final long[] phaseTimes = new long[Phase.values().length];
+    private boolean completed = false;
+
+    EMStartupReport() {
+        for (int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = UNKNOWN_TIME;
+        }
+
+        mark(Phase.BUILDER_STARTED);
+    }
+
+    /**
+     * Retrieves the time the <code>phase</code> was reached
+     *
+     * @param phase The phase to retrieve the time for
+     * @return The {@link SystemClock#elapsedRealtime()} in milliseconds or {@link #UNKNOWN_TIME}
+     */
+    public synchronized long getTime(Phase phase) {
+        return phaseTimes[phase.ordinal()];
+    }
+
+    /**
+     * Retrieves the amount of time from the start of the session until the <code>phase</code>
+     * was reached
+     *
+     * @param phase The phase to retrieve the duration for
+     * @return The duration in milliseconds or {@link #UNKNOWN_TIME}
+     */
+    public long getTimeSinceStart(Phase phase) {
+        return getDuration(Phase.BUILDER_STARTED, phase);
+    }
+
+    /**
+     * Retrieves the amount of time between two phases
+     *
+     * @param from The earlier phase
+     * @param to The later phase
+     * @return The duration in milliseconds or {@link #UNKNOWN_TIME} if either phase hasn't been reached
+     */
+    public synchronized long getDuration(Phase from, Phase to) {
+        long fromTime = phaseTimes[from.ordinal()];
+        long toTime = phaseTimes[to.ordinal()];
+        if (fromTime == UNKNOWN_TIME || toTime == UNKNOWN_TIME) {
+            return UNKNOWN_TIME;
+        }
+
+        return toTime - fromTime;
+    }
+
+    /**
+     * Determines if the startup has completed, meaning the player is ready and
+     * the first frame has been rendered (when there is video)
+     *
+     * @return True if the startup has completed
+     */
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("EMStartupReport{");
+        for (Phase phase : Phase.values()) {
+            long time = phaseTimes[phase.ordinal()];
+            if (phase != Phase.BUILDER_STARTED && time != UNKNOWN_TIME) {
+                builder.append(phase.name()).append('=').append(time - phaseTimes[Phase.BUILDER_STARTED.ordinal()]).append("ms, ");
+            }
+        }
+
+        if (builder.charAt(builder.length() - 1) == ' ') {
+            builder.setLength(builder.length() - 2);
+        }
+
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Records the current time for the <code>phase</code> if it hasn't already been
+     * reached and the startup hasn't completed
+     *
+     * @param phase The phase that was reached
+     * @return True if the time was recorded
+     */
+    synchronized boolean mark(Phase phase) {
+        if (completed || phaseTimes[phase.ordinal()] != UNKNOWN_TIME) {
+            return false;
+        }
+
+        phaseTimes[phase.ordinal()] = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    synchronized void complete() {
+        completed = true;
+    }
+}
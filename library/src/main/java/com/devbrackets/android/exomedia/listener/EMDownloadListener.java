@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.listener;
+
+/**
+ * A callback interface for listening to the download events from the
+ * {@link com.devbrackets.android.exomedia.download.EMDownloadManager}.  All
+ * events are dispatched on the main thread.
+ */
+public interface EMDownloadListener {
+
+    /**
+     * Occurs periodically while the media is being downloaded
+     *
+     * @param mediaUrl The url for the media being downloaded
+     * @param bytesDownloaded The number of bytes that have been downloaded
+     * @param totalBytes The total number of bytes to download, or -1 if unknown
+     */
+    void onDownloadProgress(String mediaUrl, long bytesDownloaded, long totalBytes);
+
+    /**
+     * Occurs when the media has been fully downloaded
+     *
+     * @param mediaUrl The url for the media that was downloaded
+     * @param downloadedUri The uri for the local copy of the media
+     */
+    void onDownloadCompleted(String mediaUrl, String downloadedUri);
+
+    /**
+     * Occurs when the media could not be downloaded.  The bytes that were
+     * downloaded are kept so that the download can be resumed.
+     *
+     * @param mediaUrl The url for the media that failed
+     * @param exception The reason for the failure
+     */
+    void onDownloadFailed(String mediaUrl, Exception exception);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.listener;
+
+import android.graphics.Bitmap;
+
+/**
+ * A callback to inform of the thumbnails loaded by the
+ * {@link com.devbrackets.android.exomedia.thumbnail.EMThumbnailLoader}
+ */
+public interface EMThumbnailCallback {
+
+    /**
+     * Occurs on the main thread when the thumbnail for the most recently
+     * requested position is available
+     *
+     * @param positionMs The position the thumbnail was requested for
+     * @param thumbnail The thumbnail to display
+     */
+    void onThumbnailLoaded(long positionMs, Bitmap thumbnail);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.listener;
+
+import com.devbrackets.android.exomedia.abr.AbrDecision;
+import com.devbrackets.android.exomedia.exoplayer.EMStartupReport;
+
+/**
+ * A listener for the playback quality information of the EMExoPlayer,
+ * such as the startup timeline and adaptive format switches.
+ */
+public interface PlaybackInfoListener {
+    /**
+     * Called once the player has started playback of the media, with the
+     * timeline of how long each startup phase took
+     *
+     * @param report The startup report for the playback session
+     */
+    void onStartupCompleted(EMStartupReport report);
+
+    /**
+     * Called when the {@link com.devbrackets.android.exomedia.abr.AbrStrategy} switches
+     * the format of the adaptive video (or HLS variant)
+     *
+     * @param decision The format switch along with the buffer and bandwidth it was made with
+     */
+    void onAbrDecision(AbrDecision decision);
+
+    /**
+     * Called when the live edge of live media is updated, with how far the
+     * playback position is behind it
+     *
+     * @param distanceMs The distance from the live edge in milliseconds
+     */
+    void onLiveEdgeDistance(long distanceMs);
+}
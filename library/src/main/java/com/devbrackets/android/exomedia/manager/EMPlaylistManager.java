@@ -499,6 +499,18 @@ public abstract class EMPlaylistManager<I extends EMPlaylistManager.PlaylistItem
         return null;
     }
 
+    /**
+     * Retrieves the Item representing the next allowed item in the play list
+     * without changing the currently selected item.  If there isn't a next
+     * item then null will be returned.
+     *
+     * @return The next Item or null
+     */
+    @Nullable
+    public I getNextItem() {
+        return getItem(findNextAllowedIndex(currentPosition + 1));
+    }
+
     /**
      * Updates the currently selected item to the next one and retrieves the
      * Item representing that item.  If there aren't any items in the play
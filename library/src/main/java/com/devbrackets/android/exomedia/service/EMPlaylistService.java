@@ -39,15 +39,20 @@ import com.devbrackets.android.exomedia.EMNotification;
 import com.devbrackets.android.exomedia.EMRemoteActions;
 import com.devbrackets.android.exomedia.EMVideoView;
 import com.devbrackets.android.exomedia.R;
+import com.devbrackets.android.exomedia.download.EMDownloadManager;
 import com.devbrackets.android.exomedia.event.EMMediaProgressEvent;
 import com.devbrackets.android.exomedia.event.EMMediaStateEvent;
 import com.devbrackets.android.exomedia.event.EMPlaylistItemChangedEvent;
 import com.devbrackets.android.exomedia.listener.EMAudioFocusCallback;
 import com.devbrackets.android.exomedia.listener.EMPlaylistServiceCallback;
 import com.devbrackets.android.exomedia.listener.EMProgressCallback;
+import com.devbrackets.android.exomedia.listener.ExoPlayerListener;
 import com.devbrackets.android.exomedia.manager.EMPlaylistManager;
+import com.devbrackets.android.exomedia.upstream.EMMediaPrefetcher;
 import com.devbrackets.android.exomedia.util.EMAudioFocusHelper;
+import com.devbrackets.android.exomedia.util.EMCompatUtil;
 import com.devbrackets.android.exomedia.util.EMEventBus;
+import com.google.android.exoplayer.ExoPlayer;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -114,6 +119,21 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
     @NonNull
     protected List<EMPlaylistServiceCallback> callbackList = new LinkedList<>();
 
+    @Nullable
+    protected EMMediaPrefetcher mediaPrefetcher;
+    @NonNull
+    protected VideoListener videoListener = new VideoListener();
+
+    //Used for gapless playback (see isGaplessEnabled())
+    @Nullable
+    protected EMAudioPlayer nextAudioPlayer;
+    @Nullable
+    protected I nextAudioPlaylistItem;
+    protected boolean nextAudioPlayerPrepared = false;
+    @Nullable
+    protected MediaPlayer nextAudioPreparedMediaPlayer;
+    protected NextAudioListener nextAudioListener = new NextAudioListener();
+
     /**
      * Retrieves the ID to use for the notification and registering this
      * service as Foreground when media is playing. (Foreground is removed
@@ -219,14 +239,90 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
     /**
      * Used to determine if the specified playlistItem has been downloaded.  If this is true
      * then the downloaded copy will be used instead, and no network wakelock will be acquired.
+     * By default this checks the {@link EMDownloadManager} if it has been initialized.
      *
      * @param playlistItem The playlist item to determine if it is downloaded.
      * @return True if the specified playlistItem is downloaded. [default: false]
      */
     protected boolean isDownloaded(I playlistItem) {
+        EMDownloadManager downloadManager = getDownloadManager();
+        return downloadManager != null && playlistItem.getMediaUrl() != null && downloadManager.isDownloaded(playlistItem.getMediaUrl());
+    }
+
+    /**
+     * Retrieves the uri for the downloaded copy of the <code>playlistItem</code>.  The
+     * copy downloaded with the {@link EMDownloadManager} is preferred over the
+     * {@link EMPlaylistManager.PlaylistItem#getDownloadedMediaUri()}.
+     *
+     * @param playlistItem The playlist item to get the downloaded uri for
+     * @return The uri for the downloaded media
+     */
+    protected String getDownloadedMediaUri(I playlistItem) {
+        EMDownloadManager downloadManager = getDownloadManager();
+        String downloadedUri = downloadManager != null && playlistItem.getMediaUrl() != null ? downloadManager.getDownloadedUri(playlistItem.getMediaUrl()) : null;
+
+        return downloadedUri != null ? downloadedUri : playlistItem.getDownloadedMediaUri();
+    }
+
+    /**
+     * Retrieves the download manager used to determine which items have been downloaded
+     *
+     * @return The EMDownloadManager to use or null [default: {@link EMDownloadManager#getInstance()}]
+     */
+    @Nullable
+    protected EMDownloadManager getDownloadManager() {
+        return EMDownloadManager.getInstance();
+    }
+
+    /**
+     * Determines if the next item in the playlist should be prefetched while the
+     * current item is playing.  The prefetch loads the manifest in to the
+     * {@link com.devbrackets.android.exomedia.upstream.EMManifestCache} and the first
+     * bytes of the media in to the {@link com.devbrackets.android.exomedia.upstream.EMSegmentCache}
+     * when they have been initialized.
+     *
+     * @return True if the next item should be prefetched [default: true]
+     */
+    protected boolean isPrefetchEnabled() {
+        return true;
+    }
+
+    /**
+     * Retrieves the maximum number of media bytes that will be prefetched for the
+     * next item.  This should roughly correspond to the first few seconds of the media.
+     *
+     * @return The prefetch byte budget [default: {@link EMMediaPrefetcher#DEFAULT_BYTE_BUDGET}]
+     */
+    protected long getPrefetchByteBudget() {
+        return EMMediaPrefetcher.DEFAULT_BYTE_BUDGET;
+    }
+
+    /**
+     * Determines if the next audio item in the playlist should be fully prepared in a
+     * second {@link EMAudioPlayer} while the current item is playing.  When the current
+     * item completes the prepared player is started immediately (by the platform when
+     * the {@link MediaPlayer} is used) and swapped in once the next item is started,
+     * instead of rebuilding the renderers, resulting in near gapless transitions.
+     * <p>
+     * This will use additional memory and network while the current item is playing
+     *
+     * @return True if gapless playback should be used [default: false]
+     */
+    protected boolean isGaplessEnabled() {
         return false;
     }
 
+    /**
+     * Called when the next item in the playlist is being prefetched.  This
+     * should be used to warm any image caches with the artwork for the
+     * <code>nextPlaylistItem</code>.
+     *
+     * @param nextPlaylistItem The PlaylistItem that will be played next
+     */
+    protected void onPrefetchArtwork(I nextPlaylistItem) {
+        //Purposefully left blank
+    }
+
     /**
      * Called when the media player has failed to play the current audio item.
      */
@@ -396,12 +492,31 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
             audioFocusHelper = null;
         }
 
+        if (mediaPrefetcher != null) {
+            mediaPrefetcher.release();
+            mediaPrefetcher = null;
+        }
+
         notificationHelper = null;
         lockScreenHelper = null;
 
         onCreateCalled = false;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            onMemoryPressure();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onMemoryPressure();
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null || intent.getAction() == null) {
@@ -562,6 +677,7 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
         wifiLock = ((WifiManager) getSystemService(Context.WIFI_SERVICE)).createWifiLock(WifiManager.WIFI_MODE_FULL, "mcLock");
         wifiLock.setReferenceCounted(false);
 
+        mediaPrefetcher = new EMMediaPrefetcher(getApplicationContext());
         notificationHelper = new EMNotification(getApplicationContext());
         lockScreenHelper = new EMLockScreen(getApplicationContext(), getClass());
         getMediaPlaylistManager().registerService(this);
@@ -895,9 +1011,18 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
             onAudioPlaybackEnded();
         }
 
+        //The user has moved on, so the network should be used for the new item instead
+        if (mediaPrefetcher != null) {
+            mediaPrefetcher.cancel();
+        }
+
         seekToNextPlayableItem();
         mediaItemChanged();
 
+        if (!isNextAudioItem(currentPlaylistItem)) {
+            releaseNextAudioPlayer();
+        }
+
         if (currentItemIsAudio()) {
             audioListener.resetRetryCount();
             playAudioItem();
@@ -919,18 +1044,20 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
      */
     protected void playAudioItem() {
         stopVideoPlayback();
+        if (swapToNextAudioPlayer()) {
+            return;
+        }
+
         initializeAudioPlayer();
         if (audioFocusHelper != null) {
             audioFocusHelper.requestFocus();
         }
 
-        //noinspection ConstantConditions -  currentPlaylistItem is not null at this point (see calling method for null check)
-        audioPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 		// TODO add captions support to playlist manager
         boolean isItemDownloaded = isDownloaded(currentPlaylistItem);
 
         //noinspection ConstantConditions -  currentPlaylistItem is not null at this point (see calling method for null check)
-        audioPlayer.setDataSource(this, Uri.parse(isItemDownloaded ? currentPlaylistItem.getDownloadedMediaUri() : currentPlaylistItem.getMediaUrl()));
+        audioPlayer.setDataSource(this, Uri.parse(isItemDownloaded ? getDownloadedMediaUri(currentPlaylistItem) : currentPlaylistItem.getMediaUrl()));
 
         setMediaState(MediaState.PREPARING);
         setupAsForeground();
@@ -947,6 +1074,139 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
         }
     }
 
+    /**
+     * Replaces the current audio player with the one prepared for gapless playback
+     * (see {@link #prepareNextAudioItem()}) when it was prepared for the current item.
+     *
+     * @return True if the next audio player was swapped in
+     */
+    protected boolean swapToNextAudioPlayer() {
+        if (nextAudioPlayer == null || !isNextAudioItem(currentPlaylistItem)) {
+            return false;
+        }
+
+        if (audioPlayer != null) {
+            audioPlayer.stopProgressPoll();
+            audioPlayer.release();
+        }
+
+        audioPlayer = nextAudioPlayer;
+        boolean isPrepared = nextAudioPlayerPrepared;
+        MediaPlayer preparedMediaPlayer = nextAudioPreparedMediaPlayer;
+
+        nextAudioPlayer = null;
+        nextAudioPlaylistItem = null;
+        nextAudioPlayerPrepared = false;
+        nextAudioPreparedMediaPlayer = null;
+
+        audioPlayer.setBus(getBus());
+        audioPlayer.startProgressPoll(this);
+        audioPlayer.setOnPreparedListener(audioListener);
+        audioPlayer.setOnCompletionListener(audioListener);
+        audioPlayer.setOnErrorListener(audioListener);
+
+        if (audioFocusHelper != null) {
+            audioFocusHelper.requestFocus();
+        }
+
+        setupAsForeground();
+
+        //noinspection ConstantConditions -  currentPlaylistItem is not null at this point (see calling method for null check)
+        if (!isDownloaded(currentPlaylistItem)) {
+            wifiLock.acquire();
+        } else if (wifiLock.isHeld()) {
+            wifiLock.release();
+        }
+
+        //If the player is still preparing then the audioListener will be informed once it completes
+        if (isPrepared) {
+            audioListener.onPrepared(preparedMediaPlayer);
+        } else {
+            setMediaState(MediaState.PREPARING);
+        }
+
+        return true;
+    }
+
+    /**
+     * Prepares the next audio item in the playlist in a separate {@link EMAudioPlayer}
+     * so that it can be swapped in once the current item completes.
+     *
+     * @return True if the next audio item is being prepared
+     */
+    protected boolean prepareNextAudioItem() {
+        if (!isGaplessEnabled()) {
+            return false;
+        }
+
+        I nextItem = getMediaPlaylistManager().getNextItem();
+        if (nextItem == null || nextItem.getMediaType() != EMPlaylistManager.MediaType.AUDIO) {
+            releaseNextAudioPlayer();
+            return false;
+        }
+
+        if (isNextAudioItem(nextItem)) {
+            return true;
+        }
+
+        boolean isItemDownloaded = isDownloaded(nextItem);
+        if (!isItemDownloaded && !isNetworkAvailable()) {
+            return false;
+        }
+
+        releaseNextAudioPlayer();
+        nextAudioPlayer = createAudioPlayer();
+        nextAudioPlaylistItem = nextItem;
+
+        nextAudioPlayer.setOnPreparedListener(nextAudioListener);
+        nextAudioPlayer.setOnErrorListener(nextAudioListener);
+        nextAudioPlayer.setDataSource(this, Uri.parse(isItemDownloaded ? getDownloadedMediaUri(nextItem) : nextItem.getMediaUrl()));
+        nextAudioPlayer.prepareAsync();
+
+        return true;
+    }
+
+    /**
+     * Called when the system is running low on memory.  This releases the resources that
+     * aren't needed for the current playback (the audio player prepared for gapless playback
+     * and any prefetch) so that the current playback is less likely to be killed.  The media
+     * buffers themselves are reduced by the {@link com.devbrackets.android.exomedia.util.EMMemoryGovernor}.
+     */
+    protected void onMemoryPressure() {
+        releaseNextAudioPlayer();
+
+        if (mediaPrefetcher != null) {
+            mediaPrefetcher.cancel();
+        }
+    }
+
+    /**
+     * Releases the audio player that was prepared for gapless playback
+     */
+    protected void releaseNextAudioPlayer() {
+        if (nextAudioPlayer != null) {
+            nextAudioPlayer.reset();
+            nextAudioPlayer.release();
+            nextAudioPlayer = null;
+        }
+
+        nextAudioPlaylistItem = null;
+        nextAudioPlayerPrepared = false;
+        nextAudioPreparedMediaPlayer = null;
+    }
+
+    /**
+     * Determines if the <code>playlistItem</code> is the item that the next
+     * audio player was prepared for.
+     *
+     * @param playlistItem The item to compare
+     * @return True if the next audio player was prepared for the <code>playlistItem</code>
+     */
+    protected boolean isNextAudioItem(@Nullable I playlistItem) {
+        return playlistItem != null && nextAudioPlaylistItem != null && playlistItem.getId() == nextAudioPlaylistItem.getId()
+                && playlistItem.getPlaylistId() == nextAudioPlaylistItem.getPlaylistId();
+    }
+
     /**
      * Starts the actual playback of the specified video item.
      */
@@ -959,8 +1219,43 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
             videoView.stopPlayback();
             boolean isItemDownloaded = isDownloaded(currentPlaylistItem);
 
+            //The next item is prefetched once the video is prepared so that it doesn't compete with the startup
+            videoListener.reset();
+            videoView.removeExoPlayerListener(videoListener);
+            videoView.addExoPlayerListener(videoListener);
+
             //noinspection ConstantConditions -  currentPlaylistItem is not null at this point (see calling method for null check)
-            videoView.setVideoURI(Uri.parse(isItemDownloaded ? currentPlaylistItem.getDownloadedMediaUri() : currentPlaylistItem.getMediaUrl()));
+            videoView.setVideoURI(Uri.parse(isItemDownloaded ? getDownloadedMediaUri(currentPlaylistItem) : currentPlaylistItem.getMediaUrl()));
+
+            //The native VideoView doesn't inform the ExoPlayerListeners
+            if (!EMCompatUtil.supportsExo(this)) {
+                prefetchNextItem(videoView.getUserAgent());
+            }
+        }
+    }
+
+    /**
+     * Starts warming the caches for the next playable item in the playlist so that
+     * the transition to it doesn't need to wait on the network.  Items that have
+     * been downloaded are not prefetched.
+     *
+     * @param userAgent The user agent to use when requesting the media
+     */
+    protected void prefetchNextItem(String userAgent) {
+        if (mediaPrefetcher == null || !isPrefetchEnabled() || !isNetworkAvailable()) {
+            return;
+        }
+
+        I nextItem = getMediaPlaylistManager().getNextItem();
+        if (nextItem == null || isDownloaded(nextItem)) {
+            mediaPrefetcher.cancel();
+            return;
+        }
+
+        onPrefetchArtwork(nextItem);
+        if (nextItem.getMediaUrl() != null) {
+            mediaPrefetcher.setByteBudget(getPrefetchByteBudget());
+            mediaPrefetcher.prefetch(nextItem.getMediaUrl(), userAgent);
         }
     }
 
@@ -991,6 +1286,7 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
     protected void stopVideoPlayback() {
         EMVideoView videoView = getMediaPlaylistManager().getVideoView();
         if (videoView != null) {
+            videoView.removeExoPlayerListener(videoListener);
             videoView.stopPlayback();
             videoView.reset();
         }
@@ -1056,6 +1352,8 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
                 audioPlayer = null;
             }
 
+            releaseNextAudioPlayer();
+
             getMediaPlaylistManager().setCurrentIndex(Integer.MAX_VALUE);
         }
 
@@ -1280,10 +1578,9 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
             return;
         }
 
-        audioPlayer = new EMAudioPlayer(getApplicationContext());
+        audioPlayer = createAudioPlayer();
         audioPlayer.setBus(getBus());
         audioPlayer.startProgressPoll(this);
-        audioPlayer.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
 
         //Sets the listeners
         audioPlayer.setOnPreparedListener(audioListener);
@@ -1291,6 +1588,19 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
         audioPlayer.setOnErrorListener(audioListener);
     }
 
+    /**
+     * Creates a new EMAudioPlayer configured for playback by this service
+     *
+     * @return The new EMAudioPlayer
+     */
+    protected EMAudioPlayer createAudioPlayer() {
+        EMAudioPlayer player = new EMAudioPlayer(getApplicationContext());
+        player.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+
+        return player;
+    }
+
     /**
      * A class to listen to the EMAudioPlayer events, and will
      * retry audio playback once when an error is encountered.
@@ -1306,7 +1616,13 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
         public void onCompletion(MediaPlayer mp) {
             //Make sure to only perform this functionality when playing audio
             if (currentItemIsAudio()) {
+                //The prepared player is only started if the completion advances to its item (see swapToNextAudioPlayer())
+                EMAudioPlayer preparedPlayer = nextAudioPlayer;
                 performMediaCompletion();
+
+                if (preparedPlayer != null && preparedPlayer == nextAudioPlayer) {
+                    releaseNextAudioPlayer();
+                }
             }
         }
 
@@ -1359,10 +1675,69 @@ public abstract class EMPlaylistService<I extends EMPlaylistManager.PlaylistItem
 
             updateLockScreen();
             updateNotification();
+
+            if (!prepareNextAudioItem() && audioPlayer != null) {
+                prefetchNextItem(audioPlayer.getUserAgent());
+            }
         }
 
         public void resetRetryCount() {
             retryCount = 0;
         }
     }
+
+    /**
+     * A class to listen to the EMVideoView events so that the next
+     * item can be prefetched once the current video has been prepared
+     */
+    protected class VideoListener implements ExoPlayerListener {
+        private boolean prepared = false;
+
+        @Override
+        public void onStateChanged(boolean playWhenReady, int playbackState) {
+            if (prepared || playbackState != ExoPlayer.STATE_READY || currentItemIsAudio()) {
+                return;
+            }
+
+            prepared = true;
+            EMVideoView videoView = getMediaPlaylistManager().getVideoView();
+            if (videoView != null) {
+                prefetchNextItem(videoView.getUserAgent());
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            //Purposefully left blank
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unAppliedRotationDegrees, float pixelWidthHeightRatio) {
+            //Purposefully left blank
+        }
+
+        public void reset() {
+            prepared = false;
+        }
+    }
+
+    /**
+     * A class to listen to the events from the EMAudioPlayer that is
+     * being prepared for gapless playback (see {@link #prepareNextAudioItem()})
+     */
+    protected class NextAudioListener implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            nextAudioPlayerPrepared = true;
+            nextAudioPreparedMediaPlayer = mp;
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            //The item will be played normally once it becomes current
+            Log.d(TAG, "Unable to prepare the next audio item: what=" + what + ", extra=" + extra);
+            releaseNextAudioPlayer();
+            return true;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.thumbnail;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.devbrackets.android.exomedia.listener.EMThumbnailCallback;
+import com.devbrackets.android.exomedia.upstream.DataSourceFactory;
+import com.devbrackets.android.exomedia.upstream.EMPooledDataSourceFactory;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the trick play (scrubbing) thumbnails described by a WebVTT thumbnail track,
+ * including sprite sheets using the <code>#xywh</code> media fragment.  The track and
+ * images are fetched, and the thumbnails decoded, on a background thread; the decoded
+ * thumbnails are held in a size bounded cache and the thumbnails surrounding each
+ * requested position are prefetched.
+ * <p>
+ * Requests that are superseded before their thumbnail is decoded are dropped, so rapid
+ * scrubbing only decodes the thumbnails near the newest position.  This should only be
+ * used from the main thread.
+ */
+public class EMThumbnailLoader {
+    private static final String TAG = "EMThumbnailLoader";
+
+    public static final int DEFAULT_MAX_CACHE_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_PREFETCH_COUNT = 2;
+
+    private static final int MAX_SPRITE_DECODERS = 2;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Context context;
+    private final String userAgent;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final LruCache<Integer, Bitmap> thumbnailCache;
+    private final LruCache<String, BitmapRegionDecoder> spriteDecoders;
+    private final Set<Integer> pendingIndices = Collections.synchronizedSet(new HashSet<Integer>());
+
+    private DataSourceFactory dataSourceFactory = new EMPooledDataSourceFactory();
+    private int prefetchCount = DEFAULT_PREFETCH_COUNT;
+
+    private volatile List<ThumbnailCue> cues = Collections.emptyList();
+    private volatile int generation;
+    private volatile int requestedIndex = -1;
+    private long requestedPositionMs;
+
+    @Nullable
+    private EMThumbnailCallback callback;
+
+    public EMThumbnailLoader(Context context, String userAgent) {
+        this(context, userAgent, DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public EMThumbnailLoader(Context context, String userAgent, int maxCacheSize) {
+        this.context = context.getApplicationContext();
+        this.userAgent = userAgent;
+
+        thumbnailCache = new LruCache<Integer, Bitmap>(maxCacheSize) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+
+        spriteDecoders = new LruCache<String, BitmapRegionDecoder>(MAX_SPRITE_DECODERS) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, BitmapRegionDecoder oldValue, BitmapRegionDecoder newValue) {
+                oldValue.recycle();
+            }
+        };
+    }
+
+    /**
+     * Sets the factory used to create the HttpDataSources for loading the
+     * thumbnail track and images
+     *
+     * @param dataSourceFactory The factory to use [default: {@link EMPooledDataSourceFactory}]
+     */
+    public void setDataSourceFactory(DataSourceFactory dataSourceFactory) {
+        this.dataSourceFactory = dataSourceFactory;
+    }
+
+    /**
+     * Sets the number of thumbnails on either side of the requested position
+     * to prefetch
+     *
+     * @param prefetchCount The number of thumbnails to prefetch [default: {@value #DEFAULT_PREFETCH_COUNT}]
+     */
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    /**
+     * Sets the callback to inform when the requested thumbnails are loaded
+     *
+     * @param callback The callback to inform or null
+     */
+    public void setCallback(@Nullable EMThumbnailCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Sets the WebVTT thumbnail track to load the thumbnails from, clearing any
+     * thumbnails from the previous track.
+     *
+     * @param trackUri The Uri for the WebVTT thumbnail track or null
+     */
+    public void setSource(@Nullable final Uri trackUri) {
+        final int sourceGeneration = ++generation;
+        cues = Collections.emptyList();
+        requestedIndex = -1;
+        thumbnailCache.evictAll();
+
+        if (trackUri == null) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data = load(trackUri);
+                    List<ThumbnailCue> parsedCues = new WebVttThumbnailParser().parse(trackUri.toString(), new ByteArrayInputStream(data));
+                    if (sourceGeneration == generation) {
+                        cues = parsedCues;
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, "Unable to load the thumbnail track " + trackUri, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests the thumbnail for the <code>positionMs</code>.  If the thumbnail is already
+     * cached it will be returned, otherwise the callback will be informed once it has been
+     * loaded (unless a newer request has been made by then).
+     *
+     * @param positionMs The position to retrieve the thumbnail for
+     * @return The cached thumbnail or null
+     */
+    @Nullable
+    public Bitmap requestThumbnail(long positionMs) {
+        int index = findCueIndex(cues, positionMs);
+        if (index < 0) {
+            requestedIndex = -1;
+            return null;
+        }
+
+        requestedIndex = index;
+        requestedPositionMs = positionMs;
+
+        //Prefetches the surrounding thumbnails, nearest first
+        Bitmap thumbnail = thumbnailCache.get(index);
+        if (thumbnail == null) {
+            scheduleDecode(index);
+        }
+
+        for (int offset = 1; offset <= prefetchCount; offset++) {
+            scheduleDecode(index + offset);
+            scheduleDecode(index - offset);
+        }
+
+        return thumbnail;
+    }
+
+    /**
+     * Releases the cached thumbnails and stops the background loading.
+     * The loader can't be used after it is released.
+     */
+    public void release() {
+        generation++;
+        callback = null;
+        thumbnailCache.evictAll();
+
+        //The sprite decoders are only accessed from the background thread
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                spriteDecoders.evictAll();
+            }
+        });
+
+        executor.shutdown();
+    }
+
+    private void scheduleDecode(int index) {
+        if (index < 0 || index >= cues.size() || thumbnailCache.get(index) != null || !pendingIndices.add(index)) {
+            return;
+        }
+
+        executor.execute(new DecodeTask(index, generation));
+    }
+
+    /**
+     * Finds the index of the cue containing the <code>positionMs</code>
+     */
+    private static int findCueIndex(List<ThumbnailCue> cues, long positionMs) {
+        int low = 0;
+        int high = cues.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ThumbnailCue cue = cues.get(middle);
+            if (positionMs < cue.startTimeMs) {
+                high = middle - 1;
+            } else if (positionMs >= cue.endTimeMs) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    private byte[] load(Uri uri) throws IOException {
+        UriDataSource dataSource = new DefaultUriDataSource(context, null, dataSourceFactory.createHttpDataSource(userAgent, null));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            dataSource.open(new DataSpec(uri));
+
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    @Nullable
+    private Bitmap decode(ThumbnailCue cue) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        if (cue.region == null) {
+            byte[] data = load(Uri.parse(cue.imageUrl));
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        //Sprite sheets are kept as region decoders so that only the thumbnail is decoded
+        BitmapRegionDecoder decoder = spriteDecoders.get(cue.imageUrl);
+        if (decoder == null) {
+            byte[] data = load(Uri.parse(cue.imageUrl));
+            decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+            spriteDecoders.put(cue.imageUrl, decoder);
+        }
+
+        return decoder.decodeRegion(cue.region, options);
+    }
+
+    private class DecodeTask implements Runnable {
+        private final int index;
+        private final int taskGeneration;
+
+        public DecodeTask(int index, int taskGeneration) {
+            this.index = index;
+            this.taskGeneration = taskGeneration;
+        }
+
+        @Override
+        public void run() {
+            try {
+                //Drops requests that were superseded by scrubbing to a different position
+                if (taskGeneration != generation || Math.abs(index - requestedIndex) > prefetchCount || thumbnailCache.get(index) != null) {
+                    return;
+                }
+
+                List<ThumbnailCue> currentCues = cues;
+                if (index >= currentCues.size()) {
+                    return;
+                }
+
+                final Bitmap thumbnail = decode(currentCues.get(index));
+                if (thumbnail == null || taskGeneration != generation) {
+                    return;
+                }
+
+                thumbnailCache.put(index, thumbnail);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (index == requestedIndex && callback != null) {
+                            callback.onThumbnailLoaded(requestedPositionMs, thumbnail);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                Log.d(TAG, "Unable to load the thumbnail " + index, e);
+            } finally {
+                pendingIndices.remove(index);
+            }
+        }
+    }
+}
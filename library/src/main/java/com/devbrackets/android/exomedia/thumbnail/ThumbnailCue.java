@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.thumbnail;
+
+import android.graphics.Rect;
+import android.support.annotation.Nullable;
+
+/**
+ * A single thumbnail from a WebVTT thumbnail track, identifying the image
+ * and (for sprite sheets) the region of the image to display for a time range.
+ */
+class ThumbnailCue {
+    public final long startTimeMs;
+    public final long endTimeMs;
+    public final String imageUrl;
+    @Nullable
+    public final Rect region;
+
+    public ThumbnailCue(long startTimeMs, long endTimeMs, String imageUrl, @Nullable Rect region) {
+        this.startTimeMs = startTimeMs;
+        this.endTimeMs = endTimeMs;
+        this.imageUrl = imageUrl;
+        this.region = region;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.thumbnail;
+
+import android.graphics.Rect;
+
+import com.google.android.exoplayer.ParserException;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the WebVTT thumbnail tracks where each cue payload is the url of an image,
+ * optionally with a <code>#xywh=x,y,width,height</code> media fragment identifying
+ * the thumbnail within a sprite sheet.
+ */
+class WebVttThumbnailParser {
+    private static final String WEBVTT_HEADER = "WEBVTT";
+    private static final String CUE_TIMING_SEPARATOR = "-->";
+    private static final String XYWH_FRAGMENT = "#xywh=";
+
+    private static final Pattern TIMESTAMP_PATTERN = Pattern.compile("(?:(\\d+):)?(\\d{2}):(\\d{2})\\.(\\d{3})");
+
+    public List<ThumbnailCue> parse(String baseUrl, InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        List<ThumbnailCue> cues = new ArrayList<>();
+
+        String line = reader.readLine();
+        if (line == null || !line.trim().startsWith(WEBVTT_HEADER)) {
+            throw new ParserException("Missing the WebVTT header");
+        }
+
+        while ((line = reader.readLine()) != null) {
+            if (!line.contains(CUE_TIMING_SEPARATOR)) {
+                continue;
+            }
+
+            String[] timing = line.split(CUE_TIMING_SEPARATOR);
+            long startTimeMs = parseTimestamp(timing[0]);
+            long endTimeMs = parseTimestamp(timing[1].trim().split("\\s")[0]);
+
+            String payload = reader.readLine();
+            if (payload == null || payload.trim().isEmpty()) {
+                continue;
+            }
+
+            cues.add(createCue(baseUrl, startTimeMs, endTimeMs, payload.trim()));
+        }
+
+        return cues;
+    }
+
+    private ThumbnailCue createCue(String baseUrl, long startTimeMs, long endTimeMs, String payload) throws ParserException {
+        int fragmentIndex = payload.indexOf(XYWH_FRAGMENT);
+        if (fragmentIndex < 0) {
+            return new ThumbnailCue(startTimeMs, endTimeMs, UriUtil.resolve(baseUrl, payload), null);
+        }
+
+        String imageUrl = UriUtil.resolve(baseUrl, payload.substring(0, fragmentIndex));
+        return new ThumbnailCue(startTimeMs, endTimeMs, imageUrl, parseRegion(payload.substring(fragmentIndex + XYWH_FRAGMENT.length())));
+    }
+
+    private Rect parseRegion(String xywh) throws ParserException {
+        String[] values = xywh.split(",");
+        if (values.length != 4) {
+            throw new ParserException("Invalid xywh fragment: " + xywh);
+        }
+
+        try {
+            int x = Integer.parseInt(values[0].trim());
+            int y = Integer.parseInt(values[1].trim());
+            return new Rect(x, y, x + Integer.parseInt(values[2].trim()), y + Integer.parseInt(values[3].trim()));
+        } catch (NumberFormatException e) {
+            throw new ParserException(e);
+        }
+    }
+
+    private long parseTimestamp(String timestamp) throws ParserException {
+        Matcher matcher = TIMESTAMP_PATTERN.matcher(timestamp.trim());
+        if (!matcher.matches()) {
+            throw new ParserException("Invalid timestamp: " + timestamp);
+        }
+
+        long hours = matcher.group(1) != null ? Long.parseLong(matcher.group(1)) : 0;
+        long minutes = Long.parseLong(matcher.group(2));
+        long seconds = Long.parseLong(matcher.group(3));
+        long millis = Long.parseLong(matcher.group(4));
+
+        return ((hours * 60 + minutes) * 60 + seconds) * 1000 + millis;
+    }
+}
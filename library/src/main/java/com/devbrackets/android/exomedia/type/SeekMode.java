@@ -0,0 +1,25 @@
+package com.devbrackets.android.exomedia.type;
+
+/**
+ * The modes used to determine the position a seek will move the playback to.
+ * The sync modes snap the requested position to the start of a chunk (segment) of
+ * video that has already been loaded, since each chunk begins with a sync sample
+ * (keyframe).  When the requested position isn't within a loaded chunk, or the media
+ * isn't chunked, an exact seek is performed.
+ */
+public enum SeekMode {
+    /**
+     * Seeks to the exact position, decoding from the previous sync sample
+     */
+    EXACT,
+
+    /**
+     * Seeks to the sync sample at or before the position
+     */
+    PREVIOUS_SYNC,
+
+    /**
+     * Seeks to the sync sample closest to the position
+     */
+    CLOSEST_SYNC
+}
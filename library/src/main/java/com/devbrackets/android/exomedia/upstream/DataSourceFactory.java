@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+
+/**
+ * A factory used by the RenderBuilders to create the HttpDataSources for the
+ * manifests, media, and captions.  This allows the HTTP stack to be replaced
+ * (e.g. with one that supports HTTP/2) without modifying the RenderBuilders.
+ */
+public interface DataSourceFactory {
+    /**
+     * Creates a new HttpDataSource for loading network data
+     *
+     * @param userAgent The user agent to use for the requests
+     * @param transferListener The listener to inform of data transfers or null
+     * @return The HttpDataSource to use
+     */
+    HttpDataSource createHttpDataSource(String userAgent, @Nullable TransferListener transferListener);
+}
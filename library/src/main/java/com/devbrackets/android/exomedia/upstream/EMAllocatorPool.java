@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.Nullable;
+
+import com.devbrackets.android.exomedia.util.EMMemoryGovernor;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+
+import java.util.ArrayDeque;
+
+/**
+ * A process wide, bounded, pool of the buffer segments used by the ExoPlayer
+ * sample sources.  Each player gets its own {@link Allocator} (see {@link #createAllocator(int)})
+ * that takes segments from, and returns them to, this shared pool so that
+ * re-preparing media or switching players doesn't need to allocate new memory.
+ * <p>
+ * The pool is trimmed when the system reports memory pressure through
+ * {@link ComponentCallbacks2#onTrimMemory(int)}, and the amount each player can
+ * buffer is reduced by the {@link EMMemoryGovernor}.
+ */
+public class EMAllocatorPool implements ComponentCallbacks2 {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_POOL_SIZE = 16 * 1024 * 1024;
+
+    @Nullable
+    private static EMAllocatorPool instance;
+
+    private final int segmentSize;
+    private final EMMemoryGovernor memoryGovernor;
+    private final ArrayDeque<byte[]> availableSegments = new ArrayDeque<>();
+
+    private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+
+    private int outstandingCount;
+    private int peakOutstandingCount;
+    private long allocationCount;
+    private long reuseCount;
+
+    /**
+     * Retrieves the shared allocator pool, creating it if it doesn't exist.  The pool
+     * will be registered with the application context to receive the trim memory callbacks.
+     *
+     * @param context The context used to register for the trim memory callbacks
+     * @return The shared EMAllocatorPool
+     */
+    public static synchronized EMAllocatorPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new EMAllocatorPool(DEFAULT_SEGMENT_SIZE, EMMemoryGovernor.getInstance(context));
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    private EMAllocatorPool(int segmentSize, EMMemoryGovernor memoryGovernor) {
+        this.segmentSize = segmentSize;
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    /**
+     * Creates the Allocator for a single player (LoadControl or SampleSource) that
+     * uses the segments in this pool.  If the <code>segmentSize</code> differs from the
+     * pool segment size then an unpooled {@link DefaultAllocator} is returned instead.
+     *
+     * @param segmentSize The size of the individual allocations
+     * @return The Allocator to use
+     */
+    public Allocator createAllocator(int segmentSize) {
+        return segmentSize == this.segmentSize ? new PooledAllocator(this, memoryGovernor) : new DefaultAllocator(segmentSize);
+    }
+
+    /**
+     * Sets the maximum amount of memory the pool will hold on to for segments that
+     * aren't currently in use.  Segments released beyond this limit will be freed.  While
+     * the {@link EMMemoryGovernor} has reduced the buffers this limit is reduced as well.
+     *
+     * @param maxBytes The maximum pool size in bytes [default: {@value #DEFAULT_MAX_POOL_SIZE}]
+     */
+    public synchronized void setMaxPoolSize(int maxBytes) {
+        maxPoolSize = maxBytes;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Retrieves the size of the pooled segments
+     *
+     * @return The segment size in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Retrieves the amount of memory currently held by the pool for segments
+     * that aren't in use
+     *
+     * @return The pool size in bytes
+     */
+    public synchronized int getPoolSize() {
+        return availableSegments.size() * segmentSize;
+    }
+
+    /**
+     * Retrieves the amount of memory currently in use by the players
+     *
+     * @return The number of bytes in use
+     */
+    public synchronized int getUsedSize() {
+        return outstandingCount * segmentSize;
+    }
+
+    /**
+     * Retrieves the largest amount of memory that has been in use at one time
+     *
+     * @return The peak number of bytes in use
+     */
+    public synchronized int getPeakUsedSize() {
+        return peakOutstandingCount * segmentSize;
+    }
+
+    /**
+     * Retrieves the fraction of allocations that were served by reusing a pooled segment
+     *
+     * @return The reuse rate [0, 1]
+     */
+    public synchronized float getReuseRate() {
+        return allocationCount == 0 ? 0 : (float) reuseCount / allocationCount;
+    }
+
+    /**
+     * Resets the peak usage and reuse counters
+     */
+    public synchronized void resetStatistics() {
+        peakOutstandingCount = outstandingCount;
+        allocationCount = 0;
+        reuseCount = 0;
+    }
+
+    /**
+     * Frees the pooled segments until the pool is at or below the <code>targetBytes</code>
+     *
+     * @param targetBytes The target pool size in bytes
+     */
+    public synchronized void trimTo(int targetBytes) {
+        int targetCount = Math.max(0, targetBytes / segmentSize);
+        while (availableSegments.size() > targetCount) {
+            availableSegments.pop();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(getPoolSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimTo(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //Purposefully left blank
+    }
+
+    synchronized byte[] obtain() {
+        allocationCount++;
+        outstandingCount++;
+        peakOutstandingCount = Math.max(peakOutstandingCount, outstandingCount);
+
+        byte[] segment = availableSegments.poll();
+        if (segment != null) {
+            reuseCount++;
+            return segment;
+        }
+
+        return new byte[segmentSize];
+    }
+
+    synchronized void recycle(byte[] segment) {
+        outstandingCount--;
+        if ((availableSegments.size() + 1) * segmentSize <= maxPoolSize * memoryGovernor.getBufferScale()) {
+            availableSegments.push(segment);
+        }
+    }
+}
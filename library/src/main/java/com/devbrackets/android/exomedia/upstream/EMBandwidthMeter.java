@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.devbrackets.android.exomedia.util.EMNetworkUtil;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+
+/**
+ * A BandwidthMeter that remembers the last bandwidth estimate for each type of network,
+ * both for the life of the process and between app launches.  Until the current session
+ * has measured its own estimate the remembered one will be reported, allowing the
+ * adaptive streams to start with a reasonable variant instead of guessing.
+ * <p>
+ * The measuring is performed by a {@link DefaultBandwidthMeter} so the
+ * {@link DefaultBandwidthMeter.EventListener} will continue to be informed of samples.
+ * <p>
+ * To avoid a disk write for every transfer the estimate is only persisted every
+ * {@link #PERSIST_INTERVAL} milliseconds, or sooner when it changes significantly.
+ */
+public class EMBandwidthMeter implements BandwidthMeter {
+    private static final String PREFERENCES_NAME = "exomedia_bandwidth";
+    private static final String KEY_ESTIMATE_PREFIX = "estimate_";
+    private static final String KEY_TIME_PREFIX = "time_";
+
+    public static final long MAX_ESTIMATE_AGE = 24 * 60 * 60 * 1000;
+    public static final long PERSIST_INTERVAL = 30 * 1000;
+
+    //The fractional change in the estimate that will be persisted before the PERSIST_INTERVAL
+    private static final float SIGNIFICANT_CHANGE = 0.25f;
+
+    private static final Object LOCK = new Object();
+    @Nullable
+    private static SharedPreferences preferences;
+    @Nullable
+    private static String networkKey;
+    private static boolean networkReceiverRegistered = false;
+
+    private final Context context;
+    private final DefaultBandwidthMeter bandwidthMeter;
+
+    private long persistedEstimate = NO_ESTIMATE;
+    private long persistTime;
+
+    public EMBandwidthMeter(Context context, @Nullable Handler eventHandler, @Nullable DefaultBandwidthMeter.EventListener eventListener) {
+        this.context = context.getApplicationContext();
+        bandwidthMeter = new DefaultBandwidthMeter(eventHandler, eventListener);
+    }
+
+    /**
+     * Retrieves the last bandwidth estimate that was measured on the same type of
+     * network as the one currently active.
+     *
+     * @param context The context to use for determining the network type
+     * @return The remembered estimate in bits per second or {@link #NO_ESTIMATE}
+     */
+    public static long getPersistedEstimate(Context context) {
+        synchronized (LOCK) {
+            String networkKey = getNetworkKey(context);
+            SharedPreferences sharedPreferences = getPreferences(context);
+            long estimateTime = sharedPreferences.getLong(KEY_TIME_PREFIX + networkKey, 0);
+            if (System.currentTimeMillis() - estimateTime > MAX_ESTIMATE_AGE) {
+                return NO_ESTIMATE;
+            }
+
+            return sharedPreferences.getLong(KEY_ESTIMATE_PREFIX + networkKey, NO_ESTIMATE);
+        }
+    }
+
+    /**
+     * Removes all the remembered bandwidth estimates
+     *
+     * @param context The context to use for accessing the stored estimates
+     */
+    public static void clearPersistedEstimates(Context context) {
+        synchronized (LOCK) {
+            getPreferences(context).edit().clear().apply();
+        }
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        long estimate = bandwidthMeter.getBitrateEstimate();
+        return estimate != NO_ESTIMATE ? estimate : getPersistedEstimate(context);
+    }
+
+    @Override
+    public void onTransferStart() {
+        bandwidthMeter.onTransferStart();
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+        bandwidthMeter.onBytesTransferred(bytes);
+    }
+
+    @Override
+    public void onTransferEnd() {
+        bandwidthMeter.onTransferEnd();
+
+        long estimate = bandwidthMeter.getBitrateEstimate();
+        if (estimate != NO_ESTIMATE && shouldPersist(estimate)) {
+            persistEstimate(estimate);
+        }
+    }
+
+    /**
+     * Determines if the <code>estimate</code> should be persisted, limiting the writes to
+     * once every {@link #PERSIST_INTERVAL} unless the estimate has changed significantly
+     */
+    private boolean shouldPersist(long estimate) {
+        if (persistedEstimate == NO_ESTIMATE || SystemClock.elapsedRealtime() - persistTime >= PERSIST_INTERVAL) {
+            return true;
+        }
+
+        return Math.abs(estimate - persistedEstimate) > persistedEstimate * SIGNIFICANT_CHANGE;
+    }
+
+    private void persistEstimate(long estimate) {
+        persistedEstimate = estimate;
+        persistTime = SystemClock.elapsedRealtime();
+
+        synchronized (LOCK) {
+            String networkKey = getNetworkKey(context);
+            getPreferences(context).edit()
+                    .putLong(KEY_ESTIMATE_PREFIX + networkKey, estimate)
+                    .putLong(KEY_TIME_PREFIX + networkKey, System.currentTimeMillis())
+                    .apply();
+        }
+    }
+
+    /**
+     * Retrieves the key for the active network type, which is cached until
+     * the connectivity changes.  This should only be called while holding the {@link #LOCK}
+     */
+    private static String getNetworkKey(Context context) {
+        if (!networkReceiverRegistered) {
+            IntentFilter intentFilter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+            context.getApplicationContext().registerReceiver(new ConnectivityReceiver(), intentFilter);
+            networkReceiverRegistered = true;
+        }
+
+        if (networkKey == null) {
+            networkKey = EMNetworkUtil.getNetworkTypeKey(context);
+        }
+
+        return networkKey;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        if (preferences == null) {
+            preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        }
+
+        return preferences;
+    }
+
+    /**
+     * Clears the cached network key when the connectivity changes so that
+     * the estimates are stored for the correct network type
+     */
+    private static class ConnectivityReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            synchronized (LOCK) {
+                networkKey = null;
+            }
+        }
+    }
+}
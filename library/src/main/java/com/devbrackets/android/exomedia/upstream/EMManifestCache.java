@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A process wide cache for the HLS, DASH, and SmoothStreaming manifests.  Once initialized
+ * with {@link #initialize(Context)} the RenderBuilders will load their manifests through
+ * this cache, keeping the most recent manifests in memory and on disk.
+ * <p>
+ * Manifests for static (VOD) content are served directly from the cache until their
+ * time to live expires, after which they are conditionally refreshed using the
+ * <code>ETag</code> and <code>Last-Modified</code> values provided by the server.
+ * Manifests for live content are always conditionally refreshed, and are only kept in memory.
+ * <p>
+ * The disk cache is written on a background thread so that the main thread and the
+ * manifest refreshes aren't blocked on disk I/O, and is limited to {@value #MAX_DISK_SIZE}
+ * bytes by removing the least recently used manifests.
+ */
+public class EMManifestCache {
+    private static final String TAG = "EMManifestCache";
+    private static final String CACHE_DIRECTORY = "exomedia_manifests";
+    private static final int MAX_MEMORY_SIZE = 1024 * 1024;
+    private static final long MAX_DISK_SIZE = 4 * 1024 * 1024;
+    private static final int DISK_FORMAT_VERSION = 2;
+
+    public static final long DEFAULT_STATIC_TIME_TO_LIVE = 10 * 60 * 1000;
+
+    @Nullable
+    private static EMManifestCache instance;
+
+    private final File cacheDirectory;
+    private final LruCache<String, Entry> memoryCache;
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    private long staticTimeToLive = DEFAULT_STATIC_TIME_TO_LIVE;
+
+    /**
+     * Initializes the shared manifest cache.  If the cache has already been
+     * initialized then the existing instance will be returned.
+     *
+     * @param context The context to use for determining the cache directory
+     * @return The shared EMManifestCache
+     */
+    public static synchronized EMManifestCache initialize(Context context) {
+        if (instance == null) {
+            instance = new EMManifestCache(new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the shared manifest cache if it has been initialized
+     * with {@link #initialize(Context)}
+     *
+     * @return The shared EMManifestCache or null
+     */
+    @Nullable
+    public static synchronized EMManifestCache getInstance() {
+        return instance;
+    }
+
+    private EMManifestCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+
+        memoryCache = new LruCache<String, Entry>(MAX_MEMORY_SIZE) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.data.length;
+            }
+        };
+    }
+
+    /**
+     * Sets the amount of time a static (VOD) manifest will be served from the cache
+     * before it is refreshed.  If the server specifies a <code>max-age</code> for the
+     * manifest then that will be used instead.
+     *
+     * @param milliSeconds The time to live for static manifests [default: {@value #DEFAULT_STATIC_TIME_TO_LIVE}]
+     */
+    public void setStaticTimeToLive(long milliSeconds) {
+        staticTimeToLive = milliSeconds;
+    }
+
+    /**
+     * Retrieves the amount of time a static (VOD) manifest will be served from the cache
+     *
+     * @return The time to live in milliseconds
+     */
+    public long getStaticTimeToLive() {
+        return staticTimeToLive;
+    }
+
+    /**
+     * Creates the UriDataSource to use for loading the manifest at <code>manifestUrl</code>
+     * through this cache.  Any other uri requested through the returned DataSource will
+     * be loaded without caching.
+     *
+     * @param context The context to use for loading local manifests
+     * @param httpDataSource The HttpDataSource to use when requesting the manifest from the server
+     * @param manifestUrl The url for the manifest to cache
+     * @return The UriDataSource to use for loading the manifest
+     */
+    public UriDataSource createDataSource(Context context, HttpDataSource httpDataSource, String manifestUrl) {
+        return new ManifestCacheDataSource(this, context, httpDataSource, manifestUrl);
+    }
+
+    /**
+     * Informs the cache that the manifest at the <code>manifestUrl</code> represents static (VOD)
+     * content, allowing it to be served from the cache without refreshing.  This is
+     * called by the RenderBuilders once the manifest has been parsed, and is performed
+     * on a background thread.
+     *
+     * @param manifestUrl The url for the manifest
+     * @param isStatic True if the manifest represents static (VOD) content
+     */
+    public void setStatic(final String manifestUrl, final boolean isStatic) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = get(manifestUrl);
+                if (entry != null && entry.isStatic != isStatic) {
+                    put(new Entry(entry.url, entry.finalUrl, entry.data, entry.eTag, entry.lastModified, entry.maxAge, entry.fetchTime, isStatic));
+                }
+            }
+        });
+    }
+
+    /**
+     * Seeds the cache with the specified manifest.  This can be used when the manifest
+     * has been retrieved ahead of time (e.g. as part of a content api response).
+     *
+     * @param manifestUrl The url for the manifest
+     * @param data The contents of the manifest
+     * @param isStatic True if the manifest represents static (VOD) content
+     */
+    public void seed(String manifestUrl, byte[] data, boolean isStatic) {
+        put(new Entry(manifestUrl, manifestUrl, data, null, null, Entry.NO_MAX_AGE, System.currentTimeMillis(), isStatic));
+    }
+
+    /**
+     * Asynchronously loads the manifest at the <code>manifestUrl</code> in to the cache so
+     * that a later playback can skip the network request.
+     *
+     * @param context The context to use for loading local manifests
+     * @param httpDataSource The HttpDataSource to use when requesting the manifest from the server
+     * @param manifestUrl The url for the manifest to prefetch
+     */
+    public void prefetch(final Context context, final HttpDataSource httpDataSource, final String manifestUrl) {
+        prefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ManifestCacheDataSource dataSource = new ManifestCacheDataSource(EMManifestCache.this, context.getApplicationContext(), httpDataSource, manifestUrl);
+                try {
+                    dataSource.load();
+                } catch (IOException e) {
+                    Log.d(TAG, "Unable to prefetch the manifest " + manifestUrl, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the manifest at the <code>manifestUrl</code> from the memory and disk caches
+     *
+     * @param manifestUrl The url for the manifest to remove
+     */
+    public void remove(final String manifestUrl) {
+        memoryCache.remove(manifestUrl);
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //noinspection ResultOfMethodCallIgnored
+                getCacheFile(manifestUrl).delete();
+            }
+        });
+    }
+
+    /**
+     * Removes all the cached manifests from the memory and disk caches
+     */
+    public void clear() {
+        memoryCache.evictAll();
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = cacheDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Retrieves the cached entry for the <code>manifestUrl</code>, first checking the
+     * memory cache then falling back to the disk cache.  The disk cache is read
+     * without holding the cache lock so that other lookups aren't blocked.
+     *
+     * @param manifestUrl The url for the manifest
+     * @return The cached entry or null
+     */
+    @Nullable
+    Entry get(String manifestUrl) {
+        Entry entry = memoryCache.get(manifestUrl);
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = readEntry(manifestUrl);
+        if (entry == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            //Makes sure a newer entry wasn't stored while reading the disk cache
+            Entry currentEntry = memoryCache.get(manifestUrl);
+            if (currentEntry != null) {
+                return currentEntry;
+            }
+
+            memoryCache.put(manifestUrl, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Stores the <code>entry</code> in the memory cache, writing it to the disk cache on
+     * a background thread if it represents static (VOD) content.  Live manifests change
+     * with every refresh, so writing them to disk would only add I/O.
+     *
+     * @param entry The entry to store
+     */
+    void put(@NonNull final Entry entry) {
+        synchronized (this) {
+            memoryCache.put(entry.url, entry);
+        }
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //Makes sure a newer entry hasn't replaced this one, the newer entry will be written by its own task
+                Entry currentEntry = memoryCache.get(entry.url);
+                if (currentEntry != null && currentEntry != entry) {
+                    return;
+                }
+
+                if (entry.isStatic) {
+                    writeEntry(entry);
+                    trimDiskCache();
+                } else {
+                    //noinspection ResultOfMethodCallIgnored
+                    getCacheFile(entry.url).delete();
+                }
+            }
+        });
+    }
+
+    private File getCacheFile(String manifestUrl) {
+        return new File(cacheDirectory, Integer.toHexString(manifestUrl.hashCode()));
+    }
+
+    /**
+     * Removes the least recently used manifests from the disk cache until
+     * it is under {@link #MAX_DISK_SIZE}.  This should only be called on the
+     * {@link #diskExecutor}.
+     */
+    private void trimDiskCache() {
+        File[] files = cacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+
+        if (totalSize <= MAX_DISK_SIZE) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && totalSize > MAX_DISK_SIZE; i++) {
+            long fileSize = files[i].length();
+            if (files[i].delete()) {
+                totalSize -= fileSize;
+            }
+        }
+    }
+
+    @Nullable
+    private Entry readEntry(String manifestUrl) {
+        File file = getCacheFile(manifestUrl);
+        if (!file.exists()) {
+            return null;
+        }
+
+        //Marks the file as recently used for the disk cache trimming
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new FileInputStream(file));
+            if (inputStream.readInt() != DISK_FORMAT_VERSION) {
+                return null;
+            }
+
+            String url = inputStream.readUTF();
+            String finalUrl = inputStream.readUTF();
+            String eTag = inputStream.readBoolean() ? inputStream.readUTF() : null;
+            String lastModified = inputStream.readBoolean() ? inputStream.readUTF() : null;
+            long maxAge = inputStream.readLong();
+            long fetchTime = inputStream.readLong();
+            boolean isStatic = inputStream.readBoolean();
+
+            byte[] data = new byte[inputStream.readInt()];
+            inputStream.readFully(data);
+
+            //Handles hash collisions
+            return url.equals(manifestUrl) ? new Entry(url, finalUrl, data, eTag, lastModified, maxAge, fetchTime, isStatic) : null;
+        } catch (IOException e) {
+            Log.d(TAG, "Unable to read the cached manifest for " + manifestUrl, e);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private void writeEntry(Entry entry) {
+        if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+            return;
+        }
+
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new FileOutputStream(getCacheFile(entry.url)));
+            outputStream.writeInt(DISK_FORMAT_VERSION);
+            outputStream.writeUTF(entry.url);
+            outputStream.writeUTF(entry.finalUrl);
+
+            outputStream.writeBoolean(entry.eTag != null);
+            if (entry.eTag != null) {
+                outputStream.writeUTF(entry.eTag);
+            }
+
+            outputStream.writeBoolean(entry.lastModified != null);
+            if (entry.lastModified != null) {
+                outputStream.writeUTF(entry.lastModified);
+            }
+
+            outputStream.writeLong(entry.maxAge);
+            outputStream.writeLong(entry.fetchTime);
+            outputStream.writeBoolean(entry.isStatic);
+            outputStream.writeInt(entry.data.length);
+            outputStream.write(entry.data);
+        } catch (IOException e) {
+            Log.d(TAG, "Unable to write the cached manifest for " + entry.url, e);
+        } finally {
+            closeQuietly(outputStream);
+        }
+    }
+
+    private static void closeQuietly(@Nullable java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //Purposefully left blank
+            }
+        }
+    }
+
+    /**
+     * A cached manifest along with the information needed to
+     * determine when it needs to be refreshed.
+     */
+    static class Entry {
+        public static final long NO_MAX_AGE = -1;
+
+        public final String url;
+        public final String finalUrl;
+        public final byte[] data;
+        @Nullable
+        public final String eTag;
+        @Nullable
+        public final String lastModified;
+        public final long maxAge;
+        public final long fetchTime;
+        public final boolean isStatic;
+
+        /**
+         * @param url The url the manifest was requested from
+         * @param finalUrl The url the manifest was loaded from after any redirects
+         * @param data The contents of the manifest
+         * @param eTag The <code>ETag</code> provided by the server or null
+         * @param lastModified The <code>Last-Modified</code> time provided by the server or null
+         * @param maxAge The <code>max-age</code> in milliseconds provided by the server or {@link #NO_MAX_AGE}
+         * @param fetchTime The time the manifest was loaded or validated
+         * @param isStatic True if the manifest represents static (VOD) content
+         */
+        public Entry(String url, String finalUrl, byte[] data, @Nullable String eTag, @Nullable String lastModified, long maxAge, long fetchTime, boolean isStatic) {
+            this.url = url;
+            this.finalUrl = finalUrl;
+            this.data = data;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.maxAge = maxAge;
+            this.fetchTime = fetchTime;
+            this.isStatic = isStatic;
+        }
+
+        /**
+         * Determines if the entry can be used without contacting the server
+         *
+         * @param staticTimeToLive The default time to live for static entries
+         * @return True if the entry is still fresh
+         */
+        public boolean isFresh(long staticTimeToLive) {
+            if (!isStatic) {
+                return false;
+            }
+
+            long timeToLive = maxAge != NO_MAX_AGE ? maxAge : staticTimeToLive;
+            return System.currentTimeMillis() - fetchTime < timeToLive;
+        }
+
+        /**
+         * Creates a copy of this entry that has been re-validated by the server
+         *
+         * @return The refreshed entry
+         */
+        public Entry refresh() {
+            return new Entry(url, finalUrl, data, eTag, lastModified, maxAge, System.currentTimeMillis(), isStatic);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.devbrackets.android.exomedia.abr.ThroughputAbrStrategy;
+import com.devbrackets.android.exomedia.builder.SmoothStreamRenderBuilder;
+import com.devbrackets.android.exomedia.type.MediaSourceType;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSourceInputStream;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Warms the caches for an upcoming media item so that its playback can start
+ * without waiting on the network.  For HLS, DASH, and SmoothStreaming media the manifest
+ * is loaded in to the {@link EMManifestCache} followed by the first segments of the
+ * video variant that playback is expected to start with, and for progressive media
+ * the first bytes are loaded.  The media is loaded in to the {@link EMSegmentCache}
+ * and is bounded by the byte budget.
+ * <p>
+ * Only one item is prefetched at a time; requesting another item, or calling
+ * {@link #cancel()}, will stop the current prefetch.
+ */
+public class EMMediaPrefetcher {
+    private static final String TAG = "EMMediaPrefetcher";
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    public static final long DEFAULT_BYTE_BUDGET = 1024 * 1024;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private long byteBudget = DEFAULT_BYTE_BUDGET;
+    private DataSourceFactory dataSourceFactory = new EMPooledDataSourceFactory();
+
+    @Nullable
+    private String currentUrl;
+    @Nullable
+    private PrefetchTask currentTask;
+    @Nullable
+    private Future<?> currentFuture;
+
+    public EMMediaPrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Sets the maximum number of media bytes that will be loaded for a single item.
+     * This should roughly correspond to the first few seconds of the media.
+     *
+     * @param bytes The byte budget for each prefetch [default: {@value #DEFAULT_BYTE_BUDGET}]
+     */
+    public void setByteBudget(long bytes) {
+        byteBudget = bytes;
+    }
+
+    /**
+     * Retrieves the maximum number of media bytes that will be loaded for a single item
+     *
+     * @return The byte budget for each prefetch
+     */
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * Sets the factory used to create the HttpDataSources for the prefetch requests.
+     * This should be the same factory used by the RenderBuilders.
+     *
+     * @param dataSourceFactory The factory to use [default: {@link EMPooledDataSourceFactory}]
+     */
+    public void setDataSourceFactory(DataSourceFactory dataSourceFactory) {
+        this.dataSourceFactory = dataSourceFactory;
+    }
+
+    /**
+     * Starts warming the caches for the media at the <code>mediaUrl</code>, canceling any
+     * other prefetch that is in progress.  If the <code>mediaUrl</code> is already being
+     * prefetched then this call will be ignored.
+     *
+     * @param mediaUrl The url for the media to prefetch
+     * @param userAgent The user agent to use when requesting the media
+     */
+    public synchronized void prefetch(String mediaUrl, String userAgent) {
+        if (mediaUrl.equals(currentUrl)) {
+            return;
+        }
+
+        cancel();
+
+        Uri uri = Uri.parse(mediaUrl);
+        if (!EMSegmentCache.isNetworkUri(uri)) {
+            return;
+        }
+
+        currentUrl = mediaUrl;
+        currentTask = new PrefetchTask(uri, dataSourceFactory.createHttpDataSource(userAgent, null), byteBudget);
+        currentFuture = executor.submit(currentTask);
+    }
+
+    /**
+     * Stops the current prefetch.  Any data that has already been
+     * loaded will remain cached.
+     */
+    public synchronized void cancel() {
+        if (currentTask != null) {
+            currentTask.cancel();
+            currentTask = null;
+        }
+
+        if (currentFuture != null) {
+            currentFuture.cancel(true);
+            currentFuture = null;
+        }
+
+        currentUrl = null;
+    }
+
+    /**
+     * Cancels the current prefetch and releases the background thread.  The
+     * EMMediaPrefetcher shouldn't be used after this has been called.
+     */
+    public synchronized void release() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private class PrefetchTask implements Runnable {
+        private final Uri uri;
+        private final HttpDataSource httpDataSource;
+
+        private volatile boolean canceled;
+        private long bytesRemaining;
+
+        public PrefetchTask(Uri uri, HttpDataSource httpDataSource, long byteBudget) {
+            this.uri = uri;
+            this.httpDataSource = httpDataSource;
+
+            bytesRemaining = byteBudget;
+        }
+
+        public void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                switch (MediaSourceType.get(uri)) {
+                    case HLS:
+                        prefetchHlsSegments(prefetchManifest(uri.toString()));
+                        break;
+
+                    case DASH:
+                        prefetchDashSegments(prefetchManifest(uri.toString()));
+                        break;
+
+                    case SMOOTH_STREAM:
+                        prefetchSmoothStreamSegments(prefetchManifest(SmoothStreamRenderBuilder.getManifestUrl(uri.toString())));
+                        break;
+
+                    default:
+                        prefetchMedia(uri, 0, C.LENGTH_UNBOUNDED);
+                        break;
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Unable to prefetch " + uri, e);
+            }
+        }
+
+        @Nullable
+        private EMManifestCache.Entry prefetchManifest(String manifestUrl) throws IOException {
+            EMManifestCache manifestCache = EMManifestCache.getInstance();
+            if (manifestCache == null || canceled) {
+                return null;
+            }
+
+            return new ManifestCacheDataSource(manifestCache, context, httpDataSource, manifestUrl).load();
+        }
+
+        /**
+         * Loads the first segments of the variant the HlsChunkSource starts with, which
+         * is the first variant listed in the master playlist.  Live streams are skipped
+         * since playback starts near the end of the playlist, which will have moved on
+         * by the time the item is played.
+         */
+        private void prefetchHlsSegments(@Nullable EMManifestCache.Entry entry) throws IOException {
+            if (entry == null || !canPrefetchSegments()) {
+                return;
+            }
+
+            String playlistUrl = entry.finalUrl;
+            HlsPlaylist playlist = new HlsPlaylistParser().parse(playlistUrl, new ByteArrayInputStream(entry.data));
+
+            if (playlist instanceof HlsMasterPlaylist) {
+                List<Variant> variants = ((HlsMasterPlaylist) playlist).variants;
+                if (variants.isEmpty()) {
+                    return;
+                }
+
+                playlistUrl = UriUtil.resolve(playlistUrl, variants.get(0).url);
+                playlist = loadMediaPlaylist(playlistUrl);
+            }
+
+            if (!(playlist instanceof HlsMediaPlaylist) || ((HlsMediaPlaylist) playlist).live) {
+                return;
+            }
+
+            for (HlsMediaPlaylist.Segment segment : ((HlsMediaPlaylist) playlist).segments) {
+                if (!canPrefetchSegments()) {
+                    return;
+                }
+
+                long position = segment.byterangeLength != C.LENGTH_UNBOUNDED ? segment.byterangeOffset : 0;
+                prefetchMedia(Uri.parse(UriUtil.resolve(playlistUrl, segment.url)), position, segment.byterangeLength);
+            }
+        }
+
+        /**
+         * Loads the initialization data and first segments of the video representation
+         * the default {@link ThroughputAbrStrategy} would start with.  Dynamic (live)
+         * manifests are skipped.
+         */
+        private void prefetchDashSegments(@Nullable EMManifestCache.Entry entry) throws IOException {
+            if (entry == null || !canPrefetchSegments()) {
+                return;
+            }
+
+            MediaPresentationDescription manifest = new MediaPresentationDescriptionParser().parse(entry.finalUrl, new ByteArrayInputStream(entry.data));
+            if (manifest.dynamic || manifest.getPeriodCount() == 0) {
+                return;
+            }
+
+            for (AdaptationSet adaptationSet : manifest.getPeriod(0).adaptationSets) {
+                if (adaptationSet.type != AdaptationSet.TYPE_VIDEO || adaptationSet.representations.isEmpty()) {
+                    continue;
+                }
+
+                Format[] formats = new Format[adaptationSet.representations.size()];
+                for (int i = 0; i < formats.length; i++) {
+                    formats[i] = adaptationSet.representations.get(i).format;
+                }
+
+                Representation representation = adaptationSet.representations.get(selectFormatIndex(formats));
+                prefetchRangedUri(representation.getInitializationUri());
+                prefetchRangedUri(representation.getIndexUri());
+
+                DashSegmentIndex segmentIndex = representation.getIndex();
+                if (segmentIndex == null) {
+                    return;
+                }
+
+                int lastSegmentNum = segmentIndex.getLastSegmentNum(manifest.getPeriodDurationUs(0));
+                for (int i = segmentIndex.getFirstSegmentNum(); lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED || i <= lastSegmentNum; i++) {
+                    if (!canPrefetchSegments()) {
+                        return;
+                    }
+
+                    prefetchRangedUri(segmentIndex.getSegmentUrl(i));
+                }
+
+                return;
+            }
+        }
+
+        /**
+         * Loads the first chunks of the video track the default {@link ThroughputAbrStrategy}
+         * would start with.  Live manifests are skipped.
+         */
+        private void prefetchSmoothStreamSegments(@Nullable EMManifestCache.Entry entry) throws IOException {
+            if (entry == null || !canPrefetchSegments()) {
+                return;
+            }
+
+            SmoothStreamingManifest manifest = new SmoothStreamingManifestParser().parse(entry.finalUrl, new ByteArrayInputStream(entry.data));
+            if (manifest.isLive) {
+                return;
+            }
+
+            for (SmoothStreamingManifest.StreamElement element : manifest.streamElements) {
+                if (element.type != SmoothStreamingManifest.StreamElement.TYPE_VIDEO || element.tracks.length == 0) {
+                    continue;
+                }
+
+                Format[] formats = new Format[element.tracks.length];
+                for (int i = 0; i < formats.length; i++) {
+                    formats[i] = element.tracks[i].format;
+                }
+
+                int trackIndex = selectFormatIndex(formats);
+                for (int i = 0; i < element.chunkCount; i++) {
+                    if (!canPrefetchSegments()) {
+                        return;
+                    }
+
+                    prefetchMedia(element.buildRequestUri(trackIndex, i), 0, C.LENGTH_UNBOUNDED);
+                }
+
+                return;
+            }
+        }
+
+        /**
+         * Determines the format the default {@link ThroughputAbrStrategy} would start
+         * playback with, using the remembered bandwidth estimate for the current network
+         *
+         * @param formats The available formats
+         * @return The index of the selected format in <code>formats</code>
+         */
+        private int selectFormatIndex(Format[] formats) {
+            Format[] sortedFormats = Arrays.copyOf(formats, formats.length);
+            Arrays.sort(sortedFormats, new Format.DecreasingBandwidthComparator());
+
+            Format selected = new ThroughputAbrStrategy().getSustainableFormat(sortedFormats, EMBandwidthMeter.getPersistedEstimate(context));
+            for (int i = 0; i < formats.length; i++) {
+                if (formats[i] == selected) {
+                    return i;
+                }
+            }
+
+            return 0;
+        }
+
+        private HlsPlaylist loadMediaPlaylist(String playlistUrl) throws IOException {
+            DataSourceInputStream inputStream = new DataSourceInputStream(new DefaultUriDataSource(context, null, httpDataSource), new DataSpec(Uri.parse(playlistUrl)));
+            try {
+                return new HlsPlaylistParser().parse(playlistUrl, inputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        private boolean canPrefetchSegments() {
+            return !canceled && bytesRemaining > 0 && EMSegmentCache.getInstance() != null;
+        }
+
+        private void prefetchRangedUri(@Nullable RangedUri rangedUri) throws IOException {
+            if (rangedUri != null && canPrefetchSegments()) {
+                prefetchMedia(rangedUri.getUri(), rangedUri.start, rangedUri.length);
+            }
+        }
+
+        /**
+         * Loads the media in to the {@link EMSegmentCache}, stopping once the
+         * remaining byte budget has been used
+         *
+         * @param mediaUri The uri for the media or segment to load
+         * @param position The position of the first byte to load
+         * @param length The number of bytes to load or {@link C#LENGTH_UNBOUNDED}
+         */
+        private void prefetchMedia(Uri mediaUri, long position, long length) throws IOException {
+            EMSegmentCache segmentCache = EMSegmentCache.getInstance();
+            if (segmentCache == null || bytesRemaining <= 0 || canceled) {
+                return;
+            }
+
+            long requestLength = length == C.LENGTH_UNBOUNDED ? bytesRemaining : Math.min(length, bytesRemaining);
+            DataSource dataSource = segmentCache.createDataSource(new DefaultUriDataSource(context, null, httpDataSource));
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+            try {
+                dataSource.open(new DataSpec(mediaUri, position, requestLength, null));
+
+                int bytesRead;
+                while (!canceled && (bytesRead = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                    bytesRemaining -= bytesRead;
+                }
+            } finally {
+                dataSource.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * The default {@link DataSourceFactory} used by the RenderBuilders.  The created
+ * HttpDataSources request persistent connections and finish reading any small
+ * remainder of a response before closing, allowing the platform connection pool to
+ * reuse the connection (and TLS session) for the next manifest, segment, or caption request
+ * instead of performing a new handshake.
+ * <p>
+ * The pooling itself is performed by the platform HttpURLConnection, which keeps connections
+ * alive by default.  The pool is configured through the process wide <code>http.keepAlive</code>
+ * and <code>http.maxConnections</code> system properties, which are left for the application to set.
+ */
+public class EMPooledDataSourceFactory implements DataSourceFactory {
+    public static final int DEFAULT_MAX_DRAIN_BYTES = 16 * 1024;
+
+    private final int maxDrainBytes;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public EMPooledDataSourceFactory() {
+        this(DEFAULT_MAX_DRAIN_BYTES, DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxDrainBytes The maximum number of unread response bytes that will be read when closing
+     *                      to allow the connection to be reused
+     * @param connectTimeoutMillis The connection timeout in milliseconds
+     * @param readTimeoutMillis The read timeout in milliseconds
+     */
+    public EMPooledDataSourceFactory(int maxDrainBytes, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.maxDrainBytes = maxDrainBytes;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public HttpDataSource createHttpDataSource(String userAgent, @Nullable TransferListener transferListener) {
+        return new KeepAliveHttpDataSource(userAgent, transferListener, connectTimeoutMillis, readTimeoutMillis, maxDrainBytes);
+    }
+
+    /**
+     * A DefaultHttpDataSource that makes sure its connection can be
+     * returned to the connection pool once closed.
+     */
+    private static class KeepAliveHttpDataSource extends DefaultHttpDataSource {
+        private final int maxDrainBytes;
+        private final byte[] drainBuffer = new byte[4096];
+
+        public KeepAliveHttpDataSource(String userAgent, @Nullable TransferListener listener, int connectTimeoutMillis, int readTimeoutMillis, int maxDrainBytes) {
+            super(userAgent, null, listener, connectTimeoutMillis, readTimeoutMillis, true);
+            this.maxDrainBytes = maxDrainBytes;
+
+            setRequestProperty("Connection", "Keep-Alive");
+        }
+
+        @Override
+        public void close() throws HttpDataSourceException {
+            //A connection with unread data can't be reused, so we read small remainders
+            long remaining = bytesRemaining();
+            HttpURLConnection connection = getConnection();
+            if (connection != null && remaining > 0 && remaining <= maxDrainBytes) {
+                try {
+                    drain(connection.getInputStream(), remaining);
+                } catch (IOException e) {
+                    //Purposefully left blank, the connection will be closed instead of reused
+                }
+            }
+
+            super.close();
+        }
+
+        /**
+         * Reads the remaining response directly from the connection so that the
+         * drained bytes aren't reported to the TransferListener (bandwidth meter)
+         */
+        private void drain(InputStream inputStream, long remaining) throws IOException {
+            while (remaining > 0) {
+                int read = inputStream.read(drainBuffer, 0, (int) Math.min(drainBuffer.length, remaining));
+                if (read == -1) {
+                    return;
+                }
+
+                remaining -= read;
+            }
+        }
+    }
+}
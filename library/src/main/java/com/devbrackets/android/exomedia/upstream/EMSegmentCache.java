@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSink;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.FileDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process wide, size bounded, disk cache for media segments.  Once initialized
+ * with {@link #initialize(Context, long)} all of the RenderBuilders will read
+ * network media through this cache, allowing replays, rewinds, and additional
+ * players of the same media to avoid downloading the bytes again.
+ * <p>
+ * Entries are keyed by the media uri and byte range, and the least recently used
+ * entries will be evicted once the maximum size has been reached.
+ */
+public class EMSegmentCache {
+    private static final String CACHE_DIRECTORY = "exomedia_segments";
+    private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+    public static final long DEFAULT_MAX_SIZE = 100 * 1024 * 1024;
+
+    @Nullable
+    private static EMSegmentCache instance;
+
+    private final Cache cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Initializes the shared segment cache with the {@link #DEFAULT_MAX_SIZE}.
+     *
+     * @param context The context to use for determining the cache directory
+     * @return The shared EMSegmentCache
+     */
+    public static EMSegmentCache initialize(Context context) {
+        return initialize(context, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Initializes the shared segment cache.  If the cache has already been initialized
+     * then the existing instance will be returned.
+     *
+     * @param context The context to use for determining the cache directory
+     * @param maxBytes The maximum amount of disk space the cache can use
+     * @return The shared EMSegmentCache
+     */
+    public static synchronized EMSegmentCache initialize(Context context, long maxBytes) {
+        if (instance == null) {
+            File cacheDirectory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY);
+            instance = new EMSegmentCache(new SimpleCache(cacheDirectory, new LeastRecentlyUsedCacheEvictor(maxBytes)));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the shared segment cache if it has been initialized
+     * with {@link #initialize(Context, long)}
+     *
+     * @return The shared EMSegmentCache or null
+     */
+    @Nullable
+    public static synchronized EMSegmentCache getInstance() {
+        return instance;
+    }
+
+    private EMSegmentCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Wraps the <code>upstream</code> DataSource so that any network media will be
+     * read from, and written to, this cache.  Local media will be read directly
+     * from the <code>upstream</code> DataSource.
+     *
+     * @param upstream The DataSource to use when the requested data isn't cached
+     * @return The DataSource that reads through this cache
+     */
+    public DataSource createDataSource(DataSource upstream) {
+        return new SegmentCacheDataSource(upstream);
+    }
+
+    /**
+     * Retrieves the amount of disk space currently used by the cache
+     *
+     * @return The number of bytes used by the cache
+     */
+    public long getCacheSpace() {
+        return cache.getCacheSpace();
+    }
+
+    /**
+     * Retrieves the number of network requests that were fully served from the cache
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Retrieves the number of network requests that needed to contact the server
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Retrieves the total number of bytes that have been read through the cache,
+     * including the ones that were loaded from the network.
+     *
+     * @return The number of bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Retrieves the number of bytes that were read from the cache instead
+     * of the network.
+     *
+     * @return The number of bytes saved
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Resets the hit, miss, and byte counters
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        bytesRead.set(0);
+        bytesSaved.set(0);
+    }
+
+    /**
+     * Determines if the media represented by the uri should be cached.  Only
+     * network media is cached, since local media would only be duplicated.
+     * Playlists and manifests (HLS, DASH, and SmoothStreaming) are also excluded
+     * since the live ones are refreshed from the same uri; these are handled by
+     * the {@link EMManifestCache} instead.
+     *
+     * @param uri The uri for the media
+     * @return True if the media should be read through the cache
+     */
+    protected static boolean isCacheable(@NonNull Uri uri) {
+        return isNetworkUri(uri) && !isManifestUri(uri);
+    }
+
+    /**
+     * Determines if the uri represents a playlist or manifest instead of media
+     *
+     * @param uri The uri to check
+     * @return True if the uri is for an HLS playlist, DASH manifest, or SmoothStreaming manifest
+     */
+    static boolean isManifestUri(@NonNull Uri uri) {
+        String path = uri.getPath();
+        if (path == null) {
+            return false;
+        }
+
+        path = Util.toLowerInvariant(path);
+        return path.endsWith(".m3u8") || path.endsWith(".mpd") || path.endsWith("/manifest");
+    }
+
+    /**
+     * Determines if the uri represents network (http or https) media
+     *
+     * @param uri The uri to check
+     * @return True if the uri uses the http or https scheme
+     */
+    static boolean isNetworkUri(@NonNull Uri uri) {
+        String scheme = uri.getScheme();
+        return scheme != null && (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"));
+    }
+
+    /**
+     * A DataSource that reads network media through the {@link CacheDataSource} while
+     * recording the hit, miss, and byte statistics for the EMSegmentCache
+     */
+    private class SegmentCacheDataSource implements DataSource, CacheDataSource.EventListener {
+        private final DataSource upstream;
+        private final CacheDataSource cacheDataSource;
+
+        @Nullable
+        private DataSource currentDataSource;
+
+        public SegmentCacheDataSource(DataSource upstream) {
+            this.upstream = upstream;
+
+            DataSink cacheSink = new CacheDataSink(cache, MAX_CACHE_FILE_SIZE);
+            cacheDataSource = new CacheDataSource(cache, upstream, new FileDataSource(), cacheSink, false, true, this);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (!isCacheable(dataSpec.uri)) {
+                currentDataSource = upstream;
+                return upstream.open(dataSpec);
+            }
+
+            //The DASH keys are shared by every segment of a representation, so the uri is used instead
+            dataSpec = new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, dataSpec.position, dataSpec.length,
+                    dataSpec.uri.toString(), dataSpec.flags);
+
+            long length = dataSpec.length == C.LENGTH_UNBOUNDED ? 1 : dataSpec.length;
+            if (cache.isCached(dataSpec.key, dataSpec.position, length)) {
+                hitCount.incrementAndGet();
+            } else {
+                missCount.incrementAndGet();
+            }
+
+            currentDataSource = cacheDataSource;
+            return cacheDataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            if (currentDataSource == null) {
+                return C.RESULT_END_OF_INPUT;
+            }
+
+            int read = currentDataSource.read(buffer, offset, readLength);
+            if (read > 0 && currentDataSource == cacheDataSource) {
+                bytesRead.addAndGet(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (currentDataSource != null) {
+                try {
+                    currentDataSource.close();
+                } finally {
+                    currentDataSource = null;
+                }
+            }
+        }
+
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            bytesSaved.addAndGet(cachedBytesRead);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+
+/**
+ * A UriDataSource that reads local files through the {@link MappedFileDataSource}
+ * and all other uris (network, assets, content) through the {@link DefaultUriDataSource}.
+ * <p>
+ * Local file reads aren't reported to the TransferListener, since they don't
+ * represent the network bandwidth.
+ */
+public class EMUriDataSource implements UriDataSource {
+    private final UriDataSource fileDataSource;
+    private final UriDataSource defaultDataSource;
+
+    @Nullable
+    private UriDataSource currentDataSource;
+
+    public EMUriDataSource(Context context, @Nullable TransferListener transferListener, HttpDataSource httpDataSource) {
+        fileDataSource = new MappedFileDataSource();
+        defaultDataSource = new DefaultUriDataSource(context, transferListener, httpDataSource);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        currentDataSource = isLocalFile(dataSpec.uri) ? fileDataSource : defaultDataSource;
+        return currentDataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        return currentDataSource != null ? currentDataSource.read(buffer, offset, readLength) : C.RESULT_END_OF_INPUT;
+    }
+
+    @Override
+    public String getUri() {
+        return currentDataSource != null ? currentDataSource.getUri() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (currentDataSource != null) {
+            try {
+                currentDataSource.close();
+            } finally {
+                currentDataSource = null;
+            }
+        }
+    }
+
+    /**
+     * Determines if the uri represents a file on the device, matching the file
+     * handling of the {@link DefaultUriDataSource}
+     *
+     * @param uri The uri to check
+     * @return True if the uri represents a local file
+     */
+    private static boolean isLocalFile(Uri uri) {
+        String scheme = uri.getScheme();
+        if (scheme != null && !scheme.equalsIgnoreCase("file")) {
+            return false;
+        }
+
+        //Android assets are referenced with file uris but need to be read through the AssetManager
+        String path = uri.getPath();
+        return path != null && !path.startsWith("/android_asset/");
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A UriDataSource that loads the manifest through the {@link EMManifestCache}.  Fresh
+ * cached manifests are returned without contacting the server, otherwise a conditional
+ * request is made so that an unchanged manifest only costs a <code>304</code> response.
+ * Manifests the server marks as <code>no-store</code> aren't cached, and ones marked as
+ * <code>no-cache</code> are always conditionally refreshed.
+ */
+class ManifestCacheDataSource implements UriDataSource {
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String MAX_AGE = "max-age=";
+    private static final String NO_STORE = "no-store";
+    private static final String NO_CACHE = "no-cache";
+
+    private final EMManifestCache manifestCache;
+    private final String manifestUrl;
+    private final HttpDataSource httpDataSource;
+    private final UriDataSource uriDataSource;
+
+    @Nullable
+    private UriDataSource currentDataSource;
+    @Nullable
+    private String currentUri;
+    @Nullable
+    private byte[] data;
+    private int readPosition;
+    private int bytesRemaining;
+
+    public ManifestCacheDataSource(EMManifestCache manifestCache, Context context, HttpDataSource httpDataSource, String manifestUrl) {
+        this.manifestCache = manifestCache;
+        this.manifestUrl = manifestUrl;
+        this.httpDataSource = httpDataSource;
+
+        uriDataSource = new DefaultUriDataSource(context, null, httpDataSource);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        if (!isCacheable(dataSpec.uri)) {
+            currentDataSource = uriDataSource;
+            return uriDataSource.open(dataSpec);
+        }
+
+        EMManifestCache.Entry entry = manifestCache.get(manifestUrl);
+        if (entry == null || !entry.isFresh(manifestCache.getStaticTimeToLive())) {
+            entry = load();
+        }
+
+        data = entry.data;
+        currentUri = entry.finalUrl;
+        readPosition = (int) Math.min(dataSpec.position, data.length);
+        bytesRemaining = data.length - readPosition;
+        if (dataSpec.length != C.LENGTH_UNBOUNDED) {
+            bytesRemaining = (int) Math.min(bytesRemaining, dataSpec.length);
+        }
+
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (currentDataSource != null) {
+            return currentDataSource.read(buffer, offset, readLength);
+        }
+
+        if (data == null || bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        int length = Math.min(readLength, bytesRemaining);
+        System.arraycopy(data, readPosition, buffer, offset, length);
+        readPosition += length;
+        bytesRemaining -= length;
+
+        return length;
+    }
+
+    @Override
+    public String getUri() {
+        return currentDataSource != null ? currentDataSource.getUri() : currentUri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        data = null;
+        currentUri = null;
+
+        if (currentDataSource != null) {
+            try {
+                currentDataSource.close();
+            } finally {
+                currentDataSource = null;
+            }
+        }
+    }
+
+    /**
+     * Loads the manifest from the server, making a conditional request when a
+     * previous version is cached.  The result is stored in the {@link EMManifestCache}
+     * unless the server prohibits it.
+     *
+     * @return The up-to-date cache entry for the manifest
+     * @throws IOException If the manifest could not be loaded
+     */
+    EMManifestCache.Entry load() throws IOException {
+        EMManifestCache.Entry cachedEntry = manifestCache.get(manifestUrl);
+        if (cachedEntry != null && cachedEntry.eTag != null) {
+            httpDataSource.setRequestProperty(HEADER_IF_NONE_MATCH, cachedEntry.eTag);
+        }
+
+        if (cachedEntry != null && cachedEntry.lastModified != null) {
+            httpDataSource.setRequestProperty(HEADER_IF_MODIFIED_SINCE, cachedEntry.lastModified);
+        }
+
+        EMManifestCache.Entry entry;
+        try {
+            uriDataSource.open(new DataSpec(Uri.parse(manifestUrl)));
+
+            //The final uri is used as the base for relative segment urls, so it needs to account for redirects
+            String finalUrl = uriDataSource.getUri();
+            byte[] manifestData = readFully();
+            Map<String, List<String>> headers = httpDataSource.getResponseHeaders();
+
+            String cacheControl = getHeader(headers, HEADER_CACHE_CONTROL);
+            boolean isStatic = cachedEntry != null && cachedEntry.isStatic;
+            entry = new EMManifestCache.Entry(manifestUrl, finalUrl != null ? finalUrl : manifestUrl, manifestData, getHeader(headers, HEADER_ETAG),
+                    getHeader(headers, HEADER_LAST_MODIFIED), getMaxAge(cacheControl), System.currentTimeMillis(), isStatic);
+
+            if (hasDirective(cacheControl, NO_STORE)) {
+                manifestCache.remove(manifestUrl);
+                return entry;
+            }
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            if (cachedEntry == null || e.responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                throw e;
+            }
+
+            entry = cachedEntry.refresh();
+        } finally {
+            uriDataSource.close();
+            httpDataSource.clearRequestProperty(HEADER_IF_NONE_MATCH);
+            httpDataSource.clearRequestProperty(HEADER_IF_MODIFIED_SINCE);
+        }
+
+        manifestCache.put(entry);
+        return entry;
+    }
+
+    private byte[] readFully() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        int read;
+        while ((read = uriDataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            outputStream.write(buffer, 0, read);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private boolean isCacheable(Uri uri) {
+        return manifestUrl.equals(uri.toString()) && EMSegmentCache.isNetworkUri(uri);
+    }
+
+    @Nullable
+    private static String getHeader(@Nullable Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean hasDirective(@Nullable String cacheControl, String name) {
+        if (cacheControl == null) {
+            return false;
+        }
+
+        for (String directive : cacheControl.split(",")) {
+            if (name.equalsIgnoreCase(directive.trim())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long getMaxAge(@Nullable String cacheControl) {
+        if (cacheControl == null) {
+            return EMManifestCache.Entry.NO_MAX_AGE;
+        }
+
+        //The manifest can be stored but always needs to be validated by the server
+        if (hasDirective(cacheControl, NO_CACHE)) {
+            return 0;
+        }
+
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith(MAX_AGE)) {
+                try {
+                    return Long.parseLong(directive.substring(MAX_AGE.length())) * 1000;
+                } catch (NumberFormatException e) {
+                    return EMManifestCache.Entry.NO_MAX_AGE;
+                }
+            }
+        }
+
+        return EMManifestCache.Entry.NO_MAX_AGE;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A UriDataSource for local files that reads through memory mapped regions of the file
+ * instead of stream reads.  This avoids a system call and an intermediate copy for
+ * every read.
+ * <p>
+ * The file is mapped in windows of {@link #MAP_WINDOW_SIZE} bytes, aligned to the window
+ * size.  The most recently used windows are kept across {@link #close()} and {@link #open(DataSpec)}
+ * for the same (unmodified) file, so the reopen performed for every seek and load doesn't
+ * re-map the file.  To limit the address space used only {@link #MAX_MAPPED_WINDOWS} windows
+ * are kept; the platform doesn't allow the mappings to be released explicitly, so the dropped
+ * windows are unmapped once they are garbage collected.
+ */
+public class MappedFileDataSource implements UriDataSource {
+    public static final long MAP_WINDOW_SIZE = 16 * 1024 * 1024;
+    public static final int MAX_MAPPED_WINDOWS = 2;
+
+    private final List<MappedWindow> mappedWindows = new ArrayList<>(MAX_MAPPED_WINDOWS);
+    @Nullable
+    private String mappedPath;
+    private long mappedFileModified;
+
+    @Nullable
+    private ByteBuffer currentBuffer;
+    @Nullable
+    private String uri;
+    @Nullable
+    private String path;
+
+    private long fileLength;
+    private long position;
+    private long bytesRemaining;
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        path = dataSpec.uri.getPath();
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(path);
+        }
+
+        //The mapped windows can only be reused if the file hasn't changed
+        fileLength = file.length();
+        long modified = file.lastModified();
+        if (!path.equals(mappedPath) || modified != mappedFileModified) {
+            mappedWindows.clear();
+            mappedPath = path;
+            mappedFileModified = modified;
+        }
+
+        position = dataSpec.position;
+        if (position > fileLength) {
+            throw new EOFException();
+        }
+
+        bytesRemaining = dataSpec.length == C.LENGTH_UNBOUNDED ? fileLength - position : dataSpec.length;
+        if (bytesRemaining < 0 || position + bytesRemaining > fileLength) {
+            throw new EOFException();
+        }
+
+        uri = dataSpec.uri.toString();
+        currentBuffer = null;
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (bytesRemaining == 0 || uri == null) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        if (currentBuffer == null || !currentBuffer.hasRemaining()) {
+            currentBuffer = getWindowBuffer(position);
+        }
+
+        int length = (int) Math.min(Math.min(readLength, bytesRemaining), currentBuffer.remaining());
+        currentBuffer.get(buffer, offset, length);
+
+        position += length;
+        bytesRemaining -= length;
+        return length;
+    }
+
+    @Override
+    public String getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        //The mapped windows are purposefully kept so that they can be used by the next open
+        uri = null;
+        currentBuffer = null;
+    }
+
+    /**
+     * Retrieves a buffer for the window containing the <code>startPosition</code>, positioned
+     * at the <code>startPosition</code>.  If the window isn't already mapped it will be, replacing
+     * the least recently used window.
+     *
+     * @param startPosition The position in the file to read from
+     * @return The buffer to read from
+     * @throws IOException If the file could not be mapped
+     */
+    private ByteBuffer getWindowBuffer(long startPosition) throws IOException {
+        MappedWindow window = null;
+        for (int i = 0; i < mappedWindows.size(); i++) {
+            if (mappedWindows.get(i).contains(startPosition)) {
+                window = mappedWindows.remove(i);
+                break;
+            }
+        }
+
+        if (window == null) {
+            window = mapWindow((startPosition / MAP_WINDOW_SIZE) * MAP_WINDOW_SIZE);
+            if (mappedWindows.size() >= MAX_MAPPED_WINDOWS) {
+                mappedWindows.remove(0);
+            }
+        }
+
+        mappedWindows.add(window);
+
+        //Each open reads through its own view so the window's position isn't shared
+        ByteBuffer buffer = window.buffer.duplicate();
+        buffer.position((int) (startPosition - window.start));
+        return buffer;
+    }
+
+    /**
+     * Maps the window of the file starting at the <code>windowStart</code>.  The mapping
+     * remains valid once the file is closed, so the file isn't kept open.
+     */
+    private MappedWindow mapWindow(long windowStart) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            long windowSize = Math.min(MAP_WINDOW_SIZE, fileLength - windowStart);
+            return new MappedWindow(windowStart, file.getChannel().map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize));
+        } finally {
+            file.close();
+        }
+    }
+
+    private static class MappedWindow {
+        private final long start;
+        private final MappedByteBuffer buffer;
+
+        public MappedWindow(long start, MappedByteBuffer buffer) {
+            this.start = start;
+            this.buffer = buffer;
+        }
+
+        public boolean contains(long position) {
+            return position >= start && position < start + buffer.capacity();
+        }
+    }
+}
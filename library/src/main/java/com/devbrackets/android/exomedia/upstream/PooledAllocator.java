@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.upstream;
+
+import com.devbrackets.android.exomedia.util.EMMemoryGovernor;
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+
+/**
+ * An Allocator for a single player that obtains its segments from the shared
+ * {@link EMAllocatorPool}.  The allocated byte count is tracked per instance so
+ * that each LoadControl continues to see only its own usage.
+ * <p>
+ * While the {@link EMMemoryGovernor} has reduced the buffers, the reported usage is
+ * scaled up accordingly so that the LoadControls and ExtractorSampleSources stop
+ * loading once the reduced buffer size has been reached.
+ */
+class PooledAllocator implements Allocator, EMMemoryGovernor.OnBufferScaleChangedListener {
+    private final EMAllocatorPool pool;
+    private final EMMemoryGovernor memoryGovernor;
+    private final int segmentSize;
+
+    private int allocatedCount;
+
+    public PooledAllocator(EMAllocatorPool pool, EMMemoryGovernor memoryGovernor) {
+        this.pool = pool;
+        this.memoryGovernor = memoryGovernor;
+        this.segmentSize = pool.getSegmentSize();
+
+        memoryGovernor.addOnBufferScaleChangedListener(this);
+    }
+
+    @Override
+    public Allocation allocate() {
+        byte[] segment = pool.obtain();
+
+        synchronized (this) {
+            allocatedCount++;
+        }
+
+        return new Allocation(segment, 0);
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+        pool.recycle(allocation.data);
+
+        synchronized (this) {
+            allocatedCount--;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void release(Allocation[] allocations) {
+        for (Allocation allocation : allocations) {
+            pool.recycle(allocation.data);
+        }
+
+        synchronized (this) {
+            allocatedCount -= allocations.length;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void trim(int targetSize) {
+        //Purposefully left blank, released segments are already returned to the shared pool
+    }
+
+    @Override
+    public synchronized void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+        while (getTotalBytesAllocated() > limit) {
+            wait();
+        }
+    }
+
+    @Override
+    public synchronized int getTotalBytesAllocated() {
+        return (int) (allocatedCount * segmentSize / memoryGovernor.getBufferScale());
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+        return segmentSize;
+    }
+
+    @Override
+    public synchronized void onBufferScaleChanged(float bufferScale) {
+        //Wakes the loaders blocked on the previous (reduced) buffer size
+        notifyAll();
+    }
+}
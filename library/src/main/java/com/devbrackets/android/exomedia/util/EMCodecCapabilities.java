@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.exoplayer.DecoderInfo;
+import com.google.android.exoplayer.MediaCodecUtil;
+import com.google.android.exoplayer.util.MimeTypes;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A cache of the decoder capabilities for the device, persisted between app launches
+ * and keyed by the {@link Build#FINGERPRINT} so that a system update causes the
+ * capabilities to be queried again.  Querying the MediaCodecList can take hundreds of
+ * milliseconds on some devices, which would otherwise block the first prepare.
+ * <p>
+ * The cache is loaded on a background thread by {@link #initialize(Context)}, which should be
+ * called at app start.  Once loaded the RenderBuilders select the video formats with
+ * {@link #isVideoSizeSupported(String, int, int)} instead of querying the {@link MediaCodecUtil}.
+ * A failed query isn't persisted, so it will be retried on the next app launch.
+ */
+public class EMCodecCapabilities {
+    private static final String TAG = "EMCodecCapabilities";
+    private static final String PREFERENCES_NAME = "exomedia_codecs";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAPABILITIES = "capabilities";
+
+    private static final String JSON_MAX_H264_FRAME_SIZE = "maxH264FrameSize";
+    private static final String JSON_DECODERS = "decoders";
+
+    public static final int UNKNOWN_FRAME_SIZE = -1;
+
+    private static final String[] QUERIED_MIME_TYPES = new String[] {
+            MimeTypes.VIDEO_H264,
+            MimeTypes.VIDEO_H265,
+            MimeTypes.VIDEO_VP9,
+            MimeTypes.AUDIO_AAC,
+            MimeTypes.AUDIO_AC3,
+            MimeTypes.AUDIO_E_AC3
+    };
+
+    @Nullable
+    private static EMCodecCapabilities instance;
+
+    private final SharedPreferences preferences;
+    private final Map<String, DecoderCapabilities> decoders = new HashMap<>();
+
+    private volatile boolean loaded = false;
+    private int maxH264FrameSize = UNKNOWN_FRAME_SIZE;
+
+    /**
+     * Initializes the codec capability cache, loading the capabilities on a background
+     * thread.  If the cache has already been initialized then the existing instance
+     * will be returned.
+     *
+     * @param context The context to use for accessing the persisted capabilities
+     * @return The shared EMCodecCapabilities
+     */
+    public static synchronized EMCodecCapabilities initialize(Context context) {
+        if (instance == null) {
+            instance = new EMCodecCapabilities(context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+            instance.loadAsync();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the codec capability cache if it has been initialized
+     * with {@link #initialize(Context)}
+     *
+     * @return The shared EMCodecCapabilities or null
+     */
+    @Nullable
+    public static synchronized EMCodecCapabilities getInstance() {
+        return instance;
+    }
+
+    private EMCodecCapabilities(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    /**
+     * Determines if the capabilities have been loaded, either restored from the
+     * persisted cache or successfully queried
+     *
+     * @return True if the capabilities are available
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Retrieves the maximum frame size (width * height) the H.264 decoder supports
+     *
+     * @return The maximum frame size or {@link #UNKNOWN_FRAME_SIZE} if the capabilities haven't loaded
+     */
+    public synchronized int getMaxH264FrameSize() {
+        return maxH264FrameSize;
+    }
+
+    /**
+     * Retrieves the capabilities of the decoder for the <code>mimeType</code>
+     *
+     * @param mimeType The mime type to find the decoder for (e.g. {@link MimeTypes#VIDEO_H264})
+     * @return The capabilities of the decoder or null if there is no decoder or the capabilities haven't loaded
+     */
+    @Nullable
+    public synchronized DecoderCapabilities getDecoder(String mimeType) {
+        return decoders.get(mimeType);
+    }
+
+    /**
+     * Determines if the decoder for the video <code>mimeType</code> can decode video of the
+     * specified size.  For H.264 this uses the maximum frame size, for the other queried
+     * mime types the maximum width and height of the decoder (when known) are used.  Mime types
+     * that weren't queried are assumed to be supported.
+     *
+     * @param mimeType The video mime type (e.g. {@link MimeTypes#VIDEO_H264})
+     * @param width The width of the video
+     * @param height The height of the video
+     * @return True if the video size is supported
+     */
+    public synchronized boolean isVideoSizeSupported(String mimeType, int width, int height) {
+        if (MimeTypes.VIDEO_H264.equals(mimeType) && maxH264FrameSize != UNKNOWN_FRAME_SIZE) {
+            return width * height <= maxH264FrameSize;
+        }
+
+        DecoderCapabilities decoder = decoders.get(mimeType);
+        if (decoder == null) {
+            return !isQueriedMimeType(mimeType);
+        }
+
+        return decoder.getMaxWidth() == DecoderCapabilities.UNKNOWN_SIZE || decoder.getMaxHeight() == DecoderCapabilities.UNKNOWN_SIZE
+                || (width <= decoder.getMaxWidth() && height <= decoder.getMaxHeight());
+    }
+
+    /**
+     * Removes the persisted capabilities so that they will be queried again
+     * on the next app launch
+     */
+    public void clear() {
+        preferences.edit().clear().apply();
+    }
+
+    private void loadAsync() {
+        Thread loadThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (restore()) {
+                    loaded = true;
+                    return;
+                }
+
+                //A failed query is left for the MediaCodecUtil to retry instead of being persisted
+                if (query()) {
+                    persist();
+                    loaded = true;
+                }
+            }
+        }, TAG);
+
+        loadThread.setPriority(Thread.MIN_PRIORITY);
+        loadThread.start();
+    }
+
+    /**
+     * Restores the persisted capabilities if they were stored by the same build.  Capabilities
+     * persisted without a maximum H.264 frame size (from a failed query) are ignored.
+     *
+     * @return True if the capabilities were restored
+     */
+    private boolean restore() {
+        String capabilities = preferences.getString(KEY_CAPABILITIES, null);
+        if (capabilities == null || !Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+            return false;
+        }
+
+        try {
+            JSONObject json = new JSONObject(capabilities);
+            JSONObject jsonDecoders = json.getJSONObject(JSON_DECODERS);
+
+            int restoredMaxH264FrameSize = json.getInt(JSON_MAX_H264_FRAME_SIZE);
+            if (restoredMaxH264FrameSize == UNKNOWN_FRAME_SIZE) {
+                return false;
+            }
+
+            synchronized (this) {
+                maxH264FrameSize = restoredMaxH264FrameSize;
+
+                Iterator<String> mimeTypes = jsonDecoders.keys();
+                while (mimeTypes.hasNext()) {
+                    String mimeType = mimeTypes.next();
+                    decoders.put(mimeType, DecoderCapabilities.fromJson(jsonDecoders.getJSONObject(mimeType)));
+                }
+            }
+
+            return true;
+        } catch (JSONException e) {
+            Log.d(TAG, "Unable to restore the persisted codec capabilities", e);
+            synchronized (this) {
+                decoders.clear();
+            }
+
+            return false;
+        }
+    }
+
+    private static boolean isQueriedMimeType(String mimeType) {
+        for (String queriedMimeType : QUERIED_MIME_TYPES) {
+            if (queriedMimeType.equals(mimeType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Queries the MediaCodecList for the capabilities of the decoders
+     *
+     * @return True if the capabilities were queried
+     */
+    private boolean query() {
+        Map<String, DecoderCapabilities> queriedDecoders = new HashMap<>();
+        int queriedMaxH264FrameSize;
+
+        try {
+            for (String mimeType : QUERIED_MIME_TYPES) {
+                DecoderInfo decoderInfo = MediaCodecUtil.getDecoderInfo(mimeType, false);
+                if (decoderInfo != null) {
+                    queriedDecoders.put(mimeType, DecoderCapabilities.fromDecoderInfo(decoderInfo));
+                }
+            }
+
+            queriedMaxH264FrameSize = MediaCodecUtil.maxH264DecodableFrameSize();
+        } catch (MediaCodecUtil.DecoderQueryException e) {
+            Log.d(TAG, "Unable to query the codec capabilities", e);
+            return false;
+        }
+
+        synchronized (this) {
+            decoders.putAll(queriedDecoders);
+            maxH264FrameSize = queriedMaxH264FrameSize;
+        }
+
+        return true;
+    }
+
+    private void persist() {
+        try {
+            JSONObject jsonDecoders = new JSONObject();
+            JSONObject json = new JSONObject();
+
+            synchronized (this) {
+                for (Map.Entry<String, DecoderCapabilities> entry : decoders.entrySet()) {
+                    jsonDecoders.put(entry.getKey(), entry.getValue().toJson());
+                }
+
+                json.put(JSON_MAX_H264_FRAME_SIZE, maxH264FrameSize);
+                json.put(JSON_DECODERS, jsonDecoders);
+            }
+
+            preferences.edit()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .putString(KEY_CAPABILITIES, json.toString())
+                    .apply();
+        } catch (JSONException e) {
+            Log.d(TAG, "Unable to persist the codec capabilities", e);
+        }
+    }
+
+    /**
+     * The cached capabilities of a single decoder
+     */
+    public static class DecoderCapabilities {
+        private static final String JSON_NAME = "name";
+        private static final String JSON_ADAPTIVE = "adaptive";
+        private static final String JSON_MAX_WIDTH = "maxWidth";
+        private static final String JSON_MAX_HEIGHT = "maxHeight";
+        private static final String JSON_PROFILE_LEVELS = "profileLevels";
+
+        public static final int UNKNOWN_SIZE = -1;
+
+        private final String name;
+        private final boolean adaptive;
+        private final int maxWidth;
+        private final int maxHeight;
+        private final int[][] profileLevels;
+
+        public DecoderCapabilities(String name, boolean adaptive, int maxWidth, int maxHeight, int[][] profileLevels) {
+            this.name = name;
+            this.adaptive = adaptive;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.profileLevels = profileLevels;
+        }
+
+        /**
+         * Retrieves the name of the decoder
+         *
+         * @return The decoder name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Determines if the decoder supports seamless resolution changes
+         *
+         * @return True if the decoder is adaptive
+         */
+        public boolean isAdaptive() {
+            return adaptive;
+        }
+
+        /**
+         * Retrieves the maximum video width supported by the decoder.  This is only
+         * available on Lollipop and above.
+         *
+         * @return The maximum width or {@link #UNKNOWN_SIZE}
+         */
+        public int getMaxWidth() {
+            return maxWidth;
+        }
+
+        /**
+         * Retrieves the maximum video height supported by the decoder.  This is only
+         * available on Lollipop and above.
+         *
+         * @return The maximum height or {@link #UNKNOWN_SIZE}
+         */
+        public int getMaxHeight() {
+            return maxHeight;
+        }
+
+        /**
+         * Retrieves the profile and level pairs supported by the decoder,
+         * see {@link MediaCodecInfo.CodecProfileLevel}
+         *
+         * @return The supported <code>{profile, level}</code> pairs
+         */
+        public int[][] getProfileLevels() {
+            return profileLevels;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONArray jsonProfileLevels = new JSONArray();
+            for (int[] profileLevel : profileLevels) {
+                jsonProfileLevels.put(new JSONArray().put(profileLevel[0]).put(profileLevel[1]));
+            }
+
+            JSONObject json = new JSONObject();
+            json.put(JSON_NAME, name);
+            json.put(JSON_ADAPTIVE, adaptive);
+            json.put(JSON_MAX_WIDTH, maxWidth);
+            json.put(JSON_MAX_HEIGHT, maxHeight);
+            json.put(JSON_PROFILE_LEVELS, jsonProfileLevels);
+            return json;
+        }
+
+        static DecoderCapabilities fromJson(JSONObject json) throws JSONException {
+            JSONArray jsonProfileLevels = json.getJSONArray(JSON_PROFILE_LEVELS);
+            int[][] profileLevels = new int[jsonProfileLevels.length()][];
+            for (int i = 0; i < profileLevels.length; i++) {
+                JSONArray jsonProfileLevel = jsonProfileLevels.getJSONArray(i);
+                profileLevels[i] = new int[] {jsonProfileLevel.getInt(0), jsonProfileLevel.getInt(1)};
+            }
+
+            return new DecoderCapabilities(json.getString(JSON_NAME), json.getBoolean(JSON_ADAPTIVE),
+                    json.getInt(JSON_MAX_WIDTH), json.getInt(JSON_MAX_HEIGHT), profileLevels);
+        }
+
+        static DecoderCapabilities fromDecoderInfo(DecoderInfo decoderInfo) {
+            int maxWidth = UNKNOWN_SIZE;
+            int maxHeight = UNKNOWN_SIZE;
+            int[][] profileLevels = new int[0][];
+
+            MediaCodecInfo.CodecCapabilities capabilities = decoderInfo.capabilities;
+            if (capabilities != null) {
+                profileLevels = new int[capabilities.profileLevels.length][];
+                for (int i = 0; i < profileLevels.length; i++) {
+                    profileLevels[i] = new int[] {capabilities.profileLevels[i].profile, capabilities.profileLevels[i].level};
+                }
+
+                int[] maxSize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? getMaxSizeV21(capabilities) : null;
+                if (maxSize != null) {
+                    maxWidth = maxSize[0];
+                    maxHeight = maxSize[1];
+                }
+            }
+
+            return new DecoderCapabilities(decoderInfo.name, decoderInfo.adaptive, maxWidth, maxHeight, profileLevels);
+        }
+
+        @Nullable
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private static int[] getMaxSizeV21(MediaCodecInfo.CodecCapabilities capabilities) {
+            MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+            if (videoCapabilities == null) {
+                return null;
+            }
+
+            return new int[] {videoCapabilities.getSupportedWidths().getUpper(), videoCapabilities.getSupportedHeights().getUpper()};
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.exoplayer.chunk.Format;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Watches the rate of dropped frames for the video being played and caps the frame size
+ * (width * height) for a codec when the device can't keep up with decoding it.  The caps are
+ * applied by the {@link com.devbrackets.android.exomedia.abr.FormatConstraints} for the rest of
+ * the session and persisted between app launches, keyed by the {@link Build#FINGERPRINT}, so
+ * that future sessions start at a rendition the device can sustain.
+ * <p>
+ * The dropped frames are accumulated for each format in a {@link Sample} owned by the player,
+ * and a decision is only made once at least {@link #MIN_SAMPLE_DURATION} milliseconds (and
+ * {@link #MIN_SAMPLE_FRAMES} frames) have been sampled, ignoring the reports immediately after
+ * playback starts, seeks, or rebuffers.  Only the resulting caps are shared between players.
+ * The persisted caps expire after {@link #MAX_CAP_AGE} milliseconds so that a temporary
+ * condition (e.g. thermal throttling) doesn't permanently lower the quality.
+ * <p>
+ * The caps are loaded on a background thread by {@link #initialize(Context)}, which should be
+ * called at app start.  The persisted caps are also written on that thread.
+ */
+public class EMDecoderHealth {
+    private static final String TAG = "EMDecoderHealth";
+    private static final String PREFERENCES_NAME = "exomedia_decoder_health";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAP_PREFIX = "cap_";
+    private static final String KEY_TIME_PREFIX = "time_";
+
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    public static final long MIN_SAMPLE_DURATION = 10 * 1000;
+    public static final int MIN_SAMPLE_FRAMES = 300;
+    public static final long MAX_CAP_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+    //The amount of time after playback starts, seeks, or rebuffers that the dropped frames are ignored
+    private static final long SETTLE_DURATION = 3 * 1000;
+
+    //The fraction of the expected frames that can be dropped before the format is considered unsustainable
+    private static final float MAX_DROPPED_FRAME_RATIO = 0.1f;
+    private static final float DEFAULT_FRAME_RATE = 30f;
+
+    @Nullable
+    private static EMDecoderHealth instance;
+
+    private final Context context;
+    private final ExecutorService preferencesExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Integer> maxFrameSizes = new HashMap<>();
+
+    //Only accessed on the preferencesExecutor
+    @Nullable
+    private SharedPreferences preferences;
+
+    /**
+     * Initializes the decoder health tracking, restoring the persisted caps on a background
+     * thread.  If it has already been initialized then the existing instance will be returned.
+     *
+     * @param context The context to use for accessing the persisted caps
+     * @return The shared EMDecoderHealth
+     */
+    public static synchronized EMDecoderHealth initialize(Context context) {
+        if (instance == null) {
+            instance = new EMDecoderHealth(context.getApplicationContext());
+            instance.restoreAsync();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves the decoder health tracking if it has been initialized
+     * with {@link #initialize(Context)}
+     *
+     * @return The shared EMDecoderHealth or null
+     */
+    @Nullable
+    public static synchronized EMDecoderHealth getInstance() {
+        return instance;
+    }
+
+    private EMDecoderHealth(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Determines if any of the codecs have been capped
+     *
+     * @return True if a codec has been capped
+     */
+    public synchronized boolean hasCaps() {
+        return !maxFrameSizes.isEmpty();
+    }
+
+    /**
+     * Retrieves the largest frame size (width * height) the device can sustain
+     * decoding for the codec used by the <code>format</code>
+     *
+     * @param format The format to retrieve the frame size cap for
+     * @return The maximum frame size or {@link #NO_LIMIT}
+     */
+    public synchronized int getMaxFrameSize(Format format) {
+        Integer maxFrameSize = maxFrameSizes.get(getCodecKey(format));
+        return maxFrameSize != null ? maxFrameSize : NO_LIMIT;
+    }
+
+    /**
+     * Determines if the device can sustain decoding the <code>format</code>
+     *
+     * @param format The format to check
+     * @return True if the format hasn't been capped
+     */
+    public boolean isSustainable(Format format) {
+        return format.width <= 0 || format.height <= 0 || format.width * format.height <= getMaxFrameSize(format);
+    }
+
+    /**
+     * Informs the decoder health of the frames dropped while playing the <code>format</code>.
+     * If, over a sufficient sample, the frames are dropped faster than the device can be considered
+     * to be keeping up, the frame size for the codec will be capped below the <code>format</code>.
+     *
+     * @param sample The sample for the player that dropped the frames
+     * @param format The format of the video that was playing
+     * @param count The number of frames dropped
+     * @param elapsedMs The amount of time the frames were dropped over
+     * @return True if the format has been capped
+     */
+    public boolean onDroppedFrames(Sample sample, Format format, int count, long elapsedMs) {
+        if (format.width <= 0 || format.height <= 0 || elapsedMs <= 0) {
+            return false;
+        }
+
+        float frameRate = format.frameRate > 0 ? format.frameRate : DEFAULT_FRAME_RATE;
+        int droppedFrames;
+        long duration;
+
+        synchronized (sample) {
+            if (SystemClock.elapsedRealtime() < sample.settleEndTime) {
+                return false;
+            }
+
+            if (!format.equals(sample.format)) {
+                sample.format = format;
+                sample.reset();
+            }
+
+            sample.droppedFrames += count;
+            sample.duration += elapsedMs;
+            if (sample.duration < MIN_SAMPLE_DURATION || frameRate * sample.duration / 1000f < MIN_SAMPLE_FRAMES) {
+                return false;
+            }
+
+            droppedFrames = sample.droppedFrames;
+            duration = sample.duration;
+            sample.reset();
+        }
+
+        if (droppedFrames < frameRate * duration / 1000f * MAX_DROPPED_FRAME_RATIO) {
+            return false;
+        }
+
+        synchronized (this) {
+            int maxFrameSize = format.width * format.height - 1;
+            if (maxFrameSize >= getMaxFrameSize(format)) {
+                return false;
+            }
+
+            String codecKey = getCodecKey(format);
+            Log.d(TAG, "Capping the " + codecKey + " frame size below " + format.width + "x" + format.height + " after dropping " + droppedFrames + " frames in " + duration + "ms");
+
+            maxFrameSizes.put(codecKey, maxFrameSize);
+            persist(codecKey, maxFrameSize, System.currentTimeMillis());
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the frame size caps, including the persisted caps
+     */
+    public synchronized void clear() {
+        maxFrameSizes.clear();
+
+        preferencesExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getPreferences().edit().clear().apply();
+            }
+        });
+    }
+
+    private void restoreAsync() {
+        preferencesExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+    }
+
+    /**
+     * Restores the persisted caps if they were stored by the same build, since a system
+     * update may change the decoder performance.  This is performed on the preferencesExecutor.
+     */
+    private void restore() {
+        SharedPreferences sharedPreferences = getPreferences();
+        String fingerprint = sharedPreferences.getString(KEY_FINGERPRINT, null);
+        if (fingerprint == null) {
+            return;
+        }
+
+        if (!fingerprint.equals(Build.FINGERPRINT)) {
+            sharedPreferences.edit().clear().apply();
+            return;
+        }
+
+        Map<String, Integer> restoredFrameSizes = new HashMap<>();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(KEY_CAP_PREFIX) || !(entry.getValue() instanceof Integer)) {
+                continue;
+            }
+
+            String codecKey = entry.getKey().substring(KEY_CAP_PREFIX.length());
+            if (System.currentTimeMillis() - sharedPreferences.getLong(KEY_TIME_PREFIX + codecKey, 0) <= MAX_CAP_AGE) {
+                restoredFrameSizes.put(codecKey, (Integer) entry.getValue());
+            }
+        }
+
+        //Keeps any lower caps determined while the persisted ones were being restored
+        synchronized (this) {
+            for (Map.Entry<String, Integer> entry : restoredFrameSizes.entrySet()) {
+                Integer maxFrameSize = maxFrameSizes.get(entry.getKey());
+                if (maxFrameSize == null || entry.getValue() < maxFrameSize) {
+                    maxFrameSizes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void persist(final String codecKey, final int maxFrameSize, final long capTime) {
+        preferencesExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getPreferences().edit()
+                        .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                        .putInt(KEY_CAP_PREFIX + codecKey, maxFrameSize)
+                        .putLong(KEY_TIME_PREFIX + codecKey, capTime)
+                        .apply();
+            }
+        });
+    }
+
+    private SharedPreferences getPreferences() {
+        if (preferences == null) {
+            preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        }
+
+        return preferences;
+    }
+
+    /**
+     * Determines the key for the codec family of the <code>format</code> (e.g. <code>avc1</code>
+     * for <code>avc1.64001F</code>) so that the profile and level don't split the caps.  HLS
+     * variants may list the audio codec as well, in any order, so the video codec is selected.
+     */
+    private static String getCodecKey(Format format) {
+        String codec = MediaUtil.getVideoCodec(format.codecs);
+        if (codec == null) {
+            return format.mimeType;
+        }
+
+        int separatorIndex = codec.indexOf('.');
+        return separatorIndex > 0 ? codec.substring(0, separatorIndex) : codec;
+    }
+
+    /**
+     * The dropped frames sampled for the video of a single player, so that players
+     * don't mix their samples or settle times.  Only the caps determined from the
+     * samples are shared through the EMDecoderHealth.
+     */
+    public static class Sample {
+        @Nullable
+        private Format format;
+        private int droppedFrames;
+        private long duration;
+        private long settleEndTime;
+
+        /**
+         * Informs the sample that playback has started, seeked, or resumed after
+         * rebuffering.  The frames dropped while the decoder settles will be ignored.
+         */
+        public synchronized void onPlaybackDiscontinuity() {
+            settleEndTime = SystemClock.elapsedRealtime() + SETTLE_DURATION;
+        }
+
+        private void reset() {
+            droppedFrames = 0;
+            duration = 0;
+        }
+    }
+}
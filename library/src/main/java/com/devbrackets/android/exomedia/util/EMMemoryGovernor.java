@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.util;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Listens to the system memory pressure callbacks and lowers the amount of media
+ * the players will buffer, one step at a time.  Once the application has been
+ * backgrounded the buffers continue to be reduced as the system reports that the
+ * process is more likely to be killed, until they reach roughly the size of an
+ * audio only buffer (which is also used when memory is critically low).
+ * <p>
+ * Since the system doesn't report when the pressure has eased, the buffer scale
+ * is restored one step at a time once no pressure has been reported for
+ * {@link #RESTORE_STEP_DELAY} milliseconds while in the foreground, or immediately
+ * with {@link #restore()}.
+ * <p>
+ * The governor also reports when the application has been backgrounded (the UI has been
+ * hidden) so that the video players can switch to audio only playback, and stop loading
+ * video they can't display, until the application returns to the foreground.
+ */
+public class EMMemoryGovernor implements ComponentCallbacks2 {
+    public static final long RESTORE_STEP_DELAY = 30 * 1000;
+    public static final long FOREGROUND_CHECK_INTERVAL = 1000;
+
+    private static final float[] BUFFER_SCALES = {1f, 0.75f, 0.5f, 0.25f};
+    private static final int LEVEL_NORMAL = 0;
+    private static final int LEVEL_MODERATE = 1;
+    private static final int LEVEL_LOW = 2;
+    private static final int LEVEL_CRITICAL = 3;
+
+    @Nullable
+    private static EMMemoryGovernor instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable restoreRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //While backgrounded the buffers are kept at the audio only size
+            setLevel(isInForeground() ? level - 1 : level);
+        }
+    };
+
+    private final Runnable foregroundCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isInForeground()) {
+                setBackgrounded(false);
+            } else {
+                handler.postDelayed(this, FOREGROUND_CHECK_INTERVAL);
+            }
+        }
+    };
+
+    private final Set<OnBufferScaleChangedListener> listeners = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<OnBufferScaleChangedListener, Boolean>()));
+    private final Set<OnBackgroundChangedListener> backgroundListeners = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<OnBackgroundChangedListener, Boolean>()));
+
+    private volatile int level = LEVEL_NORMAL;
+    private volatile boolean backgrounded = false;
+
+    /**
+     * Retrieves the shared memory governor, creating it if it doesn't exist.  The governor
+     * will be registered with the application context to receive the trim memory callbacks.
+     *
+     * @param context The context used to register for the trim memory callbacks
+     * @return The shared EMMemoryGovernor
+     */
+    public static synchronized EMMemoryGovernor getInstance(Context context) {
+        if (instance == null) {
+            instance = new EMMemoryGovernor();
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    private EMMemoryGovernor() {
+        //Purposefully left blank
+    }
+
+    /**
+     * Retrieves the fraction of the requested buffer sizes that the players
+     * should currently use
+     *
+     * @return The buffer scale (0, 1]
+     */
+    public float getBufferScale() {
+        return BUFFER_SCALES[level];
+    }
+
+    /**
+     * Determines if the buffers have been reduced due to memory pressure
+     *
+     * @return True if the buffers have been reduced
+     */
+    public boolean isReduced() {
+        return level != LEVEL_NORMAL;
+    }
+
+    /**
+     * Registers a listener to be informed when the buffer scale changes.  The listeners
+     * are weakly held so they don't need to be removed.
+     *
+     * @param listener The listener to inform of buffer scale changes
+     */
+    public void addOnBufferScaleChangedListener(OnBufferScaleChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Determines if the application has been backgrounded, in which case the
+     * video players should only play the audio
+     *
+     * @return True if the application is in the background
+     */
+    public boolean isBackgrounded() {
+        return backgrounded;
+    }
+
+    /**
+     * Registers a listener to be informed when the application is backgrounded or returns
+     * to the foreground.  The listeners are weakly held so they don't need to be removed.
+     *
+     * @param listener The listener to inform of background changes
+     */
+    public void addOnBackgroundChangedListener(OnBackgroundChangedListener listener) {
+        backgroundListeners.add(listener);
+    }
+
+    /**
+     * Immediately restores the buffers to their full size, this should be
+     * called when the application returns to the foreground.
+     */
+    public void restore() {
+        handler.removeCallbacks(restoreRunnable);
+        setLevel(LEVEL_NORMAL);
+        setBackgrounded(false);
+    }
+
+    @Override
+    public void onTrimMemory(int trimLevel) {
+        if (trimLevel >= TRIM_MEMORY_UI_HIDDEN) {
+            setBackgrounded(true);
+        }
+
+        //The background levels are larger than the running ones, so each is handled explicitly
+        if (trimLevel >= TRIM_MEMORY_MODERATE) {
+            reduceTo(LEVEL_CRITICAL);
+        } else if (trimLevel >= TRIM_MEMORY_BACKGROUND) {
+            reduceTo(LEVEL_LOW);
+        } else if (trimLevel >= TRIM_MEMORY_UI_HIDDEN) {
+            reduceTo(LEVEL_MODERATE);
+        } else if (trimLevel == TRIM_MEMORY_RUNNING_CRITICAL) {
+            reduceTo(LEVEL_CRITICAL);
+        } else if (trimLevel == TRIM_MEMORY_RUNNING_LOW) {
+            reduceTo(LEVEL_LOW);
+        } else if (trimLevel == TRIM_MEMORY_RUNNING_MODERATE) {
+            reduceTo(LEVEL_MODERATE);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        reduceTo(LEVEL_CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //Purposefully left blank
+    }
+
+    /**
+     * Determines if the application process is currently in the foreground.  On
+     * devices that can't report this we assume it is.
+     */
+    private static boolean isInForeground() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return true;
+        }
+
+        ActivityManager.RunningAppProcessInfo processInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(processInfo);
+        return processInfo.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+    }
+
+    /**
+     * Lowers the buffers to at least the specified level and restarts
+     * the restoration delay
+     */
+    private void reduceTo(int newLevel) {
+        setLevel(Math.max(level, newLevel));
+    }
+
+    private void setLevel(int newLevel) {
+        int previousLevel = level;
+        level = Math.max(LEVEL_NORMAL, Math.min(LEVEL_CRITICAL, newLevel));
+
+        handler.removeCallbacks(restoreRunnable);
+        if (level != LEVEL_NORMAL) {
+            handler.postDelayed(restoreRunnable, RESTORE_STEP_DELAY);
+        }
+
+        if (level != previousLevel) {
+            notifyBufferScaleChanged();
+        }
+    }
+
+    /**
+     * Updates the background state, checking for the return to the foreground while backgrounded
+     * since the system doesn't report it.  Devices that can't report the foreground state
+     * are never considered backgrounded, otherwise the video wouldn't be restored.
+     */
+    private void setBackgrounded(boolean backgrounded) {
+        if (backgrounded && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+
+        handler.removeCallbacks(foregroundCheckRunnable);
+        if (backgrounded) {
+            handler.postDelayed(foregroundCheckRunnable, FOREGROUND_CHECK_INTERVAL);
+        }
+
+        if (this.backgrounded == backgrounded) {
+            return;
+        }
+
+        this.backgrounded = backgrounded;
+
+        OnBackgroundChangedListener[] currentListeners;
+        synchronized (backgroundListeners) {
+            currentListeners = backgroundListeners.toArray(new OnBackgroundChangedListener[backgroundListeners.size()]);
+        }
+
+        for (OnBackgroundChangedListener listener : currentListeners) {
+            listener.onBackgroundChanged(backgrounded);
+        }
+    }
+
+    private void notifyBufferScaleChanged() {
+        OnBufferScaleChangedListener[] currentListeners;
+        synchronized (listeners) {
+            currentListeners = listeners.toArray(new OnBufferScaleChangedListener[listeners.size()]);
+        }
+
+        float bufferScale = getBufferScale();
+        for (OnBufferScaleChangedListener listener : currentListeners) {
+            listener.onBufferScaleChanged(bufferScale);
+        }
+    }
+
+    /**
+     * Informed when the fraction of the requested buffer sizes the players
+     * should use changes
+     */
+    public interface OnBufferScaleChangedListener {
+        void onBufferScaleChanged(float bufferScale);
+    }
+
+    /**
+     * Informed when the application is backgrounded or returns to the foreground
+     */
+    public interface OnBackgroundChangedListener {
+        void onBackgroundChanged(boolean backgrounded);
+    }
+}
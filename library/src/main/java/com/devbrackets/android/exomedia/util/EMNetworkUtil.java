@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 Brian Wernick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.devbrackets.android.exomedia.util;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.Nullable;
+import android.support.v4.net.ConnectivityManagerCompat;
+
+/**
+ * A Utility class to help determine information about the devices network connection.
+ * The {@link Manifest.permission#ACCESS_NETWORK_STATE} permission is required for
+ * the network information to be available.
+ */
+public class EMNetworkUtil {
+    public static final String NETWORK_TYPE_UNKNOWN = "unknown";
+    public static final String NETWORK_TYPE_NONE = "none";
+
+    private static volatile boolean dataSaverEnabled = false;
+
+    private EMNetworkUtil() {
+        //Purposefully left blank
+    }
+
+    /**
+     * Retrieves a key representing the type of the currently active network
+     * (e.g. "WIFI", "MOBILE_LTE").  This can be used to keep track of information
+     * that is specific to the type of network, such as the bandwidth.
+     *
+     * @param context The context to use for determining the network information
+     * @return The key for the active network type
+     */
+    public static String getNetworkTypeKey(Context context) {
+        if (!hasNetworkStatePermission(context)) {
+            return NETWORK_TYPE_UNKNOWN;
+        }
+
+        NetworkInfo networkInfo = getActiveNetworkInfo(context);
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NETWORK_TYPE_NONE;
+        }
+
+        if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+            return networkInfo.getTypeName() + "_" + networkInfo.getSubtypeName();
+        }
+
+        return networkInfo.getTypeName();
+    }
+
+    /**
+     * Determines if the currently active network is metered (e.g. cellular or a
+     * metered hotspot).  If the network state can't be determined it will be
+     * treated as unmetered.
+     *
+     * @param context The context to use for determining the network information
+     * @return True if the active network is metered
+     */
+    public static boolean isActiveNetworkMetered(Context context) {
+        if (!hasNetworkStatePermission(context)) {
+            return false;
+        }
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager != null && ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
+    /**
+     * Sets whether the user has asked the app to reduce its data usage.  This is used
+     * by the {@link com.devbrackets.android.exomedia.builder.BitratePolicy} to limit the
+     * bitrate of the adaptive streams.
+     *
+     * @param enabled True if data saving is enabled [default: false]
+     */
+    public static void setDataSaverEnabled(boolean enabled) {
+        dataSaverEnabled = enabled;
+    }
+
+    /**
+     * Determines if the app has enabled data saving with {@link #setDataSaverEnabled(boolean)}
+     *
+     * @return True if data saving is enabled
+     */
+    public static boolean isDataSaverEnabled() {
+        return dataSaverEnabled;
+    }
+
+    @Nullable
+    private static NetworkInfo getActiveNetworkInfo(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+    }
+
+    private static boolean hasNetworkStatePermission(Context context) {
+        return context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_NETWORK_STATE) == PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -19,6 +19,8 @@ package com.devbrackets.android.exomedia.util;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 
+import com.google.android.exoplayer.util.MimeTypes;
+
 /**
  * A Utility class to help with determining information about media
  */
@@ -107,6 +109,67 @@ public class MediaUtil {
         return MediaType.UNKNOWN;
     }
 
+    /**
+     * Retrieves the video codec from a list of RFC 6381 codecs (e.g. the <code>CODECS</code>
+     * attribute of an HLS variant), ignoring the audio and text codecs.
+     *
+     * @param codecs The comma separated list of codecs
+     * @return The video codec (e.g. avc1.4d401f) or null if the list doesn't contain one
+     */
+    @Nullable
+    public static String getVideoCodec(@Nullable String codecs) {
+        if (codecs == null || codecs.trim().isEmpty()) {
+            return null;
+        }
+
+        //Prefers the known video codecs, falling back to the first one that isn't audio or text
+        String otherCodec = null;
+        for (String codec : codecs.split(",")) {
+            String trimmed = codec.trim();
+            if (getCodecMimeType(trimmed) != null) {
+                return trimmed;
+            }
+
+            if (otherCodec == null && !trimmed.isEmpty() && !isAudioOrTextCodec(trimmed)) {
+                otherCodec = trimmed;
+            }
+        }
+
+        return otherCodec;
+    }
+
+    /**
+     * Retrieves the mime type for the video codec in a list of RFC 6381 codecs
+     *
+     * @param codecs The comma separated list of codecs
+     * @return The video mime type (e.g. {@link MimeTypes#VIDEO_H264}) or null if the list doesn't contain a known video codec
+     */
+    @Nullable
+    public static String getVideoMimeType(@Nullable String codecs) {
+        String videoCodec = getVideoCodec(codecs);
+        return videoCodec != null ? getCodecMimeType(videoCodec) : null;
+    }
+
+    @Nullable
+    private static String getCodecMimeType(String codec) {
+        if (codec.startsWith("avc1") || codec.startsWith("avc3")) {
+            return MimeTypes.VIDEO_H264;
+        } else if (codec.startsWith("hvc1") || codec.startsWith("hev1")) {
+            return MimeTypes.VIDEO_H265;
+        } else if (codec.startsWith("vp09") || codec.startsWith("vp9")) {
+            return MimeTypes.VIDEO_VP9;
+        } else if (codec.startsWith("vp08") || codec.startsWith("vp8")) {
+            return MimeTypes.VIDEO_VP8;
+        }
+
+        return null;
+    }
+
+    private static boolean isAudioOrTextCodec(String codec) {
+        return codec.startsWith("mp4a") || codec.startsWith("ac-3") || codec.startsWith("ec-3") || codec.startsWith("opus")
+                || codec.startsWith("vorbis") || codec.startsWith("flac") || codec.startsWith("stpp") || codec.startsWith("wvtt");
+    }
+
     @Nullable
     private static String getExtension(String mediaUri) {
         if (mediaUri == null || mediaUri.trim().isEmpty()) {
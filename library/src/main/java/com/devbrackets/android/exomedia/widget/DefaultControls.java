@@ -18,6 +18,7 @@ package com.devbrackets.android.exomedia.widget;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Handler;
@@ -29,6 +30,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.AlphaAnimation;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
@@ -40,7 +42,9 @@ import com.devbrackets.android.exomedia.event.EMMediaPlayPauseEvent;
 import com.devbrackets.android.exomedia.event.EMMediaPreviousEvent;
 import com.devbrackets.android.exomedia.event.EMMediaProgressEvent;
 import com.devbrackets.android.exomedia.event.EMVideoViewControlVisibilityEvent;
+import com.devbrackets.android.exomedia.listener.EMThumbnailCallback;
 import com.devbrackets.android.exomedia.listener.EMVideoViewControlsCallback;
+import com.devbrackets.android.exomedia.thumbnail.EMThumbnailLoader;
 import com.devbrackets.android.exomedia.util.EMEventBus;
 import com.devbrackets.android.exomedia.util.EMResourceUtil;
 
@@ -66,6 +70,9 @@ public abstract class DefaultControls extends RelativeLayout {
     protected ViewGroup controlsContainer;
     protected ProgressBar loadingProgress;
 
+    @Nullable
+    protected ImageView thumbnailView;
+
     protected Drawable defaultPlayDrawable;
     protected Drawable defaultPauseDrawable;
     protected Drawable defaultPreviousDrawable;
@@ -90,6 +97,15 @@ public abstract class DefaultControls extends RelativeLayout {
     protected SeekCallbacks seekCallbacks;
     protected EMVideoViewControlsCallback callback;
 
+    protected EMThumbnailCallback thumbnailCallback = new EMThumbnailCallback() {
+        @Override
+        public void onThumbnailLoaded(long positionMs, Bitmap thumbnail) {
+            if (thumbnailView != null && thumbnailView.getVisibility() == View.VISIBLE) {
+                thumbnailView.setImageBitmap(thumbnail);
+            }
+        }
+    };
+
     public DefaultControls(Context context) {
         super(context);
         setup(context);
@@ -442,6 +458,39 @@ public abstract class DefaultControls extends RelativeLayout {
         nextButton = (ImageButton) findViewById(R.id.exomedia_controls_next_btn);
         loadingProgress = (ProgressBar) findViewById(R.id.exomedia_controls_video_loading);
         controlsContainer = (ViewGroup) findViewById(R.id.exomedia_controls_interactive_container);
+        thumbnailView = (ImageView) findViewById(R.id.exomedia_controls_thumbnail);
+    }
+
+    /**
+     * Shows the seek thumbnail for the <code>position</code> if the {@link #videoView}
+     * has a thumbnail track specified with {@link EMVideoView#setThumbnailUri(android.net.Uri)}.
+     * If the thumbnail isn't loaded yet the previous thumbnail will remain until it is.
+     *
+     * @param position The position in milliseconds to show the thumbnail for
+     */
+    protected void showThumbnail(long position) {
+        EMThumbnailLoader thumbnailLoader = videoView != null ? videoView.getThumbnailLoader() : null;
+        if (thumbnailView == null || thumbnailLoader == null) {
+            return;
+        }
+
+        thumbnailLoader.setCallback(thumbnailCallback);
+        Bitmap thumbnail = thumbnailLoader.requestThumbnail(position);
+        if (thumbnail != null) {
+            thumbnailView.setImageBitmap(thumbnail);
+        }
+
+        thumbnailView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Hides the seek thumbnail shown with {@link #showThumbnail(long)}
+     */
+    protected void hideThumbnail() {
+        if (thumbnailView != null) {
+            thumbnailView.setVisibility(View.GONE);
+            thumbnailView.setImageDrawable(null);
+        }
     }
 
     /**
@@ -20,6 +20,7 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
 import android.support.annotation.DrawableRes;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
@@ -41,6 +42,7 @@ import com.devbrackets.android.exomedia.util.TimeFormatUtil;
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class DefaultControlsLeanback extends DefaultControls {
     private static final int FAST_FORWARD_REWIND_AMOUNT = 10000; //10 seconds
+    private static final long SCRUB_END_DELAY = 500;
 
     private ProgressBar progressBar;
 
@@ -55,6 +57,18 @@ public class DefaultControlsLeanback extends DefaultControls {
     private View currentFocus;
     private ButtonFocusChangeListener buttonFocusChangeListener = new ButtonFocusChangeListener();
 
+    private Handler scrubHandler = new Handler();
+    private Runnable scrubEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (videoView != null) {
+                videoView.setScrubbing(false);
+            }
+
+            hideThumbnail();
+        }
+    };
+
     public DefaultControlsLeanback(Context context) {
         super(context);
     }
@@ -318,7 +332,13 @@ public class DefaultControlsLeanback extends DefaultControls {
             return;
         }
 
+        //Rapid presses on the remote are coalesced so that only the newest seek is performed
+        videoView.setScrubbing(true);
         videoView.seekTo(seekToTime);
+        showThumbnail(seekToTime);
+
+        scrubHandler.removeCallbacks(scrubEndRunnable);
+        scrubHandler.postDelayed(scrubEndRunnable, SCRUB_END_DELAY);
     }
 
     /**
@@ -165,6 +165,8 @@ public class DefaultControlsMobile extends DefaultControls {
             if (currentTime != null) {
                 currentTime.setText(TimeFormatUtil.formatMs(progress));
             }
+
+            showThumbnail(progress);
         }
 
         @Override
@@ -183,6 +185,8 @@ public class DefaultControlsMobile extends DefaultControls {
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
             userInteracting = false;
+            hideThumbnail();
+
             if (seekCallbacks != null && seekCallbacks.onSeekEnded(seekToTime)) {
                 return;
             }